@@ -17,29 +17,73 @@
 package com.achomutovskij.deviceservice;
 
 import com.achomutovskij.deviceservice.booking.api.DeviceBookingServiceEndpoints;
+import com.achomutovskij.deviceservice.capability.DeviceCapabilityIndex;
+import com.achomutovskij.deviceservice.cluster.Cluster;
+import com.achomutovskij.deviceservice.cluster.PeerClient;
+import com.achomutovskij.deviceservice.cluster.api.DeviceClusterServiceEndpoints;
+import com.achomutovskij.deviceservice.database.DatabaseBackups;
 import com.achomutovskij.deviceservice.database.DatabaseManager;
 import com.achomutovskij.deviceservice.gsm.GsmArenaDataProvider;
+import com.achomutovskij.deviceservice.gsm.GsmNetworkDetailsLookup;
 import com.achomutovskij.deviceservice.gsm.RapidApiClient;
+import com.achomutovskij.deviceservice.gsm.RapidApiTransport;
+import com.achomutovskij.deviceservice.gsm.SpecCacheWarmer;
 import com.achomutovskij.deviceservice.info.api.DeviceInfoServiceEndpoints;
+import com.achomutovskij.deviceservice.inventory.InventoryCounters;
 import com.achomutovskij.deviceservice.management.api.DeviceManagementServiceEndpoints;
+import com.achomutovskij.deviceservice.memory.MemoryAccounting;
+import com.achomutovskij.deviceservice.replication.ChangeLog;
+import com.achomutovskij.deviceservice.replication.FollowerHandler;
+import com.achomutovskij.deviceservice.replication.LeaderClient;
+import com.achomutovskij.deviceservice.replication.ReplicaFollower;
+import com.achomutovskij.deviceservice.replication.api.DeviceReplicationServiceEndpoints;
 import com.achomutovskij.deviceservice.resources.DeviceBookingResource;
+import com.achomutovskij.deviceservice.resources.DeviceClusterResource;
 import com.achomutovskij.deviceservice.resources.DeviceInfoResource;
 import com.achomutovskij.deviceservice.resources.DeviceManagementResource;
+import com.achomutovskij.deviceservice.resources.DeviceReplicationResource;
+import com.achomutovskij.deviceservice.server.MetricsHandler;
+import com.achomutovskij.deviceservice.server.MetricsRegistry;
+import com.achomutovskij.deviceservice.server.PeerAuthenticationHandler;
+import com.achomutovskij.deviceservice.server.RateLimitingHandler;
+import com.achomutovskij.deviceservice.server.ReadinessHandler;
+import com.achomutovskij.deviceservice.server.ResponseCompression;
+import com.achomutovskij.deviceservice.server.ServerTimingHandler;
+import com.achomutovskij.deviceservice.server.ServiceExecutorsHandler;
+import com.achomutovskij.deviceservice.server.StartupTimer;
+import com.achomutovskij.deviceservice.server.VirtualThreadDispatchHandler;
 import com.google.common.base.Strings;
 import com.palantir.conjure.java.api.config.ssl.SslConfiguration;
 import com.palantir.conjure.java.api.errors.ErrorType;
 import com.palantir.conjure.java.api.errors.ServiceException;
 import com.palantir.conjure.java.config.ssl.SslSocketFactories;
 import com.palantir.conjure.java.undertow.runtime.ConjureHandler;
+import com.palantir.logsafe.Preconditions;
 import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
 import com.palantir.logsafe.logger.SafeLogger;
 import com.palantir.logsafe.logger.SafeLoggerFactory;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 import javax.net.ssl.SSLContext;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 
 public final class DeviceServiceApplication {
@@ -56,6 +100,21 @@ public final class DeviceServiceApplication {
     public static final String SQLITE_URL = "jdbc:sqlite:var/db/database.db";
     private static final String DEVICE_INFO_CSV = "var/gsmarena_data/gsmarena_dataset.csv";
 
+    private static final Duration PEER_CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration PEER_CALL_TIMEOUT = Duration.ofSeconds(30);
+
+    // Undertow's own defaults
+    private static final int IO_THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    private static final int WORKER_THREADS_PER_IO_THREAD = 8;
+    private static final int BUFFER_SIZE_BYTES = 16 * 1_024;
+
+    private static final int BOOKING_THREADS = 16;
+    private static final int BOOKING_QUEUE_SIZE = 256;
+    private static final int INFO_THREADS = 32;
+    private static final int INFO_QUEUE_SIZE = 64;
+    private static final int MANAGEMENT_THREADS = 4;
+    private static final int MANAGEMENT_QUEUE_SIZE = 16;
+
     private DeviceServiceApplication() {}
 
     public static void main(String[] _args) {
@@ -71,40 +130,403 @@ public final class DeviceServiceApplication {
 
     @SuppressWarnings("ShutdownHook") // cannot find another way of attaching a shutdown hook other than via runtime
     public static Undertow startServer(Configuration conf) {
-        DatabaseManager databaseManager = new DatabaseManager(SQLITE_URL, conf.getFirstStartupRegisterDevices());
+        StartupTimer startupTimer = new StartupTimer();
+        ExecutorService startupExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+        Preconditions.checkArgument(
+                conf.getCluster().isEmpty() || conf.getFollower().isEmpty(),
+                "A follower cannot be part of a cluster, it follows a single node");
+        Cluster cluster = conf.getCluster().map(DeviceServiceApplication::cluster).orElseGet(Cluster::standalone);
+        Optional<FollowerConfiguration> followerConf = conf.getFollower();
+        String databaseUrl =
+                conf.getDatabaseUrl().orElseGet(() -> followerConf.isPresent() ? followerDatabaseUrl() : SQLITE_URL);
 
-        GsmArenaDataProvider gsmArenaDataProvider = new GsmArenaDataProvider(DEVICE_INFO_CSV);
+        // the phases below are independent, only the database and the SSL context are needed before serving
+        CompletableFuture<DatabaseManager> databaseManagerFuture = startupTimer.timeAsync(
+                "database",
+                () -> {
+                    conf.getRestoreFrom()
+                            .flatMap(snapshot -> DatabaseBackups.restoreIfMissing(Paths.get(snapshot), databaseUrl))
+                            .ifPresent(restore -> startupTimer.record("database-restore", restore.duration()));
+                    return new DatabaseManager(
+                            databaseUrl,
+                            // a follower's devices all come from the leader
+                            followerConf.isPresent() ? List.of() : conf.getFirstStartupRegisterDevices(),
+                            conf.getMaxConcurrentDatabaseOperations()
+                                    .orElse(DatabaseManager.DEFAULT_MAX_CONCURRENT_OPERATIONS),
+                            cluster::owns,
+                            conf.getDeviceAllocationPolicy().orElse(DeviceAllocationPolicy.LEAST_RECENTLY_USED));
+                },
+                startupExecutor);
 
-        SSLContext sslContext = SslSocketFactories.createSslContext(SSL_CONFIG);
+        CompletableFuture<SSLContext> sslContextFuture = startupTimer.timeAsync(
+                "ssl-context", () -> SslSocketFactories.createSslContext(SSL_CONFIG), startupExecutor);
 
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        GsmArenaDataProvider gsmArenaDataProvider =
+                new GsmArenaDataProvider(DEVICE_INFO_CSV, startupExecutor, metricsRegistry);
+        Runtime.getRuntime().addShutdownHook(new Thread(gsmArenaDataProvider::stop));
+        startupExecutor.shutdown(); // lets the submitted phases finish
+
+        int maxConcurrentRapidApiRequests =
+                conf.getMaxConcurrentRapidApiRequests().orElse(RapidApiClient.DEFAULT_MAX_CONCURRENT_REQUESTS);
+        RapidApiTransport rapidApiTransport = rapidApiTransport(
+                conf.getRapidApiTransport().orElseGet(() -> RapidApiTransportConfiguration.builder().build()),
+                maxConcurrentRapidApiRequests);
+        Optional<MemoryBudgetsConfiguration> memoryBudgets = conf.getMemoryBudgets();
         Optional<RapidApiClient> rapidApiClientOptional = conf.getApiKey()
                 .filter(apiKey -> !Strings.isNullOrEmpty(apiKey))
-                .map(apiKey -> new RapidApiClient(new OkHttpClient(), apiKey));
+                .map(apiKey -> new RapidApiClient(
+                        rapidApiTransport.newHttpClient(),
+                        apiKey,
+                        Math.min(maxConcurrentRapidApiRequests, rapidApiTransport.maxRequestsPerHost()),
+                        conf.getRapidApiBaseUrl().map(HttpUrl::get).orElse(RapidApiClient.DEFAULT_BASE_URL),
+                        budgetBytes(memoryBudgets, MemoryBudgetsConfiguration::getRapidApiCacheMegabytes)));
 
         if (rapidApiClientOptional.isEmpty()) {
             log.warn("No API key is provided, will only use the CSV lookup.");
         }
 
+        DatabaseManager databaseManager = StartupTimer.await(databaseManagerFuture);
+        Runtime.getRuntime().addShutdownHook(new Thread(databaseManager::stop));
+        metricsRegistry.gauge("booking.waiters", databaseManager::waitingBookings);
+
+        Optional<BackupConfiguration> backupConf = conf.getBackup();
+        DatabaseBackups databaseBackups = new DatabaseBackups(
+                databaseManager,
+                Paths.get(backupConf
+                        .flatMap(BackupConfiguration::getDirectory)
+                        .orElse(DatabaseBackups.DEFAULT_DIRECTORY)),
+                backupConf
+                        .map(BackupConfiguration::getRetained)
+                        .orElseGet(OptionalInt::empty)
+                        .orElse(DatabaseBackups.DEFAULT_RETAINED),
+                metricsRegistry);
+        Runtime.getRuntime().addShutdownHook(new Thread(databaseBackups::stop));
+        OptionalInt backupIntervalMinutes =
+                backupConf.map(BackupConfiguration::getIntervalMinutes).orElseGet(OptionalInt::empty);
+        if (backupIntervalMinutes.isPresent()) {
+            databaseBackups.start(Duration.ofMinutes(backupIntervalMinutes.getAsInt()));
+        }
+
+        Optional<SpecCacheWarmer> specCacheWarmerOptional = rapidApiClientOptional.map(rapidApiClient -> {
+            Optional<SpecCacheWarmUpConfiguration> warmUpConf = conf.getSpecCacheWarmUp();
+            return new SpecCacheWarmer(
+                    rapidApiClient,
+                    databaseManager::getDistinctDeviceNames,
+                    warmUpConf
+                            .map(SpecCacheWarmUpConfiguration::getRequestsPerMinute)
+                            .orElseGet(OptionalInt::empty)
+                            .orElse(SpecCacheWarmer.DEFAULT_REQUESTS_PER_MINUTE),
+                    Duration.ofMinutes(warmUpConf
+                            .map(SpecCacheWarmUpConfiguration::getRefreshIntervalMinutes)
+                            .orElseGet(OptionalInt::empty)
+                            .orElse(SpecCacheWarmer.DEFAULT_REFRESH_INTERVAL_MINUTES)));
+        });
+
+        GsmNetworkDetailsLookup gsmNetworkDetailsLookup =
+                new GsmNetworkDetailsLookup(rapidApiClientOptional, gsmArenaDataProvider);
+        DeviceCapabilityIndex deviceCapabilityIndex = new DeviceCapabilityIndex(gsmNetworkDetailsLookup::lookup);
+        databaseManager.addChangeListener(deviceCapabilityIndex);
+        Runtime.getRuntime().addShutdownHook(new Thread(deviceCapabilityIndex::stop));
+        InventoryCounters inventoryCounters = new InventoryCounters();
+        databaseManager.addChangeListener(inventoryCounters);
+
+        MemoryAccounting memoryAccounting = new MemoryAccounting();
+        memoryAccounting.register(
+                "gsmArenaDataset",
+                gsmArenaDataProvider::footprint,
+                budgetBytes(memoryBudgets, MemoryBudgetsConfiguration::getGsmArenaDatasetMegabytes));
+        rapidApiClientOptional.ifPresent(rapidApiClient -> memoryAccounting.register(
+                "rapidApiCache",
+                rapidApiClient::footprint,
+                budgetBytes(memoryBudgets, MemoryBudgetsConfiguration::getRapidApiCacheMegabytes)));
+        memoryAccounting.register(
+                "capabilityIndex",
+                deviceCapabilityIndex::footprint,
+                budgetBytes(memoryBudgets, MemoryBudgetsConfiguration::getCapabilityIndexMegabytes));
+
+        // started once the listeners above are in place, so that they see every replicated change
+        Optional<ReplicaFollower> followerOptional =
+                followerConf.map(configuration -> follower(configuration, databaseManager, metricsRegistry));
+        followerOptional.ifPresent(follower -> {
+            follower.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(follower::stop));
+        });
+
+        DeviceBookingResource deviceBookingResource = new DeviceBookingResource(databaseManager, cluster);
+        ConjureHandler.Builder conjureHandlerBuilder = ConjureHandler.builder()
+                .services(DeviceManagementServiceEndpoints.of(new DeviceManagementResource(
+                        databaseManager,
+                        cluster,
+                        gsmArenaDataProvider,
+                        deviceCapabilityIndex,
+                        databaseBackups,
+                        memoryAccounting)))
+                .services(DeviceInfoServiceEndpoints.of(new DeviceInfoResource(
+                        databaseManager,
+                        cluster,
+                        gsmNetworkDetailsLookup,
+                        specCacheWarmerOptional,
+                        deviceCapabilityIndex,
+                        inventoryCounters)))
+                .services(DeviceBookingServiceEndpoints.of(deviceBookingResource));
+        if (conf.getCluster().isPresent()) {
+            conjureHandlerBuilder = conjureHandlerBuilder.services(DeviceClusterServiceEndpoints.of(
+                    new DeviceClusterResource(databaseManager, deviceBookingResource)));
+        }
+        if (followerOptional.isEmpty() && conf.getReplicationToken().isPresent()) {
+            ChangeLog changeLog = new ChangeLog(ChangeLog.DEFAULT_CAPACITY);
+            databaseManager.addChangeListener(changeLog);
+            Runtime.getRuntime().addShutdownHook(new Thread(changeLog::stop));
+            conjureHandlerBuilder = conjureHandlerBuilder.services(
+                    DeviceReplicationServiceEndpoints.of(new DeviceReplicationResource(databaseManager, changeLog)));
+        }
+        HttpHandler conjureHandler = conjureHandlerBuilder.build();
+
+        // innermost, so that the timings are bound on the thread that ends up running the handler
+        conjureHandler = new ServerTimingHandler(
+                conjureHandler,
+                duration(
+                        conf.getSlowRequestThresholdMillis(),
+                        ChronoUnit.MILLIS,
+                        ServerTimingHandler.DEFAULT_SLOW_REQUEST_THRESHOLD));
+
+        ExecutionMode executionMode = conf.getExecutionMode().orElse(ExecutionMode.PLATFORM_THREADS);
+        if (executionMode.equals(ExecutionMode.VIRTUAL_THREADS)) {
+            conjureHandler = new VirtualThreadDispatchHandler(conjureHandler);
+        } else {
+            ServiceExecutorsHandler serviceExecutorsHandler = serviceExecutors(
+                    conjureHandler,
+                    conf.getServiceExecutors()
+                            .orElseGet(() -> ServiceExecutorsConfiguration.builder().build()),
+                    metricsRegistry);
+            Runtime.getRuntime().addShutdownHook(new Thread(serviceExecutorsHandler::stop));
+            conjureHandler = serviceExecutorsHandler;
+        }
+        log.info("Conjure handlers will run on {}", SafeArg.of("executionMode", executionMode));
+
+        if (followerOptional.isPresent()) {
+            // inside the rate limits, so that the calls forwarded to the leader are limited here as well
+            conjureHandler = new FollowerHandler(
+                    conjureHandler,
+                    // the waiting bookings are held on the leader for up to their timeout
+                    peerHttpClient(PEER_CALL_TIMEOUT.plusMillis(DeviceBookingResource.MAX_WAIT_TIMEOUT_MILLIS)),
+                    followerConf.get().getLeader(),
+                    followerOptional.get());
+        }
+
+        if (conf.getRateLimit().isPresent()) {
+            RateLimitConfiguration rateLimit = conf.getRateLimit().get();
+            // the calls forwarded by the other nodes were already limited on the node they were made to, and the
+            // followers' long polls are not client traffic; the peer authentication below lets only those through
+            conjureHandler = new RateLimitingHandler(
+                    conjureHandler,
+                    "/v1/info/",
+                    List.of("/v1/cluster/", "/v1/replication/"),
+                    rateLimit.getCallerHeader().orElse(RateLimitingHandler.DEFAULT_CALLER_HEADER),
+                    Set.copyOf(rateLimit.getTrustedProxies()),
+                    budget(rateLimit.getRead()),
+                    budget(rateLimit.getWrite()),
+                    metricsRegistry);
+        }
+
+        // outermost, so that the calls on the peer APIs that the rate limits let through are all from the peers
+        if (conf.getCluster().isPresent()) {
+            conjureHandler = new PeerAuthenticationHandler(
+                    conjureHandler, "/v1/cluster/", conf.getCluster().get().getPeerToken());
+        }
+        if (conf.getReplicationToken().isPresent()) {
+            conjureHandler = new PeerAuthenticationHandler(
+                    conjureHandler, "/v1/replication/", conf.getReplicationToken().get());
+        }
+
+        ServerConfiguration serverConf = conf.getServer().orElseGet(() -> ServerConfiguration.builder().build());
+        int ioThreads = serverConf.getIoThreads().orElse(IO_THREADS);
+        HttpHandler rootHandler = Handlers.path()
+                .addPrefixPath("api/", conjureHandler)
+                .addExactPath(
+                        "status/readiness",
+                        new ReadinessHandler(() -> gsmArenaDataProvider.isReady()
+                                && followerOptional.map(ReplicaFollower::isFresh).orElse(true)))
+                .addExactPath("status/metrics", new MetricsHandler(metricsRegistry));
+        if (serverConf.getCompression().orElse(true)) {
+            rootHandler = ResponseCompression.handler(
+                    rootHandler,
+                    serverConf.getCompressionThresholdBytes().orElse(ResponseCompression.DEFAULT_THRESHOLD_BYTES));
+        }
+
         Undertow server = Undertow.builder()
-                .addHttpsListener(conf.getPort(), conf.getHost(), sslContext)
+                .setIoThreads(ioThreads)
+                .setWorkerThreads(serverConf.getWorkerThreads().orElse(ioThreads * WORKER_THREADS_PER_IO_THREAD))
+                .setBufferSize(serverConf.getBufferSizeBytes().orElse(BUFFER_SIZE_BYTES))
+                // offered through ALPN on the HTTPS listener, Conjure clients pick it and multiplex their calls
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, serverConf.getHttp2().orElse(true))
+                .addHttpsListener(conf.getPort(), conf.getHost(), StartupTimer.await(sslContextFuture))
                 .addHttpListener(conf.getPort() + 1, conf.getHost())
-                .setHandler(Handlers.path()
-                        .addPrefixPath(
-                                "api/",
-                                ConjureHandler.builder()
-                                        .services(DeviceManagementServiceEndpoints.of(
-                                                new DeviceManagementResource(databaseManager)))
-                                        .services(DeviceInfoServiceEndpoints.of(new DeviceInfoResource(
-                                                databaseManager, rapidApiClientOptional, gsmArenaDataProvider)))
-                                        .services(DeviceBookingServiceEndpoints.of(
-                                                new DeviceBookingResource(databaseManager)))
-                                        .build()))
+                .setHandler(rootHandler)
                 .build();
+        log.info(
+                "Serving with {} IO threads, HTTP/2 {} and compression {}",
+                SafeArg.of("ioThreads", ioThreads),
+                SafeArg.of("http2", serverConf.getHttp2().orElse(true)),
+                SafeArg.of("compression", serverConf.getCompression().orElse(true)));
 
-        Runtime.getRuntime().addShutdownHook(new Thread(databaseManager::stop));
+        startupTimer.time("server-start", () -> {
+            server.start();
+            return server;
+        });
+        startupTimer.logReport("server-started");
+
+        specCacheWarmerOptional.ifPresent(specCacheWarmer -> {
+            specCacheWarmer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(specCacheWarmer::stop));
+        });
 
-        server.start();
+        reportWhenReady(startupTimer, gsmArenaDataProvider);
 
         return server;
     }
+
+    private static Cluster cluster(ClusterConfiguration clusterConf) {
+        OkHttpClient peerHttpClient = peerHttpClient(PEER_CALL_TIMEOUT);
+        log.info(
+                "Running as {} in a cluster of {}",
+                UnsafeArg.of("self", clusterConf.getSelf()),
+                UnsafeArg.of("nodes", clusterConf.getNodes()));
+        return Cluster.create(
+                clusterConf.getSelf(),
+                clusterConf.getNodes(),
+                clusterConf.getVirtualNodes().orElse(Cluster.DEFAULT_VIRTUAL_NODES),
+                node -> new PeerClient(peerHttpClient, HttpUrl.get(node), clusterConf.getPeerToken()));
+    }
+
+    private static ReplicaFollower follower(
+            FollowerConfiguration followerConf, DatabaseManager databaseManager, MetricsRegistry metricsRegistry) {
+        Duration pollWait =
+                duration(followerConf.getPollWaitMillis(), ChronoUnit.MILLIS, ReplicaFollower.DEFAULT_POLL_WAIT);
+        log.info("Running as a follower of {}", UnsafeArg.of("leader", followerConf.getLeader()));
+        return new ReplicaFollower(
+                databaseManager,
+                // the leader holds a poll for up to the poll wait before it answers
+                new LeaderClient(
+                        peerHttpClient(PEER_CALL_TIMEOUT.plus(pollWait)),
+                        HttpUrl.get(followerConf.getLeader()),
+                        followerConf.getLeaderToken()),
+                pollWait,
+                duration(
+                        followerConf.getMaxStalenessMillis(),
+                        ChronoUnit.MILLIS,
+                        ReplicaFollower.DEFAULT_MAX_STALENESS),
+                metricsRegistry);
+    }
+
+    private static OkHttpClient peerHttpClient(Duration callTimeout) {
+        return new OkHttpClient.Builder()
+                .sslSocketFactory(
+                        SslSocketFactories.createSslSocketFactory(SSL_CONFIG),
+                        SslSocketFactories.createX509TrustManager(SSL_CONFIG))
+                .connectTimeout(PEER_CONNECT_TIMEOUT)
+                .callTimeout(callTimeout)
+                .build();
+    }
+
+    /** A fresh database for every start of a follower, which copies everything from the leader anyway. */
+    private static String followerDatabaseUrl() {
+        try {
+            Path file = Files.createTempFile("device-service-follower", ".db");
+            file.toFile().deleteOnExit();
+            return "jdbc:sqlite:" + file;
+        } catch (IOException e) {
+            throw new ServiceException(
+                    ErrorType.INTERNAL, e, SafeArg.of("reason", "Failed to create the follower database"));
+        }
+    }
+
+    private static ServiceExecutorsHandler serviceExecutors(
+            HttpHandler next, ServiceExecutorsConfiguration executorsConf, MetricsRegistry metricsRegistry) {
+        return new ServiceExecutorsHandler(
+                next,
+                List.of(
+                        // the forwarded calls are mostly bookings, and must not wait behind this node's listings
+                        pool(
+                                "booking",
+                                executorsConf.getBooking(),
+                                BOOKING_THREADS,
+                                BOOKING_QUEUE_SIZE,
+                                List.of("/v1/booking/", "/v1/cluster/")),
+                        pool(
+                                "info",
+                                executorsConf.getInfo(),
+                                INFO_THREADS,
+                                INFO_QUEUE_SIZE,
+                                List.of("/v1/info/", "/v1/replication/")),
+                        pool(
+                                "management",
+                                executorsConf.getManagement(),
+                                MANAGEMENT_THREADS,
+                                MANAGEMENT_QUEUE_SIZE,
+                                List.of("/v1/management/"))),
+                metricsRegistry);
+    }
+
+    private static ServiceExecutorsHandler.Pool pool(
+            String name,
+            Optional<ServiceExecutorConfiguration> poolConf,
+            int defaultThreads,
+            int defaultQueueSize,
+            List<String> pathPrefixes) {
+        return new ServiceExecutorsHandler.Pool(
+                name,
+                poolConf.map(ServiceExecutorConfiguration::getThreads)
+                        .orElseGet(OptionalInt::empty)
+                        .orElse(defaultThreads),
+                poolConf.map(ServiceExecutorConfiguration::getQueueSize)
+                        .orElseGet(OptionalInt::empty)
+                        .orElse(defaultQueueSize),
+                pathPrefixes);
+    }
+
+    private static RapidApiTransport rapidApiTransport(
+            RapidApiTransportConfiguration transport, int maxConcurrentRequests) {
+        return new RapidApiTransport(
+                duration(
+                        transport.getConnectTimeoutMillis(),
+                        ChronoUnit.MILLIS,
+                        RapidApiTransport.DEFAULT_CONNECT_TIMEOUT),
+                duration(transport.getReadTimeoutMillis(), ChronoUnit.MILLIS, RapidApiTransport.DEFAULT_READ_TIMEOUT),
+                duration(transport.getCallTimeoutMillis(), ChronoUnit.MILLIS, RapidApiTransport.DEFAULT_CALL_TIMEOUT),
+                transport.getMaxIdleConnections().orElse(RapidApiTransport.DEFAULT_MAX_IDLE_CONNECTIONS),
+                duration(transport.getKeepAliveSeconds(), ChronoUnit.SECONDS, RapidApiTransport.DEFAULT_KEEP_ALIVE),
+                transport.getMaxRequestsPerHost().orElse(maxConcurrentRequests),
+                transport.getHttp2().orElse(true));
+    }
+
+    private static Duration duration(OptionalInt amount, ChronoUnit unit, Duration defaultDuration) {
+        return amount.isPresent() ? Duration.of(amount.getAsInt(), unit) : defaultDuration;
+    }
+
+    private static OptionalLong budgetBytes(
+            Optional<MemoryBudgetsConfiguration> budgets, Function<MemoryBudgetsConfiguration, OptionalInt> megabytes) {
+        OptionalInt budget = budgets.map(megabytes).orElseGet(OptionalInt::empty);
+        return budget.isPresent() ? OptionalLong.of(budget.getAsInt() * 1024L * 1024L) : OptionalLong.empty();
+    }
+
+    private static RateLimitingHandler.Budget budget(RateLimitBudget budget) {
+        return new RateLimitingHandler.Budget(
+                budget.getRequestsPerSecond(), budget.getBurst().orElse(budget.getRequestsPerSecond()));
+    }
+
+    @SuppressWarnings("FutureReturnValueIgnored") // the callback only logs
+    private static void reportWhenReady(StartupTimer startupTimer, GsmArenaDataProvider gsmArenaDataProvider) {
+        gsmArenaDataProvider.loaded().whenComplete((loadDuration, throwable) -> {
+            if (throwable != null) {
+                // already logged by the provider, the readiness check keeps answering 503
+                log.error("The node is not ready: the GSM Arena dataset failed to load, fix it and reload it");
+                return;
+            }
+            startupTimer.record("gsm-arena-dataset", loadDuration);
+            startupTimer.logReport("ready");
+        });
+    }
 }
@@ -0,0 +1,307 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.capability;
+
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.database.DeviceChangeListener;
+import com.achomutovskij.deviceservice.gsm.GsmNetworkDetails;
+import com.achomutovskij.deviceservice.memory.MemoryFootprint;
+import com.achomutovskij.deviceservice.memory.MemorySizes;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Answers "which available devices support these bands" from memory. Every band has a bitset over the device ids that
+ * support it, and a search is the intersection of those bitsets with the bitset of available devices.
+ *
+ * <p>The index follows the devices table as a {@link DeviceChangeListener}. The specs of a device name are looked up
+ * once, off the database lock on a background thread, so a newly registered model is only found by searches once its
+ * specs are in.
+ */
+public final class DeviceCapabilityIndex implements DeviceChangeListener {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(DeviceCapabilityIndex.class);
+
+    private final Function<String, Optional<GsmNetworkDetails>> networkDetailsLookup;
+    private final ExecutorService resolver;
+    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+    // guarded by readWriteLock
+    private final BitSet available = new BitSet();
+    private final Map<NetworkBand, BitSet> devicesByBand = new HashMap<>();
+    // indexed by device id, which are small and dense like the bits of the bitsets
+    private String[] namesById = new String[0];
+    private final Map<String, BitSet> devicesByName = new HashMap<>();
+    private final Map<String, Set<NetworkBand>> bandsByName = new HashMap<>();
+    private final Set<String> resolving = new HashSet<>();
+    // one instance per device name rather than one per device read from the database, kept like bandsByName
+    private final Interner<String> deviceNames = Interners.newStrongInterner();
+
+    public DeviceCapabilityIndex(Function<String, Optional<GsmNetworkDetails>> networkDetailsLookup) {
+        this(networkDetailsLookup, Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "capability-index");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    DeviceCapabilityIndex(
+            Function<String, Optional<GsmNetworkDetails>> networkDetailsLookup, ExecutorService resolver) {
+        this.networkDetailsLookup =
+                Preconditions.checkNotNull(networkDetailsLookup, "Network details lookup must be non-null");
+        this.resolver = Preconditions.checkNotNull(resolver, "Resolver must be non-null");
+    }
+
+    public void stop() {
+        resolver.shutdownNow();
+    }
+
+    /** Returns the ids of the available devices that support all the given bands, in ascending order. */
+    public List<Integer> findAvailableDevices(Set<NetworkBand> bands) {
+        readWriteLock.readLock().lock();
+        try {
+            BitSet matching = (BitSet) available.clone();
+            for (NetworkBand band : bands) {
+                BitSet supporting = devicesByBand.get(band);
+                if (supporting == null) {
+                    return List.of();
+                }
+                matching.and(supporting);
+            }
+            return matching.stream().boxed().collect(Collectors.toList());
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up the specs of every indexed device name again, e.g. after the dataset has been reloaded. Searches keep
+     * using the current bands of a name until its new ones are in.
+     */
+    public void refreshSpecs() {
+        readWriteLock.writeLock().lock();
+        try {
+            for (String deviceName : devicesByName.keySet()) {
+                if (resolving.add(deviceName)) {
+                    resolver.execute(() -> resolve(deviceName));
+                }
+            }
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void initialize(List<DeviceInfo> devices) {
+        readWriteLock.writeLock().lock();
+        try {
+            clear();
+            for (DeviceInfo device : devices) {
+                add(device.getId(), device.getName());
+                available.set(device.getId(), device.getAvailable());
+            }
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deviceRegistered(int deviceId, String deviceName) {
+        readWriteLock.writeLock().lock();
+        try {
+            add(deviceId, deviceName);
+            available.set(deviceId);
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deviceBooked(int deviceId, String _person) {
+        readWriteLock.writeLock().lock();
+        try {
+            available.clear(deviceId);
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deviceReleased(int deviceId) {
+        readWriteLock.writeLock().lock();
+        try {
+            available.set(deviceId);
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deviceDeleted(int deviceId) {
+        readWriteLock.writeLock().lock();
+        try {
+            available.clear(deviceId);
+            String deviceName = deviceId < namesById.length ? namesById[deviceId] : null;
+            if (deviceName == null) {
+                return;
+            }
+            namesById[deviceId] = null;
+            BitSet sameName = devicesByName.get(deviceName);
+            sameName.clear(deviceId);
+            if (sameName.isEmpty()) {
+                devicesByName.remove(deviceName);
+            }
+            for (NetworkBand band : bandsByName.getOrDefault(deviceName, Set.of())) {
+                devicesByBand.get(band).clear(deviceId);
+            }
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void allDevicesDeleted() {
+        readWriteLock.writeLock().lock();
+        try {
+            clear();
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    /** The indexed devices and the heap retained by the bitsets, the names and the resolved bands. */
+    public MemoryFootprint footprint() {
+        readWriteLock.readLock().lock();
+        try {
+            Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+            long bytes = MemorySizes.bitSet(available) + MemorySizes.hashMap(devicesByBand.size());
+            for (Map.Entry<NetworkBand, BitSet> entry : devicesByBand.entrySet()) {
+                bytes += bandBytes(entry.getKey(), counted) + MemorySizes.bitSet(entry.getValue());
+            }
+            bytes += MemorySizes.referenceArray(namesById.length) + MemorySizes.hashMap(devicesByName.size());
+            long devices = 0;
+            for (Map.Entry<String, BitSet> entry : devicesByName.entrySet()) {
+                bytes += nameBytes(entry.getKey(), counted) + MemorySizes.bitSet(entry.getValue());
+                devices += entry.getValue().cardinality();
+            }
+            bytes += MemorySizes.hashMap(bandsByName.size());
+            for (Map.Entry<String, Set<NetworkBand>> entry : bandsByName.entrySet()) {
+                bytes += nameBytes(entry.getKey(), counted) + MemorySizes.immutableSet(entry.getValue().size());
+                for (NetworkBand band : entry.getValue()) {
+                    bytes += bandBytes(band, counted);
+                }
+            }
+            // the interner is a concurrent hash map of the names
+            bytes += MemorySizes.hashMap(resolving.size()) + MemorySizes.hashMap(bandsByName.size());
+            return new MemoryFootprint(devices, bytes);
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    private static long nameBytes(String deviceName, Set<Object> counted) {
+        return counted.add(deviceName) ? MemorySizes.string(deviceName) : 0;
+    }
+
+    private static long bandBytes(NetworkBand band, Set<Object> counted) {
+        return counted.add(band) ? MemorySizes.object(1, 1) : 0;
+    }
+
+    /** Must be called with the write lock held. */
+    private void add(int deviceId, String name) {
+        String deviceName = deviceNames.intern(name);
+        if (deviceId >= namesById.length) {
+            namesById = Arrays.copyOf(namesById, Math.max(deviceId + 1, namesById.length * 2));
+        }
+        namesById[deviceId] = deviceName;
+        devicesByName.computeIfAbsent(deviceName, _name -> new BitSet()).set(deviceId);
+
+        Set<NetworkBand> bands = bandsByName.get(deviceName);
+        if (bands != null) {
+            setBands(deviceId, bands);
+        } else if (resolving.add(deviceName)) {
+            resolver.execute(() -> resolve(deviceName));
+        }
+    }
+
+    /** Must be called with the write lock held. */
+    private void setBands(int deviceId, Set<NetworkBand> bands) {
+        for (NetworkBand band : bands) {
+            devicesByBand.computeIfAbsent(band, _band -> new BitSet()).set(deviceId);
+        }
+    }
+
+    /** Must be called with the write lock held. The resolved bands per name are kept, they do not change. */
+    private void clear() {
+        available.clear();
+        devicesByBand.clear();
+        namesById = new String[0];
+        devicesByName.clear();
+    }
+
+    /** Looks up the specs of a device name without holding the lock, then indexes the devices with that name. */
+    private void resolve(String deviceName) {
+        Set<NetworkBand> bands = lookupBands(deviceName);
+
+        readWriteLock.writeLock().lock();
+        try {
+            resolving.remove(deviceName);
+            Set<NetworkBand> previousBands = bandsByName.put(deviceName, bands);
+            BitSet sameName = devicesByName.get(deviceName);
+            if (sameName != null) {
+                if (previousBands != null) {
+                    previousBands.forEach(band -> devicesByBand.get(band).andNot(sameName));
+                }
+                sameName.stream().forEach(deviceId -> setBands(deviceId, bands));
+            }
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    private Set<NetworkBand> lookupBands(String deviceName) {
+        try {
+            return networkDetailsLookup.apply(deviceName).map(NetworkBands::parse).orElseGet(Set::of);
+        } catch (RuntimeException e) {
+            log.warn(
+                    "Failed to look up the device specs for the capability index",
+                    UnsafeArg.of("name", deviceName),
+                    e);
+            return Set.of();
+        }
+    }
+}
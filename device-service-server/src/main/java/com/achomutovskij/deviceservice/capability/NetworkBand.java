@@ -0,0 +1,42 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.capability;
+
+/**
+ * A band a device can use. LTE bands are identified by their 3GPP band number, 2G and 3G bands by their frequency in
+ * MHz, which is how the GSM Arena band strings name them.
+ */
+public record NetworkBand(Generation generation, int band) {
+
+    public enum Generation {
+        TWO_G,
+        THREE_G,
+        FOUR_G
+    }
+
+    public static NetworkBand twoG(int frequencyMhz) {
+        return new NetworkBand(Generation.TWO_G, frequencyMhz);
+    }
+
+    public static NetworkBand threeG(int frequencyMhz) {
+        return new NetworkBand(Generation.THREE_G, frequencyMhz);
+    }
+
+    public static NetworkBand lte(int bandNumber) {
+        return new NetworkBand(Generation.FOUR_G, bandNumber);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.capability;
+
+import com.achomutovskij.deviceservice.gsm.GsmNetworkDetails;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the free-text band strings of {@link GsmNetworkDetails} into {@link NetworkBand}s, for example
+ * {@code "LTE band 1(2100), 3(1800), 20(800) - Global"} or {@code "HSDPA 850 / 900 / 1700(AWS) / 2100 - USA"}.
+ * Parsing is best effort: the frequencies in parentheses and the region notes after {@code " - "} are ignored, as are
+ * numbers glued to letters such as {@code CDMA2000} or {@code Cat16}.
+ */
+public final class NetworkBands {
+
+    private static final Pattern LINE_SEPARATOR = Pattern.compile("\\R");
+    private static final Pattern PARENTHESIZED = Pattern.compile("\\([^)]*\\)");
+    private static final Pattern STANDALONE_NUMBER = Pattern.compile("(?<![\\w.])(\\d{1,4})(?![\\w.])");
+
+    private static final int MAX_LTE_BAND = 255;
+    private static final int MIN_FREQUENCY_MHZ = 300;
+    private static final int MAX_FREQUENCY_MHZ = 3000;
+
+    // the same few hundred bands are parsed for every model
+    private static final Interner<NetworkBand> BANDS = Interners.newWeakInterner();
+
+    private NetworkBands() {}
+
+    /** Returns an immutable set of shared band instances. */
+    public static Set<NetworkBand> parse(GsmNetworkDetails gsmNetworkDetails) {
+        Set<NetworkBand> bands = new HashSet<>();
+        addNumbers(bands, gsmNetworkDetails.twoGBands(), MIN_FREQUENCY_MHZ, MAX_FREQUENCY_MHZ, NetworkBand::twoG);
+        addNumbers(bands, gsmNetworkDetails.threeGBands(), MIN_FREQUENCY_MHZ, MAX_FREQUENCY_MHZ, NetworkBand::threeG);
+        addNumbers(bands, gsmNetworkDetails.fourGBands(), 1, MAX_LTE_BAND, NetworkBand::lte);
+        return Set.copyOf(bands);
+    }
+
+    private static void addNumbers(
+            Set<NetworkBand> bands, String text, int min, int max, IntFunction<NetworkBand> toBand) {
+        if (text == null) {
+            return;
+        }
+        for (String line : LINE_SEPARATOR.split(text)) {
+            int regionNote = line.indexOf(" - ");
+            String bandList = PARENTHESIZED
+                    .matcher(regionNote < 0 ? line : line.substring(0, regionNote))
+                    .replaceAll(" ");
+            Matcher matcher = STANDALONE_NUMBER.matcher(bandList);
+            while (matcher.find()) {
+                int number = Integer.parseInt(matcher.group(1));
+                if (number >= min && number <= max) {
+                    bands.add(BANDS.intern(toBand.apply(number)));
+                }
+            }
+        }
+    }
+}
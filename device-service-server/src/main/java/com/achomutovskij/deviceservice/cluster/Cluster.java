@@ -0,0 +1,277 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.cluster;
+
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.cluster.api.UndertowDeviceClusterService;
+import com.achomutovskij.deviceservice.server.RequestTimings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.errors.ServiceException;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.UnsafeArg;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * The nodes sharing the devices. Each device is stored and booked only on the node its id hashes to, so the booking
+ * state of a device has a single owner and needs no coordination between the nodes; the other nodes forward the calls
+ * on it to the owner and the calls on all devices go to every node.
+ *
+ * <p>A node running alone is a cluster of one, owning every device, so the resources route the same way either way.
+ */
+public final class Cluster {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private static final String STANDALONE = "standalone";
+
+    private final String self;
+    private final HashRing ring;
+    // in the order of the configured nodes, without this one
+    private final Map<String, UndertowDeviceClusterService> peers;
+    private final ExecutorService fanOutExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private Cluster(String self, HashRing ring, Map<String, UndertowDeviceClusterService> peers) {
+        this.self = self;
+        this.ring = ring;
+        this.peers = peers;
+    }
+
+    public static Cluster standalone() {
+        return new Cluster(STANDALONE, new HashRing(ImmutableList.of(STANDALONE), 1), Map.of());
+    }
+
+    /**
+     * @param self this node as listed in the nodes
+     * @param nodes every node of the cluster, the same list on all of them
+     * @param peerClients creates the client calling a node
+     */
+    public static Cluster create(
+            String self,
+            List<String> nodes,
+            int virtualNodes,
+            Function<String, UndertowDeviceClusterService> peerClients) {
+        Preconditions.checkArgument(
+                new HashSet<>(nodes).size() == nodes.size(),
+                "The cluster nodes must be distinct",
+                UnsafeArg.of("nodes", nodes));
+        Preconditions.checkArgument(
+                nodes.contains(self),
+                "The cluster nodes must include this node",
+                UnsafeArg.of("self", self),
+                UnsafeArg.of("nodes", nodes));
+
+        Map<String, UndertowDeviceClusterService> peers = new LinkedHashMap<>();
+        for (String node : nodes) {
+            if (!node.equals(self)) {
+                peers.put(node, peerClients.apply(node));
+            }
+        }
+        return new Cluster(self, new HashRing(nodes, virtualNodes), peers);
+    }
+
+    public List<String> nodes() {
+        return ring.nodes();
+    }
+
+    /** Whether this node stores every device, having no peers. */
+    public boolean isStandalone() {
+        return peers.isEmpty();
+    }
+
+    /** Whether the device with the id is stored on this node, used when picking the id of a new device. */
+    public boolean owns(int deviceId) {
+        return ring.owner(deviceId).equals(self);
+    }
+
+    /** Runs the call on the node owning the device: here, or on the peer that owns it. */
+    public <T> T onOwner(int deviceId, Supplier<T> local, Function<UndertowDeviceClusterService, T> remote) {
+        String owner = ring.owner(deviceId);
+        if (owner.equals(self)) {
+            return local.get();
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            return remote.apply(peers.get(owner));
+        } finally {
+            RequestTimings.record(RequestTimings.Phase.PEER, System.nanoTime() - startNanos);
+        }
+    }
+
+    public void runOnOwner(int deviceId, Runnable local, Consumer<UndertowDeviceClusterService> remote) {
+        onOwner(deviceId, toSupplier(local), toFunction(remote));
+    }
+
+    /** Runs the call on every node, on the peers in parallel with this one. */
+    public void runOnAll(Runnable local, Consumer<UndertowDeviceClusterService> remote) {
+        onAll(toSupplier(local), (_node, peer) -> {
+            remote.accept(peer);
+            return null;
+        });
+    }
+
+    /** Collects the devices from every node, merged in the order of their ids. */
+    public List<DeviceInfo> gather(
+            Supplier<List<DeviceInfo>> local, Function<UndertowDeviceClusterService, List<DeviceInfo>> remote) {
+        return merge(onAll(local, (_node, peer) -> remote.apply(peer)));
+    }
+
+    /**
+     * Looks the ids up on the nodes owning them, each node asked once for all of its ids. The devices come back in
+     * the order of the ids, duplicate ids once and ids without a device left out.
+     */
+    public List<DeviceInfo> gatherByIds(
+            List<Integer> ids,
+            Function<List<Integer>, List<DeviceInfo>> local,
+            BiFunction<UndertowDeviceClusterService, List<Integer>, List<DeviceInfo>> remote) {
+        if (peers.isEmpty()) {
+            return local.apply(ids);
+        }
+
+        Set<Integer> distinctIds = new LinkedHashSet<>(ids);
+        Map<String, List<Integer>> idsByOwner = new HashMap<>();
+        for (int id : distinctIds) {
+            idsByOwner.computeIfAbsent(ring.owner(id), _owner -> new ArrayList<>()).add(id);
+        }
+
+        List<List<DeviceInfo>> perNode =
+                onAll(() -> local.apply(idsByOwner.getOrDefault(self, List.of())), (node, peer) -> {
+                    List<Integer> peerIds = idsByOwner.getOrDefault(node, List.of());
+                    return peerIds.isEmpty() ? List.of() : remote.apply(peer, peerIds);
+                });
+        Map<Integer, DeviceInfo> found = new HashMap<>();
+        perNode.forEach(devices -> devices.forEach(device -> found.put(device.getId(), device)));
+
+        List<DeviceInfo> devices = new ArrayList<>(found.size());
+        for (int id : distinctIds) {
+            DeviceInfo device = found.get(id);
+            if (device != null) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Tries the nodes one after the other, this one first, until one of them does not decline the call, for the
+     * calls on any device with a name. When all the nodes decline, this node's error is thrown.
+     */
+    public void runOnFirstAccepting(
+            Runnable local, Consumer<UndertowDeviceClusterService> remote, Predicate<ServiceException> declined) {
+        ServiceException localDecline;
+        try {
+            local.run();
+            return;
+        } catch (ServiceException e) {
+            if (!declined.test(e)) {
+                throw e;
+            }
+            localDecline = e;
+        }
+
+        for (UndertowDeviceClusterService peer : peers.values()) {
+            long startNanos = System.nanoTime();
+            try {
+                remote.accept(peer);
+                return;
+            } catch (ServiceException e) {
+                if (!declined.test(e)) {
+                    throw e;
+                }
+            } finally {
+                RequestTimings.record(RequestTimings.Phase.PEER, System.nanoTime() - startNanos);
+            }
+        }
+        throw localDecline;
+    }
+
+    private <T> List<T> onAll(Supplier<T> local, BiFunction<String, UndertowDeviceClusterService, T> remote) {
+        if (peers.isEmpty()) {
+            return Collections.singletonList(local.get());
+        }
+
+        long startNanos = System.nanoTime();
+        List<Future<T>> remoteResults = new ArrayList<>(peers.size());
+        peers.forEach((node, peer) -> remoteResults.add(fanOutExecutor.submit(() -> remote.apply(node, peer))));
+
+        List<T> results = new ArrayList<>(peers.size() + 1);
+        results.add(local.get());
+        for (Future<T> remoteResult : remoteResults) {
+            results.add(await(remoteResult));
+        }
+        RequestTimings.record(RequestTimings.Phase.PEER, System.nanoTime() - startNanos);
+        return results;
+    }
+
+    private static List<DeviceInfo> merge(List<List<DeviceInfo>> perNode) {
+        if (perNode.size() == 1) {
+            return perNode.get(0);
+        }
+
+        List<DeviceInfo> merged = new ArrayList<>();
+        perNode.forEach(merged::addAll);
+        merged.sort(Comparator.comparingInt(DeviceInfo::getId));
+        return merged;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new ServiceException(ErrorType.INTERNAL, e.getCause());
+        }
+    }
+
+    private static Supplier<Void> toSupplier(Runnable runnable) {
+        return () -> {
+            runnable.run();
+            return null;
+        };
+    }
+
+    private static Function<UndertowDeviceClusterService, Void> toFunction(
+            Consumer<UndertowDeviceClusterService> consumer) {
+        return peer -> {
+            consumer.accept(peer);
+            return null;
+        };
+    }
+}
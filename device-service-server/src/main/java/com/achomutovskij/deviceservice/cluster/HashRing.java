@@ -0,0 +1,64 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.cluster;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of the device ids onto the nodes. Every node is placed at several points of a ring of 32-bit
+ * hashes and owns the ids hashing up to each of its points, so adding or removing a node only moves the ids next to
+ * its points. The placement depends on nothing but the node names, every node builds the same ring from the same
+ * list.
+ */
+final class HashRing {
+
+    // fixed seed, the ring must be the same on every node and across releases
+    private static final HashFunction HASH = Hashing.murmur3_32_fixed(0x5EED);
+
+    private final List<String> nodes;
+    private final TreeMap<Integer, String> ring = new TreeMap<>();
+
+    HashRing(List<String> nodes, int virtualNodes) {
+        Preconditions.checkArgument(!nodes.isEmpty(), "The ring needs at least one node");
+        Preconditions.checkArgument(
+                virtualNodes > 0, "Virtual nodes must be positive", SafeArg.of("virtualNodes", virtualNodes));
+        this.nodes = ImmutableList.copyOf(nodes);
+        // sorted so that a collision of two points goes the same way whatever the order of the list
+        for (String node : ImmutableList.sortedCopyOf(nodes)) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(HASH.hashString(node + '#' + i, StandardCharsets.UTF_8).asInt(), node);
+            }
+        }
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    String owner(int deviceId) {
+        Map.Entry<Integer, String> point = ring.ceilingEntry(HASH.hashInt(deviceId).asInt());
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.cluster;
+
+import com.achomutovskij.deviceservice.api.BookingRequest;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.api.RenewLeaseRequest;
+import com.achomutovskij.deviceservice.cluster.api.UndertowDeviceClusterService;
+import com.achomutovskij.deviceservice.remote.JsonServiceCaller;
+import com.achomutovskij.deviceservice.server.PeerAuthenticationHandler;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.net.HttpHeaders;
+import com.palantir.logsafe.Preconditions;
+import java.time.OffsetDateTime;
+import java.util.List;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * Calls the Device Cluster Service of another node over HTTP, through the interface the node serves it with. The
+ * errors of the peer are rethrown as this node's own, so that a caller gets the same error whichever node it calls.
+ * Every call presents the peer token, without which the peer refuses it.
+ */
+public final class PeerClient implements UndertowDeviceClusterService {
+
+    private static final TypeReference<List<DeviceInfo>> DEVICES = new TypeReference<>() {};
+    private static final TypeReference<OffsetDateTime> DATE_TIME = new TypeReference<>() {};
+
+    private final JsonServiceCaller caller;
+    private final String authorization;
+
+    /**
+     * @param baseUrl the API base URL of the node, e.g. https://host-a:8345/api/
+     * @param peerToken the token shared by the nodes of the cluster
+     */
+    public PeerClient(OkHttpClient okHttpClient, HttpUrl baseUrl, String peerToken) {
+        this.caller = new JsonServiceCaller(
+                okHttpClient,
+                Preconditions.checkNotNull(baseUrl, "Base URL must be non-null")
+                        .newBuilder()
+                        .addPathSegments("v1/cluster")
+                        .build());
+        this.authorization = PeerAuthenticationHandler.authorization(
+                Preconditions.checkNotNull(peerToken, "Peer token must be non-null"));
+    }
+
+    @Override
+    public List<DeviceInfo> getLocalDevices() {
+        return caller.call(request(caller.url("devices")), DEVICES);
+    }
+
+    @Override
+    public List<DeviceInfo> getLocalAvailableDevices() {
+        return caller.call(request(caller.url("devices/available")), DEVICES);
+    }
+
+    @Override
+    public List<DeviceInfo> getLocalDevicesByName(String name) {
+        HttpUrl url = caller.urlBuilder()
+                .addPathSegments("devices/byname")
+                .addPathSegment(name)
+                .build();
+        return caller.call(request(url), DEVICES);
+    }
+
+    @Override
+    public List<DeviceInfo> getLocalDevicesByIds(List<Integer> ids) {
+        return caller.call(request(caller.url("devices/byids")).post(JsonServiceCaller.json(ids)), DEVICES);
+    }
+
+    @Override
+    public void deleteLocalDevice(int id) {
+        caller.send(request(caller.url("devices/" + id)).delete());
+    }
+
+    @Override
+    public void deleteAllLocalDevices() {
+        caller.send(request(caller.url("devices")).delete());
+    }
+
+    @Override
+    public void bookLocalDevice(BookingRequest bookDeviceRequest) {
+        caller.send(request(caller.url("reserve")).put(JsonServiceCaller.json(bookDeviceRequest)));
+    }
+
+    @Override
+    public void returnLocalDevice(BookingRequest returnDeviceRequest) {
+        caller.send(request(caller.url("return")).put(JsonServiceCaller.json(returnDeviceRequest)));
+    }
+
+    @Override
+    public OffsetDateTime renewLocalLease(RenewLeaseRequest renewLeaseRequest) {
+        return caller.call(
+                request(caller.url("lease/renew")).put(JsonServiceCaller.json(renewLeaseRequest)), DATE_TIME);
+    }
+
+    private Request.Builder request(HttpUrl url) {
+        return new Request.Builder().url(url).header(HttpHeaders.AUTHORIZATION, authorization);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import com.achomutovskij.deviceservice.api.BookingErrors;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * FIFO queues of callers waiting for a device of a given name. A waiter is only a pending future, so no thread is
+ * held while waiting: it is completed either by {@link DatabaseManager} handing it a returned or newly registered
+ * device, or by the timeout.
+ */
+final class BookingWaitQueue {
+
+    private final Map<String, Deque<Waiter>> waitersByDeviceName = new HashMap<>();
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "booking-wait-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    synchronized boolean hasWaiters(String deviceName) {
+        Deque<Waiter> waiters = waitersByDeviceName.get(deviceName);
+        return waiters != null && !waiters.isEmpty();
+    }
+
+    /** The callers waiting for any device name. */
+    synchronized int size() {
+        return waitersByDeviceName.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    ListenableFuture<Integer> enqueue(
+            String deviceName, String person, Optional<Duration> leaseDuration, Duration timeout) {
+        Waiter waiter = new Waiter(person, leaseDuration);
+        synchronized (this) {
+            waitersByDeviceName
+                    .computeIfAbsent(deviceName, _name -> new ArrayDeque<>())
+                    .addLast(waiter);
+        }
+
+        ScheduledFuture<?> timeoutTask = timeouts.schedule(
+                () -> abandon(deviceName, waiter), timeout.toMillis(), TimeUnit.MILLISECONDS);
+        waiter.result.addListener(
+                () -> {
+                    timeoutTask.cancel(false);
+                    if (waiter.result.isCancelled()) { // the caller went away
+                        abandon(deviceName, waiter);
+                    }
+                },
+                MoreExecutors.directExecutor());
+
+        return waiter.result;
+    }
+
+    /** Removes and returns the longest waiting caller for the device name that has not yet timed out. */
+    synchronized Optional<Waiter> claimNext(String deviceName) {
+        Deque<Waiter> waiters = waitersByDeviceName.get(deviceName);
+        if (waiters == null) {
+            return Optional.empty();
+        }
+
+        Optional<Waiter> claimed = Optional.empty();
+        while (claimed.isEmpty() && !waiters.isEmpty()) {
+            Waiter waiter = waiters.pollFirst();
+            if (waiter.claim()) {
+                claimed = Optional.of(waiter);
+            }
+        }
+
+        if (waiters.isEmpty()) {
+            waitersByDeviceName.remove(deviceName);
+        }
+        return claimed;
+    }
+
+    void stop() {
+        timeouts.shutdownNow();
+    }
+
+    private void abandon(String deviceName, Waiter waiter) {
+        if (!waiter.claim()) { // already handed a device
+            return;
+        }
+
+        synchronized (this) {
+            Deque<Waiter> waiters = waitersByDeviceName.get(deviceName);
+            if (waiters != null) {
+                waiters.remove(waiter);
+                if (waiters.isEmpty()) {
+                    waitersByDeviceName.remove(deviceName);
+                }
+            }
+        }
+
+        waiter.result.setException(BookingErrors.deviceNotAvailable());
+    }
+
+    static final class Waiter {
+
+        private final String person;
+        private final Optional<Duration> leaseDuration;
+        private final SettableFuture<Integer> result = SettableFuture.create();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Waiter(String person, Optional<Duration> leaseDuration) {
+            this.person = person;
+            this.leaseDuration = leaseDuration;
+        }
+
+        String person() {
+            return person;
+        }
+
+        Optional<Duration> leaseDuration() {
+            return leaseDuration;
+        }
+
+        void handOver(int deviceId) {
+            result.set(deviceId);
+        }
+
+        void fail(Throwable throwable) {
+            result.setException(throwable);
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import com.achomutovskij.deviceservice.server.MetricsRegistry;
+import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.errors.ServiceException;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Online backups of the database: consistent snapshots written with {@link DatabaseManager#backupTo} while the service
+ * keeps serving, on request and on a schedule, of which the latest few are kept. A snapshot is a plain SQLite file, a
+ * node is restored from one by starting it with the snapshot copied in place of its missing database file.
+ */
+public final class DatabaseBackups {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(DatabaseBackups.class);
+
+    public static final String DEFAULT_DIRECTORY = "var/db/backups";
+    public static final int DEFAULT_RETAINED = 24;
+
+    private static final String JDBC_URL_PREFIX = "jdbc:sqlite:";
+    private static final String SNAPSHOT_PREFIX = "devices-";
+    private static final String SNAPSHOT_SUFFIX = ".db";
+    // sorts in the order the snapshots were taken
+    private static final DateTimeFormatter SNAPSHOT_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS'Z'").withZone(ZoneOffset.UTC);
+    private static final List<String> DATABASE_FILE_SUFFIXES = List.of("", "-wal", "-shm", "-journal");
+
+    private final DatabaseManager databaseManager;
+    private final Path directory;
+    private final int retained;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder backups;
+    private final LongAdder failures;
+    private final AtomicLong lastSizeBytes = new AtomicLong();
+    private final AtomicLong lastDurationMillis = new AtomicLong();
+
+    public DatabaseBackups(
+            DatabaseManager databaseManager, Path directory, int retained, MetricsRegistry metricsRegistry) {
+        Preconditions.checkArgument(
+                retained > 0, "Retained backups must be positive", SafeArg.of("retained", retained));
+        this.databaseManager = Preconditions.checkNotNull(databaseManager, "Database manager must be non-null");
+        this.directory = Preconditions.checkNotNull(directory, "Backup directory must be non-null");
+        this.retained = retained;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "database-backups");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.backups = metricsRegistry.counter("backup.snapshots");
+        this.failures = metricsRegistry.counter("backup.failures");
+        metricsRegistry.gauge("backup.lastSizeBytes", lastSizeBytes::get);
+        metricsRegistry.gauge("backup.lastDurationMillis", lastDurationMillis::get);
+    }
+
+    /** Takes a snapshot every interval, starting one interval from now. */
+    @SuppressWarnings("FutureReturnValueIgnored") // the task is cancelled by shutting the scheduler down
+    public void start(Duration interval) {
+        scheduler.scheduleWithFixedDelay(
+                this::backUpOnSchedule, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Writes a snapshot of the database to the backup directory and deletes the oldest ones beyond the retained
+     * number. One snapshot is taken at a time, a second caller waits for the first.
+     */
+    public synchronized Backup backUp() {
+        long startNanos = System.nanoTime();
+        Path file = directory.resolve(SNAPSHOT_PREFIX + SNAPSHOT_TIME.format(Instant.now()) + SNAPSHOT_SUFFIX);
+        Path partial = directory.resolve(file.getFileName() + ".partial");
+        long sizeBytes;
+        try {
+            Files.createDirectories(directory);
+            Files.deleteIfExists(partial);
+            databaseManager.backupTo(partial);
+            // a snapshot is only ever seen complete under its final name
+            Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+            sizeBytes = Files.size(file);
+            deleteOldBackups();
+        } catch (IOException e) {
+            failures.increment();
+            throw new ServiceException(ErrorType.INTERNAL, e, UnsafeArg.of("file", file));
+        } catch (RuntimeException e) {
+            failures.increment();
+            throw e;
+        }
+
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        backups.increment();
+        lastSizeBytes.set(sizeBytes);
+        lastDurationMillis.set(duration.toMillis());
+        log.info(
+                "Backed up the database",
+                UnsafeArg.of("file", file),
+                SafeArg.of("sizeBytes", sizeBytes),
+                SafeArg.of("durationMillis", duration.toMillis()));
+        return new Backup(file, sizeBytes, duration);
+    }
+
+    /**
+     * Copies the snapshot in place of the database file of the given JDBC URL if there is no database file yet, so that
+     * restarting a restored node does not undo the changes made since the restore.
+     *
+     * @return the restored snapshot, nothing if the database file already existed
+     */
+    public static Optional<Backup> restoreIfMissing(Path snapshot, String jdbcUrl) {
+        Path databaseFile = databaseFile(jdbcUrl);
+        if (Files.exists(databaseFile)) {
+            log.info(
+                    "Not restoring the database from the snapshot, the database file exists",
+                    UnsafeArg.of("snapshot", snapshot),
+                    UnsafeArg.of("databaseFile", databaseFile));
+            return Optional.empty();
+        }
+
+        long startNanos = System.nanoTime();
+        Path partial = databaseFile.resolveSibling(databaseFile.getFileName() + ".partial");
+        long sizeBytes;
+        try {
+            // a write-ahead log left over from a deleted database would be replayed onto the restored one
+            deleteDatabaseFiles(databaseFile);
+            Path parent = databaseFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Files.copy(snapshot, partial, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(partial, databaseFile, StandardCopyOption.ATOMIC_MOVE);
+            sizeBytes = Files.size(databaseFile);
+        } catch (IOException e) {
+            throw new ServiceException(ErrorType.INTERNAL, e, UnsafeArg.of("snapshot", snapshot));
+        }
+
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        log.info(
+                "Restored the database from a snapshot",
+                UnsafeArg.of("snapshot", snapshot),
+                SafeArg.of("sizeBytes", sizeBytes),
+                SafeArg.of("durationMillis", duration.toMillis()));
+        return Optional.of(new Backup(snapshot, sizeBytes, duration));
+    }
+
+    /** Deletes the database file together with its write-ahead log and the other files SQLite keeps next to it. */
+    public static void deleteDatabaseFiles(Path databaseFile) throws IOException {
+        for (String suffix : DATABASE_FILE_SUFFIXES) {
+            Files.deleteIfExists(databaseFile.resolveSibling(databaseFile.getFileName() + suffix));
+        }
+    }
+
+    private void backUpOnSchedule() {
+        try {
+            backUp();
+        } catch (RuntimeException e) {
+            // an exception would cancel the scheduled task, try again at the next interval
+            log.error("Failed to back up the database", e);
+        }
+    }
+
+    private void deleteOldBackups() throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            files.forEach(snapshots::add);
+        }
+        snapshots.sort(Comparator.naturalOrder()); // oldest first
+        for (Path snapshot : snapshots.subList(0, Math.max(0, snapshots.size() - retained))) {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    private static Path databaseFile(String jdbcUrl) {
+        String path = jdbcUrl.startsWith(JDBC_URL_PREFIX) ? jdbcUrl.substring(JDBC_URL_PREFIX.length()) : "";
+        int options = path.indexOf('?');
+        path = options < 0 ? path : path.substring(0, options);
+        if (path.isEmpty() || path.startsWith(":memory:") || path.startsWith("file:")) {
+            throw new SafeIllegalArgumentException(
+                    "Only a database in a plain file can be restored", UnsafeArg.of("jdbcUrl", jdbcUrl));
+        }
+        return Path.of(path);
+    }
+
+    /** A snapshot of the database, with how long it took to write or restore. */
+    public record Backup(Path file, long sizeBytes, Duration duration) {}
+}
@@ -16,9 +16,14 @@
 
 package com.achomutovskij.deviceservice.database;
 
+import com.achomutovskij.deviceservice.DeviceAllocationPolicy;
 import com.achomutovskij.deviceservice.api.BookingErrors;
 import com.achomutovskij.deviceservice.api.DeviceErrors;
 import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.server.RequestTimings;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.palantir.conjure.java.api.errors.ErrorType;
 import com.palantir.conjure.java.api.errors.ServiceException;
 import com.palantir.logsafe.Preconditions;
@@ -27,125 +32,387 @@ import com.palantir.logsafe.logger.SafeLogger;
 import com.palantir.logsafe.logger.SafeLoggerFactory;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
 
 public final class DatabaseManager {
 
     private static final SafeLogger log = SafeLoggerFactory.get(DatabaseManager.class);
 
+    public static final int DEFAULT_MAX_CONCURRENT_OPERATIONS = 10;
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Dubai");
+    private static final long LEASE_TICK_MILLIS = 1_000;
+    private static final int LEASE_WHEEL_SIZE = 3_600;
+    // well below SQLite's limit on the number of parameters of a statement
+    private static final int MAX_IDS_PER_QUERY = 512;
+    private static final TimestampDecoder TIMESTAMPS = new TimestampDecoder(ZONE_ID);
+
+    // the columns read by getDeviceInfoFromResultSet, in the order of its column indexes
+    private static final String DEVICE_COLUMNS =
+            "id, name, available, lastBookedPersonName, lastBookedAt, leaseExpiresAt";
+    private static final int ID_COLUMN = 1;
+    private static final int NAME_COLUMN = 2;
+    private static final int AVAILABLE_COLUMN = 3;
+    private static final int LAST_BOOKED_PERSON_NAME_COLUMN = 4;
+    private static final int LAST_BOOKED_AT_COLUMN = 5;
+    private static final int LEASE_EXPIRES_AT_COLUMN = 6;
+
+    private static final String SELECT_ALL_DEVICES = "SELECT " + DEVICE_COLUMNS + " FROM devices;";
+    private static final String SELECT_AVAILABLE_DEVICES =
+            "SELECT " + DEVICE_COLUMNS + " FROM devices WHERE available = 1;";
+    private static final String SELECT_DEVICES_WITH_NAME_LIKE =
+            "SELECT " + DEVICE_COLUMNS + " FROM devices WHERE name LIKE ?;";
+    private static final String SELECT_DISTINCT_NAMES = "SELECT DISTINCT name FROM devices;";
+    // a follower's write of a device as it is on the leader, in the order of DEVICE_COLUMNS
+    private static final String UPSERT_DEVICE = "INSERT INTO devices (" + DEVICE_COLUMNS + ") "
+            + "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (id) DO UPDATE SET name = excluded.name, "
+            + "available = excluded.available, lastBookedPersonName = excluded.lastBookedPersonName, "
+            + "lastBookedAt = excluded.lastBookedAt, leaseExpiresAt = excluded.leaseExpiresAt;";
+    // IN queries for 1, 2, 4, ... MAX_IDS_PER_QUERY ids; a batch is padded up to the next size, so that only a handful
+    // of distinct statements end up in the statement cache
+    private static final List<String> SELECT_DEVICES_WITH_IDS = selectDevicesWithIdsQueries();
+
     private final HikariDataSource dataSource;
     private final ReadWriteLock readWriteLock;
+    private final BookingWaitQueue bookingWaitQueue;
+    private final LeaseTimingWheel leaseTimingWheel;
+    private final DeviceFreeLists freeDevices;
+    private final ScheduledExecutorService leaseReaper;
+    private final ScheduledFuture<?> leaseReaperTask;
+    private final List<DeviceChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    // changes made by the current write, delivered to the listeners once it commits; guarded by the write lock
+    private final List<Consumer<DeviceChangeListener>> pendingChanges = new ArrayList<>();
+    // the read queries, prepared once per pooled connection
+    private final StatementCache statementCache = new StatementCache();
+    // which ids the new devices may get, the ones owned by this node when it is part of a cluster
+    private final IntPredicate ownsDeviceId;
 
     public DatabaseManager(String jdbcUrl, List<String> prefillWithDevices) {
+        this(jdbcUrl, prefillWithDevices, DEFAULT_MAX_CONCURRENT_OPERATIONS);
+    }
+
+    /**
+     * The pool size is the limit on concurrent JDBC work: when handlers run on virtual threads nothing else stops
+     * thousands of them from piling onto SQLite at once, so callers beyond the limit wait for a free connection.
+     */
+    public DatabaseManager(String jdbcUrl, List<String> prefillWithDevices, int maxConcurrentOperations) {
+        this(
+                jdbcUrl,
+                prefillWithDevices,
+                maxConcurrentOperations,
+                _deviceId -> true,
+                DeviceAllocationPolicy.LEAST_RECENTLY_USED);
+    }
+
+    /**
+     * @param ownsDeviceId which ids the new devices may get: every device is given the lowest accepted id above the
+     *     ids handed out so far
+     * @param allocationPolicy which of the available devices with a name is booked by name
+     */
+    public DatabaseManager(
+            String jdbcUrl,
+            List<String> prefillWithDevices,
+            int maxConcurrentOperations,
+            IntPredicate ownsDeviceId,
+            DeviceAllocationPolicy allocationPolicy) {
+        Preconditions.checkArgument(
+                maxConcurrentOperations > 0,
+                "Max concurrent operations must be positive",
+                SafeArg.of("maxConcurrentOperations", maxConcurrentOperations));
         HikariConfig config = new HikariConfig();
         config.setJdbcUrl(Preconditions.checkNotNull(jdbcUrl, "JDBC url must be non-null"));
+        config.setMaximumPoolSize(maxConcurrentOperations);
+        // readers, the backups included, then work on a snapshot of their own and neither block nor wait for writers
+        config.addDataSourceProperty("journal_mode", "WAL");
         this.dataSource = new HikariDataSource(config);
         this.readWriteLock = new ReentrantReadWriteLock();
+        this.bookingWaitQueue = new BookingWaitQueue();
+        this.leaseTimingWheel = new LeaseTimingWheel(LEASE_TICK_MILLIS, LEASE_WHEEL_SIZE, System.currentTimeMillis());
+        this.ownsDeviceId = Preconditions.checkNotNull(ownsDeviceId, "Device id predicate must be non-null");
 
         boolean tableWasAlreadyThere = ensureDbTableExist();
         if (!tableWasAlreadyThere) {
             log.info("About to populate the table with the devices");
-            for (String device : Preconditions.checkNotNull(prefillWithDevices, "Devices list must be non-null")) {
-                registerDevice(device);
-            }
-            log.info("Populated the table with {} devices", SafeArg.of("devices-list-size", prefillWithDevices.size()));
+            long startNanos = System.nanoTime();
+            prefill(Preconditions.checkNotNull(prefillWithDevices, "Devices list must be non-null"));
+            log.info(
+                    "Populated the table with {} devices in {} ms",
+                    SafeArg.of("devices-list-size", prefillWithDevices.size()),
+                    SafeArg.of("prefillMillis", Duration.ofNanos(System.nanoTime() - startNanos).toMillis()));
         }
+
+        loadLeases();
+        this.freeDevices = new DeviceFreeLists(allocationPolicy);
+        addChangeListener(freeDevices);
+        this.leaseReaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.leaseReaperTask = leaseReaper.scheduleWithFixedDelay(
+                this::reclaimExpiredLeases, LEASE_TICK_MILLIS, LEASE_TICK_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     public void stop() {
+        leaseReaperTask.cancel(false);
+        leaseReaper.shutdownNow();
+        bookingWaitQueue.stop();
         dataSource.close();
     }
 
+    /**
+     * Adds a listener that is initialized with the current devices and then told about every committed change. Both
+     * happen under the write lock, so the listener cannot miss a change or see one twice.
+     */
+    public void addChangeListener(DeviceChangeListener listener) {
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try {
+            listener.initialize(getAllDevices());
+            changeListeners.add(listener);
+        } finally {
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
+        }
+    }
+
     public void registerDevice(String deviceName) {
-        String insertQuery = "INSERT INTO devices (name, available) VALUES (?, ?)";
-        readWriteLock.writeLock().lock();
-        try (Connection connection = dataSource.getConnection();
-                PreparedStatement statement = connection.prepareStatement(insertQuery)) {
+        String insertQuery = "INSERT INTO devices (id, name, available) VALUES (?, ?, ?)";
+        Optional<BookingWaitQueue.Waiter> handedOverTo = Optional.empty();
+        int deviceId = -1;
+        boolean committed = false;
 
-            statement.setString(1, deviceName);
-            statement.setBoolean(2, true);
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false); // start the transaction
+            try (PreparedStatement statement = connection.prepareStatement(insertQuery)) {
+                deviceId = nextDeviceId(lastAssignedDeviceId(connection));
+                statement.setInt(1, deviceId);
+                statement.setString(2, deviceName);
+                statement.setBoolean(3, true);
+                statement.executeUpdate();
 
-            statement.executeUpdate();
+                int registeredId = deviceId;
+                pendingChanges.add(listener -> listener.deviceRegistered(registeredId, deviceName));
+                handedOverTo = bookingWaitQueue.claimNext(deviceName);
+                if (handedOverTo.isPresent()) {
+                    markBooked(
+                            connection,
+                            handedOverTo.get().person(),
+                            deviceId,
+                            handedOverTo.get().leaseDuration());
+                }
+
+                connection.commit();
+                committed = true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             log.error("Failed to insert data into table", e);
             throw new ServiceException(ErrorType.INTERNAL, e);
         } finally {
-            readWriteLock.writeLock().unlock();
+            finishChanges(committed);
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
+            completeHandOver(handedOverTo, deviceId, committed);
+        }
+    }
+
+    /** Inserts the devices of a freshly created table in one batch and one transaction. */
+    private void prefill(List<String> deviceNames) {
+        String insertQuery = "INSERT INTO devices (id, name, available) VALUES (?, ?, ?)";
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false); // start the transaction
+            try (PreparedStatement statement = connection.prepareStatement(insertQuery)) {
+                int deviceId = lastAssignedDeviceId(connection);
+                for (String deviceName : deviceNames) {
+                    deviceId = nextDeviceId(deviceId);
+                    statement.setInt(1, deviceId);
+                    statement.setString(2, deviceName);
+                    statement.setBoolean(3, true);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log.error("Failed to insert data into table", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } finally {
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
         }
     }
 
     public void deleteDevice(int deviceId) {
         String sql = "DELETE FROM devices WHERE id = ?;";
-        readWriteLock.writeLock().lock();
+        boolean committed = false;
+        long lockedAtNanos = lock(readWriteLock.writeLock());
         try (Connection connection = dataSource.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, deviceId);
-            statement.executeUpdate();
+            if (statement.executeUpdate() > 0) {
+                pendingChanges.add(listener -> listener.deviceDeleted(deviceId));
+            }
+            leaseTimingWheel.cancel(deviceId);
+            committed = true;
         } catch (SQLException e) {
             log.error("Failed to delete data from table", e);
             throw new ServiceException(ErrorType.INTERNAL, e);
         } finally {
-            readWriteLock.writeLock().unlock();
+            finishChanges(committed);
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
         }
     }
 
     public void deleteAllDevices() {
         String sql = "DELETE FROM devices;";
-        readWriteLock.writeLock().lock();
+        boolean committed = false;
+        long lockedAtNanos = lock(readWriteLock.writeLock());
         try (Connection connection = dataSource.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.executeUpdate();
+            leaseTimingWheel.clear();
+            pendingChanges.add(DeviceChangeListener::allDevicesDeleted);
+            committed = true;
         } catch (SQLException e) {
             log.error("Failed to delete data from table", e);
             throw new ServiceException(ErrorType.INTERNAL, e);
         } finally {
-            readWriteLock.writeLock().unlock();
+            finishChanges(committed);
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
         }
     }
 
     public List<DeviceInfo> getAllDevices() {
-        return getDevices("SELECT * FROM devices;", Optional.empty());
+        return getDevices(SELECT_ALL_DEVICES, Optional.empty());
     }
 
     public List<DeviceInfo> getAllAvailableDevices() {
-        return getDevices("SELECT * FROM devices WHERE available = 1;", Optional.empty());
+        return getDevices(SELECT_AVAILABLE_DEVICES, Optional.empty());
     }
 
     public List<DeviceInfo> getDevicesWithName(String deviceName) {
-        return getDevices("SELECT * FROM devices WHERE name LIKE ?;", Optional.of(Pair.of(1, "%" + deviceName + "%")));
+        return getDevices(SELECT_DEVICES_WITH_NAME_LIKE, Optional.of(Pair.of(1, "%" + deviceName + "%")));
+    }
+
+    public List<String> getDistinctDeviceNames() {
+        List<String> names = new ArrayList<>();
+
+        long lockedAtNanos = lock(readWriteLock.readLock());
+        try (Connection connection = dataSource.getConnection();
+                ResultSet resultSet =
+                        statementCache.prepare(connection, SELECT_DISTINCT_NAMES).executeQuery()) {
+            while (resultSet.next()) {
+                names.add(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            log.error("Failed to get data from table", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } finally {
+            unlock(readWriteLock.readLock(), lockedAtNanos);
+        }
+
+        return names;
     }
 
     public DeviceInfo queryDeviceById(int id) {
-        List<DeviceInfo> devices = getDevices(getSelectQueryToFetchDeviceWithId(id), Optional.empty());
+        List<DeviceInfo> devices = getDevicesByIds(List.of(id));
         if (devices.isEmpty()) {
             throw DeviceErrors.deviceIdNotFound(id);
         }
         return devices.get(0);
     }
 
-    private String getSelectQueryToFetchDeviceWithId(int id) {
-        return String.format("SELECT * FROM devices WHERE id = %d;", id);
+    /**
+     * Fetches the devices with the given ids with one parameterized {@code IN} query per
+     * {@value #MAX_IDS_PER_QUERY} distinct ids. A batch is padded to the next power of two by repeating its last id.
+     *
+     * @return the devices in the order of the given ids, without duplicates and without the ids that do not exist
+     */
+    public List<DeviceInfo> getDevicesByIds(List<Integer> ids) {
+        List<Integer> distinctIds = ids.stream().distinct().collect(Collectors.toList());
+        Map<Integer, DeviceInfo> devicesById;
+
+        long lockedAtNanos = lock(readWriteLock.readLock());
+        try (Connection connection = dataSource.getConnection()) {
+            devicesById = readDevicesByIds(connection, distinctIds);
+        } catch (SQLException e) {
+            log.error("Failed to get data from table", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } finally {
+            unlock(readWriteLock.readLock(), lockedAtNanos);
+        }
+
+        return distinctIds.stream()
+                .map(devicesById::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private Map<Integer, DeviceInfo> readDevicesByIds(Connection connection, List<Integer> distinctIds)
+            throws SQLException {
+        Map<Integer, DeviceInfo> devicesById = new HashMap<>();
+        for (List<Integer> batch : Lists.partition(distinctIds, MAX_IDS_PER_QUERY)) {
+            int queryIndex = 32 - Integer.numberOfLeadingZeros(batch.size() - 1);
+            PreparedStatement statement = statementCache.prepare(connection, SELECT_DEVICES_WITH_IDS.get(queryIndex));
+            int parameters = 1 << queryIndex;
+            for (int i = 0; i < parameters; i++) {
+                statement.setInt(i + 1, batch.get(Math.min(i, batch.size() - 1)));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    DeviceInfo device = getDeviceInfoFromResultSet(resultSet);
+                    devicesById.put(device.getId(), device);
+                }
+            }
+        }
+        return devicesById;
     }
 
     private List<DeviceInfo> getDevices(String sql, Optional<Pair<Integer, String>> setStringOptional) {
         List<DeviceInfo> devices = new ArrayList<>();
 
-        readWriteLock.readLock().lock();
+        long lockedAtNanos = lock(readWriteLock.readLock());
 
-        try (Connection connection = dataSource.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = dataSource.getConnection()) {
+            PreparedStatement statement = statementCache.prepare(connection, sql);
 
             if (setStringOptional.isPresent()) {
                 statement.setString(
@@ -162,40 +429,24 @@ public final class DatabaseManager {
             log.error("Failed to get data from table", e);
             throw new ServiceException(ErrorType.INTERNAL, e);
         } finally {
-            readWriteLock.readLock().unlock();
+            unlock(readWriteLock.readLock(), lockedAtNanos);
         }
 
         return devices;
     }
 
-    @SuppressWarnings("NestedTryDepth")
-    public void bookDevice(String person, int deviceId) throws SQLException {
-        readWriteLock.writeLock().lock();
+    public void bookDevice(String person, int deviceId, Optional<Duration> leaseDuration) throws SQLException {
+        boolean committed = false;
+        long lockedAtNanos = lock(readWriteLock.writeLock());
         Connection connection = null;
         try {
             connection = dataSource.getConnection();
             connection.setAutoCommit(false); // start the transaction
 
-            String selectSql = getSelectQueryToFetchDeviceWithId(deviceId);
-            try (PreparedStatement selectStatement = connection.prepareStatement(selectSql)) {
-                try (ResultSet resultSet = selectStatement.executeQuery()) {
-                    if (resultSet.next()) {
-                        if (resultSet.getBoolean("available")) {
-                            String updateSql =
-                                    "UPDATE devices SET available = ?, lastBookedPersonName = ?, lastBookedTime = ? "
-                                            + "WHERE id = ?";
-                            try (PreparedStatement updateStatement = connection.prepareStatement(updateSql)) {
-                                bookingStatement(updateStatement, person, deviceId);
-                                updateStatement.executeUpdate();
-                            }
-                        } else { // device with the given ID not available
-                            throw BookingErrors.deviceNotAvailable();
-                        }
-                    } else { // device with the given ID not found
-                        throw DeviceErrors.deviceIdNotFound(deviceId);
-                    }
-                }
-            }
+            bookById(connection, person, deviceId, leaseDuration);
+
+            connection.commit();
+            committed = true;
 
         } catch (SQLException ex) {
             // Rollback the transaction in case of any exception
@@ -204,49 +455,31 @@ public final class DatabaseManager {
             }
             throw new ServiceException(ErrorType.INTERNAL, ex);
         } finally {
+            finishChanges(committed);
             if (connection != null) {
                 connection.setAutoCommit(true);
                 connection.close();
             }
-            readWriteLock.writeLock().unlock();
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
         }
     }
 
-    @SuppressWarnings("NestedTryDepth")
-    public void bookDevice(String person, String deviceName) throws SQLException {
-        readWriteLock.writeLock().lock();
+    public void bookDevice(String person, String deviceName, Optional<Duration> leaseDuration) throws SQLException {
+        boolean committed = false;
+        long lockedAtNanos = lock(readWriteLock.writeLock());
         Connection connection = null;
         try {
             connection = dataSource.getConnection();
             connection.setAutoCommit(false); // start the transaction
 
-            String selectSql = "SELECT * FROM devices WHERE available = 1 AND name = ?;";
-
-            try (PreparedStatement selectStatement = connection.prepareStatement(selectSql)) {
-                selectStatement.setString(1, deviceName);
-
-                try (ResultSet resultSet = selectStatement.executeQuery()) {
-
-                    boolean booked = false;
-                    while (resultSet.next() && !booked) {
-                        if (resultSet.getBoolean("available")) {
-                            String updateSql =
-                                    "UPDATE devices SET available = ?, lastBookedPersonName = ?, lastBookedTime = ? "
-                                            + "WHERE id = ?";
-                            try (PreparedStatement updateStatement = connection.prepareStatement(updateSql)) {
-                                bookingStatement(updateStatement, person, resultSet.getInt("id"));
-                                updateStatement.executeUpdate();
-                            }
-                            booked = true;
-                        }
-                    }
-
-                    if (!booked) { // no available device with the given name found
-                        throw BookingErrors.deviceNotAvailable();
-                    }
-                }
+            if (bookAvailable(connection, person, deviceName, 1, leaseDuration).isEmpty()) {
+                // no available device with the given name found
+                throw BookingErrors.deviceNotAvailable();
             }
 
+            connection.commit();
+            committed = true;
+
         } catch (SQLException ex) {
             // Rollback the transaction in case of any exception
             if (connection != null) {
@@ -254,23 +487,66 @@ public final class DatabaseManager {
             }
             throw new ServiceException(ErrorType.INTERNAL, ex);
         } finally {
+            finishChanges(committed);
             // Restore auto-commit mode and close the connection
             if (connection != null) {
                 connection.setAutoCommit(true);
+                connection.close();
+            }
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
+        }
+    }
+
+    /**
+     * Books a device with the given name as soon as one is free. If one is available now (and nobody is queued ahead
+     * of the caller) the returned future is already complete, otherwise the caller joins the FIFO queue for the name
+     * and the future completes once {@link #returnDevice} or {@link #registerDevice} hands it a device, or fails with
+     * {@code DeviceNotAvailable} after the timeout.
+     */
+    public ListenableFuture<Integer> bookDeviceWhenAvailable(
+            String person, String deviceName, Optional<Duration> leaseDuration, Duration timeout) {
+        boolean committed = false;
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try (Connection connection = dataSource.getConnection()) {
+            if (!bookingWaitQueue.hasWaiters(deviceName)) {
+                List<Integer> bookedIds = bookAvailable(connection, person, deviceName, 1, leaseDuration);
+                committed = true; // auto-commit mode
+                if (!bookedIds.isEmpty()) {
+                    return Futures.immediateFuture(bookedIds.get(0));
+                }
+            }
+
+            if (!deviceNameExists(connection, deviceName)) {
+                throw DeviceErrors.deviceNameNotFound(deviceName);
             }
-            readWriteLock.writeLock().unlock();
+
+            return bookingWaitQueue.enqueue(deviceName, person, leaseDuration, timeout);
+        } catch (SQLException e) {
+            log.error("Failed to book a device", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } finally {
+            finishChanges(committed);
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
         }
     }
 
+    /** The callers of {@link #bookDeviceWhenAvailable} still waiting for a device. */
+    public int waitingBookings() {
+        return bookingWaitQueue.size();
+    }
+
     @SuppressWarnings("NestedTryDepth")
     public void returnDevice(String person, int deviceId) throws SQLException {
-        readWriteLock.writeLock().lock();
+        Optional<BookingWaitQueue.Waiter> handedOverTo = Optional.empty();
+        boolean committed = false;
+
+        long lockedAtNanos = lock(readWriteLock.writeLock());
         Connection connection = null;
         try {
             connection = dataSource.getConnection();
             connection.setAutoCommit(false); // start the transaction
 
-            String selectSql = "SELECT * FROM devices WHERE id = ? AND lastBookedPersonName = ? AND available = 0;";
+            String selectSql = "SELECT name FROM devices WHERE id = ? AND lastBookedPersonName = ? AND available = 0;";
 
             try (PreparedStatement selectStatement = connection.prepareStatement(selectSql)) {
                 selectStatement.setInt(1, deviceId);
@@ -278,17 +554,16 @@ public final class DatabaseManager {
 
                 try (ResultSet resultSet = selectStatement.executeQuery()) {
                     if (resultSet.next()) {
-                        String updateSql = "UPDATE devices SET available = ? WHERE id = ?";
-                        try (PreparedStatement updateStatement = connection.prepareStatement(updateSql)) {
-                            returnStatement(updateStatement, deviceId);
-                            updateStatement.executeUpdate();
-                        }
+                        handedOverTo = releaseOrHandOver(connection, deviceId, resultSet.getString(1));
                     } else {
                         throw BookingErrors.noPersonWithGivenBookedDevice();
                     }
                 }
             }
 
+            connection.commit();
+            committed = true;
+
         } catch (SQLException ex) {
             // Rollback the transaction in case of any exception
             if (connection != null) {
@@ -296,45 +571,47 @@ public final class DatabaseManager {
             }
             throw new ServiceException(ErrorType.INTERNAL, ex);
         } finally {
+            finishChanges(committed);
             if (connection != null) {
                 connection.setAutoCommit(true);
                 connection.close();
             }
-            readWriteLock.writeLock().unlock();
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
+            completeHandOver(handedOverTo, deviceId, committed);
         }
     }
 
     @SuppressWarnings("NestedTryDepth")
     public void returnDevice(String person, String deviceName) throws SQLException {
-        readWriteLock.writeLock().lock();
+        Optional<BookingWaitQueue.Waiter> handedOverTo = Optional.empty();
+        int deviceId = -1;
+        boolean committed = false;
+
+        long lockedAtNanos = lock(readWriteLock.writeLock());
         Connection connection = null;
         try {
             connection = dataSource.getConnection();
             connection.setAutoCommit(false); // start the transaction
 
-            String selectSql = "SELECT * FROM devices WHERE available = 0 AND lastBookedPersonName = ? AND name = ?;";
+            String selectSql = "SELECT id FROM devices WHERE available = 0 AND lastBookedPersonName = ? AND name = ?;";
 
             try (PreparedStatement selectStatement = connection.prepareStatement(selectSql)) {
                 selectStatement.setString(1, person);
                 selectStatement.setString(2, deviceName);
 
                 try (ResultSet resultSet = selectStatement.executeQuery()) {
-                    boolean returned = false;
-                    while (resultSet.next() && !returned) {
-                        String updateSql = "UPDATE devices SET available = ? WHERE id = ?";
-                        try (PreparedStatement updateStatement = connection.prepareStatement(updateSql)) {
-                            returnStatement(updateStatement, resultSet.getInt("id"));
-                            updateStatement.executeUpdate();
-                        }
-                        returned = true;
-                    }
-
-                    if (!returned) { // no previously booked device with the given name found
+                    if (resultSet.next()) {
+                        deviceId = resultSet.getInt(1);
+                        handedOverTo = releaseOrHandOver(connection, deviceId, deviceName);
+                    } else { // no previously booked device with the given name found
                         throw BookingErrors.noPersonWithGivenBookedDevice();
                     }
                 }
             }
 
+            connection.commit();
+            committed = true;
+
         } catch (SQLException ex) {
             // Rollback the transaction in case of any exception
             if (connection != null) {
@@ -342,19 +619,451 @@ public final class DatabaseManager {
             }
             throw new ServiceException(ErrorType.INTERNAL, ex);
         } finally {
+            finishChanges(committed);
             // Restore auto-commit mode and close the connection
             if (connection != null) {
                 connection.setAutoCommit(true);
+                connection.close();
+            }
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
+            completeHandOver(handedOverTo, deviceId, committed);
+        }
+    }
+
+    /**
+     * Books all the requested devices in one transaction: either every item is booked or, if any of them cannot be,
+     * none are and the error of the first failing item is thrown.
+     *
+     * @return the ids of the booked devices, in the order of the items
+     */
+    public List<Integer> bookDevices(List<MultiBookingItem> items) {
+        List<Integer> bookedIds = new ArrayList<>();
+        boolean committed = false;
+
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false); // start the transaction
+            try {
+                for (MultiBookingItem item : items) {
+                    bookItem(connection, item, bookedIds);
+                }
+                connection.commit();
+                committed = true;
+            } catch (SQLException | RuntimeException e) {
+                // leases scheduled for the rolled back bookings are dropped by the reaper, their expiry is not stored
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log.error("Failed to book the devices", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } finally {
+            finishChanges(committed);
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
+        }
+
+        return bookedIds;
+    }
+
+    /** Must be called with the write lock held. */
+    private void bookItem(Connection connection, MultiBookingItem item, List<Integer> bookedIds) throws SQLException {
+        if (item.deviceName().isPresent()) {
+            List<Integer> ids = bookAvailable(
+                    connection, item.person(), item.deviceName().get(), item.count(), item.leaseDuration());
+            if (ids.isEmpty()) {
+                throw BookingErrors.deviceNotAvailable();
+            }
+            bookedIds.addAll(ids);
+        }
+
+        if (item.deviceId().isPresent()) {
+            bookById(connection, item.person(), item.deviceId().getAsInt(), item.leaseDuration());
+            bookedIds.add(item.deviceId().getAsInt());
+        }
+    }
+
+    /** Must be called with the write lock held. */
+    private void bookById(Connection connection, String person, int deviceId, Optional<Duration> leaseDuration)
+            throws SQLException {
+        String selectSql = "SELECT available FROM devices WHERE id = ?;";
+
+        try (PreparedStatement selectStatement = connection.prepareStatement(selectSql)) {
+            selectStatement.setInt(1, deviceId);
+
+            try (ResultSet resultSet = selectStatement.executeQuery()) {
+                if (!resultSet.next()) { // device with the given ID not found
+                    throw DeviceErrors.deviceIdNotFound(deviceId);
+                }
+                if (!resultSet.getBoolean("available")) { // device with the given ID not available
+                    throw BookingErrors.deviceNotAvailable();
+                }
+            }
+        }
+
+        markBooked(connection, person, deviceId, leaseDuration);
+    }
+
+    /**
+     * Books the given number of available devices with the given name, or none if fewer are available. The devices
+     * are taken off the free lists as the allocation policy says, no query is made to find them. Must be called with
+     * the write lock held.
+     *
+     * @return the ids of the booked devices, empty if none were booked
+     */
+    private List<Integer> bookAvailable(
+            Connection connection, String person, String deviceName, int count, Optional<Duration> leaseDuration)
+            throws SQLException {
+        List<Integer> deviceIds = freeDevices.allocate(deviceName, count);
+        for (int deviceId : deviceIds) {
+            markBooked(connection, person, deviceId, leaseDuration);
+        }
+        return deviceIds;
+    }
+
+    /**
+     * Gives a device that has just been returned straight to the longest waiting caller for its name, or makes it
+     * available if nobody is waiting. Must be called with the write lock held.
+     */
+    private Optional<BookingWaitQueue.Waiter> releaseOrHandOver(Connection connection, int deviceId, String deviceName)
+            throws SQLException {
+        Optional<BookingWaitQueue.Waiter> waiter = bookingWaitQueue.claimNext(deviceName);
+        if (waiter.isPresent()) {
+            markBooked(connection, waiter.get().person(), deviceId, waiter.get().leaseDuration());
+        } else {
+            String updateSql = "UPDATE devices SET available = ?, leaseExpiresAt = NULL WHERE id = ?";
+            try (PreparedStatement updateStatement = connection.prepareStatement(updateSql)) {
+                returnStatement(updateStatement, deviceId);
+                updateStatement.executeUpdate();
+            }
+            leaseTimingWheel.cancel(deviceId);
+            pendingChanges.add(listener -> listener.deviceReleased(deviceId));
+        }
+        return waiter;
+    }
+
+    /** Completes the waiter's future only once the lock is released and the hand-over is known to be durable. */
+    private static void completeHandOver(
+            Optional<BookingWaitQueue.Waiter> handedOverTo, int deviceId, boolean committed) {
+        handedOverTo.ifPresent(waiter -> {
+            if (committed) {
+                waiter.handOver(deviceId);
+            } else {
+                waiter.fail(new ServiceException(ErrorType.INTERNAL, SafeArg.of("deviceId", deviceId)));
+            }
+        });
+    }
+
+    /**
+     * Marks the device as booked by the person, with a lease that expires after the given duration if one is set.
+     * Must be called with the write lock held.
+     */
+    private void markBooked(Connection connection, String person, int deviceId, Optional<Duration> leaseDuration)
+            throws SQLException {
+        String updateSql = "UPDATE devices SET available = ?, lastBookedPersonName = ?, lastBookedAt = ?, "
+                + "leaseExpiresAt = ? WHERE id = ?";
+        OptionalLong leaseExpiresAtMillis = leaseDuration.isPresent()
+                ? OptionalLong.of(System.currentTimeMillis() + leaseDuration.get().toMillis())
+                : OptionalLong.empty();
+
+        try (PreparedStatement updateStatement = connection.prepareStatement(updateSql)) {
+            bookingStatement(updateStatement, person, deviceId, leaseExpiresAtMillis);
+            updateStatement.executeUpdate();
+        }
+
+        if (leaseExpiresAtMillis.isPresent()) {
+            leaseTimingWheel.schedule(deviceId, leaseExpiresAtMillis.getAsLong());
+        } else {
+            leaseTimingWheel.cancel(deviceId);
+        }
+        pendingChanges.add(listener -> listener.deviceBooked(deviceId, person));
+    }
+
+    /**
+     * Delivers the changes of a committed write to the listeners, or drops them and puts the devices it allocated back
+     * on the free lists if it was rolled back.
+     */
+    private void finishChanges(boolean committed) {
+        if (committed) {
+            for (Consumer<DeviceChangeListener> change : pendingChanges) {
+                for (DeviceChangeListener listener : changeListeners) {
+                    try {
+                        change.accept(listener);
+                    } catch (RuntimeException e) {
+                        log.error("Device change listener failed", e);
+                    }
+                }
+            }
+        }
+        pendingChanges.clear();
+        freeDevices.finishAllocations(committed);
+    }
+
+    /**
+     * Extends the lease of a device booked by the given person to expire the given duration from now.
+     *
+     * @return the new lease expiry
+     */
+    public OffsetDateTime renewLease(String person, int deviceId, Duration leaseDuration) {
+        String updateSql =
+                "UPDATE devices SET leaseExpiresAt = ? WHERE id = ? AND lastBookedPersonName = ? AND available = 0;";
+        long leaseExpiresAtMillis = System.currentTimeMillis() + leaseDuration.toMillis();
+        boolean committed = false;
+
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(updateSql)) {
+            statement.setLong(1, leaseExpiresAtMillis);
+            statement.setInt(2, deviceId);
+            statement.setString(3, person);
+
+            if (statement.executeUpdate() == 0) {
+                throw BookingErrors.noPersonWithGivenBookedDevice();
+            }
+            leaseTimingWheel.schedule(deviceId, leaseExpiresAtMillis);
+            pendingChanges.add(listener -> listener.leaseRenewed(deviceId));
+            committed = true;
+        } catch (SQLException e) {
+            log.error("Failed to renew the lease", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } finally {
+            finishChanges(committed);
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
+        }
+
+        return toOffsetDateTime(leaseExpiresAtMillis);
+    }
+
+    /**
+     * Makes the table follow a leader's: overwrites or inserts the given devices and deletes the ones with the given
+     * ids, after deleting every device first if asked to, all in one transaction. The listeners are told about the
+     * difference to the previous contents as if the changes had been made here. The leases are not scheduled, the
+     * leader is the one to reclaim them.
+     */
+    public void replicate(boolean deleteAllFirst, Collection<DeviceInfo> devices, Collection<Integer> deletedIds) {
+        boolean committed = false;
+
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false); // start the transaction
+            try {
+                writeReplicated(connection, deleteAllFirst, devices, deletedIds);
+                connection.commit();
+                committed = true;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
-            readWriteLock.writeLock().unlock();
+        } catch (SQLException e) {
+            log.error("Failed to replicate the devices", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } finally {
+            finishChanges(committed);
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
         }
     }
 
-    private void bookingStatement(PreparedStatement updateStatement, String personName, int id) throws SQLException {
+    /** Must be called with the write lock held. */
+    private void writeReplicated(
+            Connection connection,
+            boolean deleteAllFirst,
+            Collection<DeviceInfo> devices,
+            Collection<Integer> deletedIds)
+            throws SQLException {
+        Map<Integer, DeviceInfo> previousById = Map.of();
+        if (deleteAllFirst) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM devices;");
+            }
+            leaseTimingWheel.clear();
+            pendingChanges.add(DeviceChangeListener::allDevicesDeleted);
+        } else {
+            List<Integer> ids = new ArrayList<>(deletedIds);
+            devices.forEach(device -> ids.add(device.getId()));
+            if (!ids.isEmpty()) {
+                previousById = readDevicesByIds(connection, ids.stream().distinct().collect(Collectors.toList()));
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM devices WHERE id = ?;")) {
+            for (int deviceId : deletedIds) {
+                if (previousById.containsKey(deviceId)) {
+                    statement.setInt(1, deviceId);
+                    statement.addBatch();
+                    pendingChanges.add(listener -> listener.deviceDeleted(deviceId));
+                }
+            }
+            statement.executeBatch();
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(UPSERT_DEVICE)) {
+            for (DeviceInfo device : devices) {
+                upsertStatement(statement, device);
+                statement.addBatch();
+                replicatedChanges(Optional.ofNullable(previousById.get(device.getId())), device);
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /** Queues the listener callbacks that turn the previous state of a replicated device into the new one. */
+    private void replicatedChanges(Optional<DeviceInfo> previous, DeviceInfo device) {
+        int deviceId = device.getId();
+        String person = device.getLastBookedPersonName().orElse("");
+        if (previous.isEmpty()) {
+            pendingChanges.add(listener -> listener.deviceRegistered(deviceId, device.getName()));
+            if (!device.getAvailable()) {
+                pendingChanges.add(listener -> listener.deviceBooked(deviceId, person));
+            }
+        } else if (device.getAvailable()) {
+            if (!previous.get().getAvailable()) {
+                pendingChanges.add(listener -> listener.deviceReleased(deviceId));
+            }
+        } else if (previous.get().getAvailable()
+                || !previous.get().getLastBookedPersonName().equals(device.getLastBookedPersonName())) {
+            pendingChanges.add(listener -> listener.deviceBooked(deviceId, person));
+        } else if (!previous.get().getLeaseExpiresAt().equals(device.getLeaseExpiresAt())) {
+            pendingChanges.add(listener -> listener.leaseRenewed(deviceId));
+        }
+    }
+
+    /**
+     * Writes a consistent copy of the database to the given file, which must not exist yet, with {@code VACUUM INTO}.
+     * The copy is read in a transaction of its own, without the write lock, so the writes carry on while it is made.
+     */
+    public void backupTo(Path file) {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement("VACUUM INTO ?;")) {
+            statement.setString(1, file.toString());
+            statement.execute();
+        } catch (SQLException e) {
+            log.error("Failed to back up the database", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        }
+    }
+
+    /** Rebuilds the timing wheel from the leases stored in the table, e.g. after a restart. */
+    private void loadLeases() {
+        String selectSql = "SELECT id, leaseExpiresAt FROM devices WHERE available = 0 AND leaseExpiresAt IS NOT NULL;";
+        int leases = 0;
+
+        long lockedAtNanos = lock(readWriteLock.readLock());
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(selectSql);
+                ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                leaseTimingWheel.schedule(resultSet.getInt("id"), resultSet.getLong("leaseExpiresAt"));
+                leases++;
+            }
+        } catch (SQLException e) {
+            log.error("Failed to load the leases", e);
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        } finally {
+            unlock(readWriteLock.readLock(), lockedAtNanos);
+        }
+
+        log.info("Loaded {} active leases", SafeArg.of("leases", leases));
+    }
+
+    private void reclaimExpiredLeases() {
+        try {
+            for (LeaseTimingWheel.ExpiredLease lease : leaseTimingWheel.advance(System.currentTimeMillis())) {
+                reclaimExpiredLease(lease);
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the scheduled task, keep the reaper running
+            log.error("Failed to reclaim expired leases", e);
+        }
+    }
+
+    /**
+     * Returns a device whose lease has expired, unless it has been returned or re-leased in the meantime, in which case
+     * the stored expiry no longer matches.
+     */
+    @SuppressWarnings("NestedTryDepth")
+    private void reclaimExpiredLease(LeaseTimingWheel.ExpiredLease lease) {
+        String selectSql = "SELECT name FROM devices WHERE id = ? AND available = 0 AND leaseExpiresAt = ?;";
+        Optional<BookingWaitQueue.Waiter> handedOverTo = Optional.empty();
+        boolean committed = false;
+
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false); // start the transaction
+            try (PreparedStatement selectStatement = connection.prepareStatement(selectSql)) {
+                selectStatement.setInt(1, lease.deviceId());
+                selectStatement.setLong(2, lease.expiresAtMillis());
+
+                try (ResultSet resultSet = selectStatement.executeQuery()) {
+                    if (resultSet.next()) {
+                        handedOverTo = releaseOrHandOver(connection, lease.deviceId(), resultSet.getString("name"));
+                        log.info(
+                                "Reclaimed device {} whose lease expired",
+                                SafeArg.of("deviceId", lease.deviceId()),
+                                SafeArg.of("expiresAt", lease.expiresAtMillis()));
+                    }
+                }
+
+                connection.commit();
+                committed = true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // the lease stays in the table and is picked up again on the next restart
+            log.error(
+                    "Failed to reclaim the device with an expired lease", SafeArg.of("deviceId", lease.deviceId()), e);
+        } finally {
+            finishChanges(committed);
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
+            completeHandOver(handedOverTo, lease.deviceId(), committed);
+        }
+    }
+
+    private static boolean deviceNameExists(Connection connection, String deviceName) throws SQLException {
+        String selectSql = "SELECT 1 FROM devices WHERE name = ? LIMIT 1;";
+        try (PreparedStatement statement = connection.prepareStatement(selectSql)) {
+            statement.setString(1, deviceName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /** The highest id ever handed out, kept by SQLite for the AUTOINCREMENT key even once the device is deleted. */
+    private static int lastAssignedDeviceId(Connection connection) throws SQLException {
+        String selectSql = "SELECT seq FROM sqlite_sequence WHERE name = 'devices';";
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(selectSql)) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private int nextDeviceId(int lastAssignedId) {
+        int deviceId = lastAssignedId + 1;
+        while (!ownsDeviceId.test(deviceId)) {
+            deviceId++;
+        }
+        return deviceId;
+    }
+
+    private void bookingStatement(
+            PreparedStatement updateStatement, String personName, int id, OptionalLong leaseExpiresAtMillis)
+            throws SQLException {
         updateStatement.setBoolean(1, false);
         updateStatement.setString(2, personName);
-        updateStatement.setString(3, OffsetDateTime.now(ZoneId.of("Asia/Dubai")).toString());
-        updateStatement.setInt(4, id);
+        updateStatement.setLong(3, System.currentTimeMillis());
+        if (leaseExpiresAtMillis.isPresent()) {
+            updateStatement.setLong(4, leaseExpiresAtMillis.getAsLong());
+        } else {
+            updateStatement.setNull(4, Types.INTEGER);
+        }
+        updateStatement.setInt(5, id);
     }
 
     private void returnStatement(PreparedStatement updateStatement, int id) throws SQLException {
@@ -362,38 +1071,81 @@ public final class DatabaseManager {
         updateStatement.setInt(2, id);
     }
 
+    private static void upsertStatement(PreparedStatement statement, DeviceInfo device) throws SQLException {
+        statement.setInt(1, device.getId());
+        statement.setString(2, device.getName());
+        statement.setBoolean(3, device.getAvailable());
+        statement.setString(4, device.getLastBookedPersonName().orElse(null));
+        setEpochMillis(statement, 5, device.getLastBookedTime());
+        setEpochMillis(statement, 6, device.getLeaseExpiresAt());
+    }
+
+    private static void setEpochMillis(PreparedStatement statement, int index, Optional<OffsetDateTime> time)
+            throws SQLException {
+        if (time.isPresent()) {
+            statement.setLong(index, time.get().toInstant().toEpochMilli());
+        } else {
+            statement.setNull(index, Types.INTEGER);
+        }
+    }
+
     private static DeviceInfo getDeviceInfoFromResultSet(ResultSet resultSet) throws SQLException {
+        long lastBookedAtMillis = resultSet.getLong(LAST_BOOKED_AT_COLUMN);
+        Optional<OffsetDateTime> lastBookedTime =
+                resultSet.wasNull() ? Optional.empty() : Optional.of(toOffsetDateTime(lastBookedAtMillis));
+        long leaseExpiresAtMillis = resultSet.getLong(LEASE_EXPIRES_AT_COLUMN);
+        Optional<OffsetDateTime> leaseExpiresAt =
+                resultSet.wasNull() ? Optional.empty() : Optional.of(toOffsetDateTime(leaseExpiresAtMillis));
+
         return DeviceInfo.builder()
-                .id(resultSet.getInt("id"))
-                .name(resultSet.getString("name"))
-                .available(resultSet.getBoolean("available"))
-                .lastBookedPersonName(Optional.ofNullable(resultSet.getString("lastBookedPersonName")))
-                .lastBookedTime(Optional.ofNullable(resultSet.getString("lastBookedTime"))
-                        .map(OffsetDateTime::parse))
+                .id(resultSet.getInt(ID_COLUMN))
+                .name(resultSet.getString(NAME_COLUMN))
+                .available(resultSet.getBoolean(AVAILABLE_COLUMN))
+                .lastBookedPersonName(Optional.ofNullable(resultSet.getString(LAST_BOOKED_PERSON_NAME_COLUMN)))
+                .lastBookedTime(lastBookedTime)
+                .leaseExpiresAt(leaseExpiresAt)
                 .build();
     }
 
-    public boolean ensureDbTableExist() {
-        String createTableSql = "CREATE TABLE IF NOT EXISTS devices ("
-                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                + "name TEXT NOT NULL,"
-                + "available INTEGER NOT NULL,"
-                + "lastBookedPersonName TEXT,"
-                + "lastBookedTime TEXT"
-                + ");";
+    private static OffsetDateTime toOffsetDateTime(long epochMillis) {
+        return TIMESTAMPS.decode(epochMillis);
+    }
 
-        boolean tableWasAlreadyThere;
+    private static List<String> selectDevicesWithIdsQueries() {
+        List<String> queries = new ArrayList<>();
+        for (int ids = 1; ids <= MAX_IDS_PER_QUERY; ids *= 2) {
+            queries.add("SELECT " + DEVICE_COLUMNS + " FROM devices WHERE id IN ("
+                    + String.join(", ", Collections.nCopies(ids, "?")) + ");");
+        }
+        return List.copyOf(queries);
+    }
 
-        readWriteLock.writeLock().lock();
-        try (Connection connection = dataSource.getConnection();
-                Statement statement = connection.createStatement()) {
+    /** Takes the lock, recording the wait for it in the request timings, and returns when it was acquired. */
+    private static long lock(Lock lock) {
+        long startNanos = System.nanoTime();
+        lock.lock();
+        long lockedAtNanos = System.nanoTime();
+        RequestTimings.record(RequestTimings.Phase.DB_LOCK, lockedAtNanos - startNanos);
+        return lockedAtNanos;
+    }
 
-            // Check if the table exists
-            ResultSet resultSet =
-                    statement.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='devices'");
-            tableWasAlreadyThere = resultSet.next();
+    /** Releases the lock, recording the time it was held as database work in the request timings. */
+    private static void unlock(Lock lock, long lockedAtNanos) {
+        lock.unlock();
+        RequestTimings.record(RequestTimings.Phase.DB, System.nanoTime() - lockedAtNanos);
+    }
+
+    /**
+     * Creates the devices table if it is missing and brings its schema up to date, see {@link SchemaMigrations}.
+     * Returns whether the table was already there.
+     */
+    public boolean ensureDbTableExist() {
+        boolean tableWasAlreadyThere;
 
-            statement.execute(createTableSql);
+        long lockedAtNanos = lock(readWriteLock.writeLock());
+        try (Connection connection = dataSource.getConnection()) {
+            tableWasAlreadyThere = SchemaMigrations.devicesTableExists(connection);
+            SchemaMigrations.migrate(connection);
 
             if (tableWasAlreadyThere) {
                 log.info("Devices table already exists");
@@ -405,7 +1157,7 @@ public final class DatabaseManager {
             log.error("Exception when creating a table", e);
             throw new ServiceException(ErrorType.INTERNAL, e);
         } finally {
-            readWriteLock.writeLock().unlock();
+            unlock(readWriteLock.writeLock(), lockedAtNanos);
         }
 
         return tableWasAlreadyThere;
@@ -0,0 +1,45 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import java.util.List;
+
+/**
+ * Observes committed changes to the devices table. Callbacks are made in commit order on the writing thread while the
+ * database write lock is held, so implementations must be quick and must not call back into the
+ * {@link DatabaseManager}.
+ */
+public interface DeviceChangeListener {
+
+    /** Called once with the current contents of the table when the listener is added. */
+    void initialize(List<DeviceInfo> devices);
+
+    void deviceRegistered(int deviceId, String deviceName);
+
+    /** Called when a device is booked, including when a returned device is handed straight to a waiting caller. */
+    void deviceBooked(int deviceId, String person);
+
+    void deviceReleased(int deviceId);
+
+    /** Called when the lease of a booked device is renewed, the device stays booked by the same person. */
+    default void leaseRenewed(int _deviceId) {}
+
+    void deviceDeleted(int deviceId);
+
+    void allDevicesDeleted();
+}
@@ -0,0 +1,290 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import com.achomutovskij.deviceservice.DeviceAllocationPolicy;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The available devices of every model, kept in memory so that booking by name takes devices off the model's free
+ * list instead of scanning the table, and spreads the bookings over identical devices as the policy says rather than
+ * always handing out the lowest id. Built from the table when added as a listener and kept up to date by its changes;
+ * every call is made with the {@link DatabaseManager}'s write lock held.
+ *
+ * <p>Devices allocated by a write are taken off their list straight away and put back as they were if the write is
+ * rolled back, see {@link #finishAllocations}.
+ */
+final class DeviceFreeLists implements DeviceChangeListener {
+
+    private final DeviceAllocationPolicy policy;
+    private final Map<String, FreeList> freeListsByName = new HashMap<>();
+    private final Map<Integer, String> namesById = new HashMap<>();
+    // taken off the free lists by the current write
+    private final List<Integer> allocated = new ArrayList<>();
+
+    DeviceFreeLists(DeviceAllocationPolicy policy) {
+        this.policy = Preconditions.checkNotNull(policy, "Allocation policy must be non-null");
+        Preconditions.checkArgument(
+                !policy.get().equals(DeviceAllocationPolicy.Value.UNKNOWN),
+                "Unknown device allocation policy",
+                SafeArg.of("policy", policy));
+    }
+
+    /**
+     * Takes the given number of available devices with the given name off their free list, or none if fewer are
+     * available.
+     *
+     * @return the ids of the allocated devices, empty if none were allocated
+     */
+    List<Integer> allocate(String deviceName, int count) {
+        FreeList freeList = freeListsByName.get(deviceName);
+        if (freeList == null || freeList.size() < count) {
+            return List.of();
+        }
+        List<Integer> deviceIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            deviceIds.add(freeList.poll());
+        }
+        allocated.addAll(deviceIds);
+        return deviceIds;
+    }
+
+    /** Ends the current write, putting the devices it allocated back on their free lists if it was rolled back. */
+    void finishAllocations(boolean committed) {
+        if (!committed) {
+            // in reverse, so that each ends up where it was taken from
+            for (int i = allocated.size() - 1; i >= 0; i--) {
+                int deviceId = allocated.get(i);
+                String deviceName = namesById.get(deviceId);
+                if (deviceName != null) {
+                    freeList(deviceName).putBack(deviceId);
+                }
+            }
+        }
+        allocated.clear();
+    }
+
+    @Override
+    public void initialize(List<DeviceInfo> devices) {
+        freeListsByName.clear();
+        namesById.clear();
+        List<DeviceInfo> available = new ArrayList<>();
+        for (DeviceInfo device : devices) {
+            namesById.put(device.getId(), device.getName());
+            if (device.getAvailable()) {
+                available.add(device);
+            }
+        }
+        // the ones booked longest ago first, the never booked ones before all of them
+        available.sort(Comparator.comparingLong((DeviceInfo device) -> device.getLastBookedTime()
+                        .map(time -> time.toInstant().toEpochMilli())
+                        .orElse(Long.MIN_VALUE))
+                .thenComparingInt(DeviceInfo::getId));
+        available.forEach(device -> freeList(device.getName()).add(device.getId()));
+    }
+
+    @Override
+    public void deviceRegistered(int deviceId, String deviceName) {
+        namesById.put(deviceId, deviceName);
+        freeList(deviceName).add(deviceId);
+    }
+
+    @Override
+    public void deviceBooked(int deviceId, String _person) {
+        // already off the list when allocated here
+        String deviceName = namesById.get(deviceId);
+        if (deviceName != null) {
+            freeList(deviceName).remove(deviceId);
+        }
+    }
+
+    @Override
+    public void deviceReleased(int deviceId) {
+        String deviceName = namesById.get(deviceId);
+        if (deviceName != null) {
+            freeList(deviceName).add(deviceId);
+        }
+    }
+
+    @Override
+    public void deviceDeleted(int deviceId) {
+        String deviceName = namesById.remove(deviceId);
+        FreeList freeList = deviceName == null ? null : freeListsByName.get(deviceName);
+        if (freeList != null) {
+            freeList.remove(deviceId);
+            if (freeList.size() == 0) {
+                freeListsByName.remove(deviceName);
+            }
+        }
+    }
+
+    @Override
+    public void allDevicesDeleted() {
+        freeListsByName.clear();
+        namesById.clear();
+    }
+
+    private FreeList freeList(String deviceName) {
+        return freeListsByName.computeIfAbsent(deviceName, _name -> newFreeList());
+    }
+
+    private FreeList newFreeList() {
+        return switch (policy.get()) {
+            case LEAST_RECENTLY_USED -> new LeastRecentlyUsed();
+            case ROUND_ROBIN -> new RoundRobin();
+            case RANDOM -> new RandomPick();
+            case UNKNOWN -> throw new SafeIllegalArgumentException(
+                    "Unknown device allocation policy", SafeArg.of("policy", policy));
+        };
+    }
+
+    /** The available devices of one model. */
+    private interface FreeList {
+
+        /** Adds a device that has become available. */
+        void add(int deviceId);
+
+        /** Removes a device if it is on the list. */
+        void remove(int deviceId);
+
+        /** Removes and returns the next device to book, the list must not be empty. */
+        int poll();
+
+        /** Puts back a device just polled, so that it is the next one polled again. */
+        default void putBack(int deviceId) {
+            add(deviceId);
+        }
+
+        int size();
+    }
+
+    /** Books the device that has been available the longest, O(1). */
+    private static final class LeastRecentlyUsed implements FreeList {
+        private final LinkedHashSet<Integer> deviceIds = new LinkedHashSet<>();
+
+        @Override
+        public void add(int deviceId) {
+            deviceIds.addLast(deviceId);
+        }
+
+        @Override
+        public void remove(int deviceId) {
+            deviceIds.remove(deviceId);
+        }
+
+        @Override
+        public int poll() {
+            return deviceIds.removeFirst();
+        }
+
+        @Override
+        public void putBack(int deviceId) {
+            deviceIds.addFirst(deviceId);
+        }
+
+        @Override
+        public int size() {
+            return deviceIds.size();
+        }
+    }
+
+    /** Books the devices in turn by id, starting after the one booked last, O(log n). */
+    private static final class RoundRobin implements FreeList {
+        private final TreeSet<Integer> deviceIds = new TreeSet<>();
+        private int lastPolled;
+
+        @Override
+        public void add(int deviceId) {
+            deviceIds.add(deviceId);
+        }
+
+        @Override
+        public void remove(int deviceId) {
+            deviceIds.remove(deviceId);
+        }
+
+        @Override
+        public int poll() {
+            Integer next = deviceIds.higher(lastPolled);
+            lastPolled = next != null ? next : deviceIds.first();
+            deviceIds.remove(lastPolled);
+            return lastPolled;
+        }
+
+        @Override
+        public void putBack(int deviceId) {
+            deviceIds.add(deviceId);
+            // the device before it in the turn
+            Integer previous = deviceIds.lower(deviceId);
+            lastPolled = previous != null ? previous : deviceId - 1;
+        }
+
+        @Override
+        public int size() {
+            return deviceIds.size();
+        }
+    }
+
+    /** Books a device picked at random, O(1): the ids sit in an array and a removed one is swapped with the last. */
+    private static final class RandomPick implements FreeList {
+        private final List<Integer> deviceIds = new ArrayList<>();
+        private final Map<Integer, Integer> indexesById = new HashMap<>();
+
+        @Override
+        public void add(int deviceId) {
+            if (indexesById.putIfAbsent(deviceId, deviceIds.size()) == null) {
+                deviceIds.add(deviceId);
+            }
+        }
+
+        @Override
+        public void remove(int deviceId) {
+            Integer index = indexesById.remove(deviceId);
+            if (index == null) {
+                return;
+            }
+            int last = deviceIds.remove(deviceIds.size() - 1);
+            if (last != deviceId) {
+                deviceIds.set(index, last);
+                indexesById.put(last, index);
+            }
+        }
+
+        @Override
+        public int poll() {
+            int deviceId = deviceIds.get(ThreadLocalRandom.current().nextInt(deviceIds.size()));
+            remove(deviceId);
+            return deviceId;
+        }
+
+        @Override
+        public int size() {
+            return deviceIds.size();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashed timing wheel of lease expiries keyed by device id. Scheduling, renewing and cancelling a lease are O(1), and
+ * advancing the wheel only visits the buckets of the ticks that have passed, so reclaiming expired leases never scans
+ * the whole table. Leases longer than one revolution simply stay in their bucket until the revolution they expire in.
+ */
+final class LeaseTimingWheel {
+
+    private final long tickMillis;
+    private final List<Set<Integer>> buckets;
+    private final Map<Integer, ScheduledLease> leasesByDeviceId = new HashMap<>();
+    private long lastProcessedTick;
+
+    LeaseTimingWheel(long tickMillis, int wheelSize, long nowMillis) {
+        Preconditions.checkArgument(tickMillis > 0, "Tick must be positive", SafeArg.of("tickMillis", tickMillis));
+        Preconditions.checkArgument(wheelSize > 0, "Wheel size must be positive", SafeArg.of("wheelSize", wheelSize));
+        this.tickMillis = tickMillis;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new HashSet<>());
+        }
+        this.lastProcessedTick = nowMillis / tickMillis;
+    }
+
+    /** Schedules (or reschedules) the lease of the device to expire at the given time. */
+    synchronized void schedule(int deviceId, long expiresAtMillis) {
+        cancel(deviceId);
+        // the first tick at or after the expiry, leases that are already due go into the next tick to be processed
+        long tick = Math.max(Math.floorDiv(expiresAtMillis + tickMillis - 1, tickMillis), lastProcessedTick + 1);
+        bucketFor(tick).add(deviceId);
+        leasesByDeviceId.put(deviceId, new ScheduledLease(expiresAtMillis, tick));
+    }
+
+    synchronized void cancel(int deviceId) {
+        ScheduledLease lease = leasesByDeviceId.remove(deviceId);
+        if (lease != null) {
+            bucketFor(lease.tick()).remove(deviceId);
+        }
+    }
+
+    synchronized void clear() {
+        buckets.forEach(Set::clear);
+        leasesByDeviceId.clear();
+    }
+
+    synchronized int size() {
+        return leasesByDeviceId.size();
+    }
+
+    /** Removes and returns every lease that has expired by the given time. */
+    synchronized List<ExpiredLease> advance(long nowMillis) {
+        List<ExpiredLease> expired = new ArrayList<>();
+        long nowTick = nowMillis / tickMillis;
+        // a pause longer than a revolution only needs every bucket visited once
+        long firstTick = Math.max(lastProcessedTick + 1, nowTick - buckets.size() + 1);
+
+        for (long tick = firstTick; tick <= nowTick; tick++) {
+            Set<Integer> bucket = bucketFor(tick);
+            bucket.removeIf(deviceId -> {
+                ScheduledLease lease = leasesByDeviceId.get(deviceId);
+                if (lease.expiresAtMillis() > nowMillis) { // due in a later revolution
+                    return false;
+                }
+                leasesByDeviceId.remove(deviceId);
+                expired.add(new ExpiredLease(deviceId, lease.expiresAtMillis()));
+                return true;
+            });
+        }
+
+        lastProcessedTick = Math.max(lastProcessedTick, nowTick);
+        return expired;
+    }
+
+    private Set<Integer> bucketFor(long tick) {
+        return buckets.get((int) (tick % buckets.size()));
+    }
+
+    record ExpiredLease(int deviceId, long expiresAtMillis) {}
+
+    private record ScheduledLease(long expiresAtMillis, long tick) {}
+}
@@ -0,0 +1,180 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * Versioned migrations of the database schema. The version of a database is kept in {@code PRAGMA user_version} and
+ * every migration above it is applied at startup in its own transaction, together with the version bump, so an
+ * interrupted upgrade resumes where it stopped. Migrations are only ever appended, never changed.
+ */
+final class SchemaMigrations {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(SchemaMigrations.class);
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            SchemaMigrations::createDevicesTable,
+            SchemaMigrations::addLeaseExpiresAt,
+            SchemaMigrations::replaceLastBookedTimeWithEpochMillis,
+            SchemaMigrations::addIndexes);
+
+    static final int LATEST_VERSION = MIGRATIONS.size();
+
+    private SchemaMigrations() {}
+
+    /** Brings the schema up to the latest version. Must be called before the connection is used by anything else. */
+    static void migrate(Connection connection) throws SQLException {
+        // databases from before the migrations were introduced are at version 0 and may lack the lease column, and a
+        // dropped devices table leaves the version behind, so the table is recreated from scratch in both cases
+        int version = devicesTableExists(connection) ? userVersion(connection) : 0;
+        if (version > LATEST_VERSION) {
+            throw new SafeIllegalStateException(
+                    "The database schema is newer than this version of the service supports",
+                    SafeArg.of("schemaVersion", version),
+                    SafeArg.of("latestVersion", LATEST_VERSION));
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            for (int next = version + 1; next <= LATEST_VERSION; next++) {
+                try {
+                    MIGRATIONS.get(next - 1).apply(connection);
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("PRAGMA user_version = " + next + ";");
+                    }
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+                log.info("Migrated the database schema to version {}", SafeArg.of("schemaVersion", next));
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    static boolean devicesTableExists(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(
+                        "SELECT name FROM sqlite_master WHERE type='table' AND name='devices';")) {
+            return resultSet.next();
+        }
+    }
+
+    private static int userVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("PRAGMA user_version;")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    /** Version 1: the original table. */
+    private static void createDevicesTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS devices ("
+                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "name TEXT NOT NULL,"
+                    + "available INTEGER NOT NULL,"
+                    + "lastBookedPersonName TEXT,"
+                    + "lastBookedTime TEXT"
+                    + ");");
+        }
+    }
+
+    /** Version 2: booking leases. Unversioned databases may already have the column. */
+    private static void addLeaseExpiresAt(Connection connection) throws SQLException {
+        if (!columnExists(connection, "leaseExpiresAt")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE devices ADD COLUMN leaseExpiresAt INTEGER;");
+            }
+        }
+    }
+
+    /**
+     * Version 3: the booking time as epoch milliseconds instead of an ISO-8601 string, so that reading a row does not
+     * parse a timestamp. Existing values are converted.
+     */
+    @SuppressWarnings("NestedTryDepth")
+    private static void replaceLastBookedTimeWithEpochMillis(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE devices ADD COLUMN lastBookedAt INTEGER;");
+
+            try (ResultSet resultSet = statement.executeQuery(
+                            "SELECT id, lastBookedTime FROM devices WHERE lastBookedTime IS NOT NULL;");
+                    PreparedStatement update =
+                            connection.prepareStatement("UPDATE devices SET lastBookedAt = ? WHERE id = ?;")) {
+                while (resultSet.next()) {
+                    update.setLong(
+                            1,
+                            OffsetDateTime.parse(resultSet.getString(2))
+                                    .toInstant()
+                                    .toEpochMilli());
+                    update.setInt(2, resultSet.getInt(1));
+                    update.addBatch();
+                }
+                update.executeBatch();
+            }
+
+            statement.execute("ALTER TABLE devices DROP COLUMN lastBookedTime;");
+        }
+    }
+
+    /** Version 4: indexes for the booking, returning, listing and lease queries. */
+    private static void addIndexes(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // booking and waiting by name, distinct names; covering since the rowid is the id
+            statement.execute("CREATE INDEX IF NOT EXISTS devices_name_available ON devices (name, available);");
+            // listing the available devices
+            statement.execute("CREATE INDEX IF NOT EXISTS devices_available ON devices (available);");
+            // returning by person
+            statement.execute("CREATE INDEX IF NOT EXISTS devices_person_available "
+                    + "ON devices (lastBookedPersonName, available);");
+            // rebuilding the lease timing wheel at startup
+            statement.execute("CREATE INDEX IF NOT EXISTS devices_lease ON devices (leaseExpiresAt) "
+                    + "WHERE leaseExpiresAt IS NOT NULL;");
+        }
+    }
+
+    private static boolean columnExists(Connection connection, String column) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet columns = statement.executeQuery("PRAGMA table_info(devices);")) {
+            while (columns.next()) {
+                if (column.equals(columns.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface Migration {
+        void apply(Connection connection) throws SQLException;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Prepared statements kept open per pooled connection, so that a hot query is compiled by SQLite once per connection
+ * instead of once per call. The pool hands a connection to one thread at a time, which is what makes reusing its
+ * statements safe, as long as every result set is closed before the connection goes back to the pool.
+ *
+ * <p>Statements are prepared on the physical connection: the pool's proxy closes the statements prepared through it
+ * when it is returned. The pool retires its connections after their max lifetime and opens new ones in their place,
+ * so whenever a connection is seen for the first time, the statements of the connections that have been closed since
+ * are dropped. The cache holds at most the pool's live connections plus the ones retired since the last new one.
+ */
+final class StatementCache {
+
+    private final ConcurrentMap<Connection, Map<String, PreparedStatement>> statements = new ConcurrentHashMap<>();
+
+    /** Returns the cached statement for the query, with its parameters cleared, preparing it on first use. */
+    PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        Connection physicalConnection = connection.unwrap(Connection.class);
+        Map<String, PreparedStatement> byQuery = statements.get(physicalConnection);
+        if (byQuery == null) {
+            statements.keySet().removeIf(StatementCache::isClosed);
+            byQuery = statements.computeIfAbsent(physicalConnection, _connection -> new HashMap<>());
+        }
+
+        PreparedStatement statement = byQuery.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = physicalConnection.prepareStatement(sql);
+            byQuery.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /** The connections that have statements cached. */
+    int connections() {
+        return statements.size();
+    }
+
+    private static boolean isClosed(Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+}
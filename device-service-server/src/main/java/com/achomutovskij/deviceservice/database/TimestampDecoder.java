@@ -0,0 +1,77 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Decodes the epoch milliseconds stored in the database into date-times of the service's zone. The zone offset is
+ * resolved once for the whole period between two transitions of the zone's rules and reused for every timestamp
+ * inside it, instead of searching the rules through an intermediate {@link Instant} per decoded column.
+ */
+final class TimestampDecoder {
+
+    private final ZoneRules rules;
+    private volatile OffsetPeriod period;
+
+    TimestampDecoder(ZoneId zone) {
+        this.rules = zone.getRules();
+        this.period = periodOf(System.currentTimeMillis());
+    }
+
+    OffsetDateTime decode(long epochMillis) {
+        OffsetPeriod current = period;
+        if (!current.contains(epochMillis)) {
+            current = periodOf(epochMillis);
+            period = current;
+        }
+        ZoneOffset offset = current.offset();
+        LocalDateTime localDateTime = LocalDateTime.ofEpochSecond(
+                Math.floorDiv(epochMillis, 1000), (int) Math.floorMod(epochMillis, 1000) * 1_000_000, offset);
+        return OffsetDateTime.of(localDateTime, offset);
+    }
+
+    private OffsetPeriod periodOf(long epochMillis) {
+        Instant instant = Instant.ofEpochMilli(epochMillis);
+        ZoneOffset offset = rules.getOffset(instant);
+        ZoneOffsetTransition previous = rules.previousTransition(instant);
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+
+        long fromMillis;
+        if (previous == null) {
+            fromMillis = Long.MIN_VALUE;
+        } else if (previous.getOffsetAfter().equals(offset)) {
+            fromMillis = previous.toEpochSecond() * 1000;
+        } else { // exactly on a transition
+            fromMillis = epochMillis;
+        }
+        long untilMillis = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000;
+        return new OffsetPeriod(offset, fromMillis, untilMillis);
+    }
+
+    private record OffsetPeriod(ZoneOffset offset, long fromMillis, long untilMillis) {
+        boolean contains(long epochMillis) {
+            return epochMillis >= fromMillis && epochMillis < untilMillis;
+        }
+    }
+}
@@ -16,26 +16,139 @@
 
 package com.achomutovskij.deviceservice.gsm;
 
+import com.achomutovskij.deviceservice.memory.MemoryFootprint;
+import com.achomutovskij.deviceservice.memory.MemorySizes;
+import com.achomutovskij.deviceservice.server.MetricsRegistry;
+import com.achomutovskij.deviceservice.server.RequestTimings;
 import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvValidationException;
 import com.palantir.conjure.java.api.errors.ErrorType;
 import com.palantir.conjure.java.api.errors.ServiceException;
 import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public final class GsmArenaDataProvider {
 
-    private final Map<String, GsmNetworkDetails> dataMap;
+    private static final SafeLogger log = SafeLoggerFactory.get(GsmArenaDataProvider.class);
 
-    public GsmArenaDataProvider(String csvPath) {
-        Preconditions.checkNotNull(csvPath, "Path needs to be non-null");
-        this.dataMap = readData(csvPath);
+    private final String csvPath;
+    private final CompletableFuture<Duration> loadDuration;
+    private final ExecutorService reloadExecutor;
+    private final LongAdder reloads;
+    private final LongAdder reloadFailures;
+    private final AtomicLong lastLoadMillis = new AtomicLong();
+    // replaced as a whole by a reload, so a lookup sees either the old or the new dataset and never waits for a reload
+    private volatile CompletableFuture<Map<String, GsmNetworkDetails>> dataMap;
+    private volatile boolean ready;
+
+    // guarded by this
+    private CompletableFuture<Reload> reloadInProgress;
+
+    /**
+     * Parses the dataset on the given executor instead of the caller's thread. Lookups made before it is parsed wait
+     * for it, and {@link #isReady()} reports whether it is done. If the dataset fails to load, lookups find nothing,
+     * the node stays not ready and {@link #loaded()} fails, until a {@link #reload()} succeeds.
+     */
+    public GsmArenaDataProvider(String csvPath, Executor loadExecutor, MetricsRegistry metricsRegistry) {
+        this.csvPath = Preconditions.checkNotNull(csvPath, "Path needs to be non-null");
+        Preconditions.checkNotNull(metricsRegistry, "Metrics registry must be non-null");
+        // before the load starts, it may complete on this thread
+        this.reloads = metricsRegistry.counter("gsmArena.reloads");
+        this.reloadFailures = metricsRegistry.counter("gsmArena.reloadFailures");
+        LongAdder loadFailures = metricsRegistry.counter("gsmArena.loadFailures");
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<Map<String, GsmNetworkDetails>> load =
+                CompletableFuture.supplyAsync(() -> readData(csvPath), loadExecutor);
+        this.dataMap = load.handle((data, throwable) -> {
+            if (throwable != null) {
+                loadFailures.increment();
+                log.error(
+                        "Failed to load the GSM Arena dataset, lookups find nothing until it is reloaded", throwable);
+                return Map.of();
+            }
+            ready = true;
+            log.info("Loaded {} devices from the GSM Arena dataset", SafeArg.of("devices", data.size()));
+            return data;
+        });
+        // fails with the load, once the lookups have been switched over to the empty dataset
+        this.loadDuration = dataMap.thenCombine(load, (_data, _loaded) -> {
+            Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+            lastLoadMillis.set(duration.toMillis());
+            return duration;
+        });
+        this.reloadInProgress = CompletableFuture.completedFuture(new Reload(0, Duration.ZERO));
+        this.reloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gsm-arena-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        metricsRegistry.gauge("gsmArena.lastLoadMillis", lastLoadMillis::get);
+        metricsRegistry.gauge("gsmArena.devices", () -> dataMap.getNow(Map.of()).size());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** Completes with the time it took to load the dataset once it has been loaded, or fails if it failed to load. */
+    public CompletableFuture<Duration> loaded() {
+        return loadDuration;
+    }
+
+    /**
+     * Re-reads the dataset on a background thread and swaps it in once it is fully parsed. Lookups keep using the
+     * current dataset until then, and keep it if the reload fails. A reload requested while one is running joins it.
+     */
+    public synchronized CompletableFuture<Reload> reload() {
+        if (!reloadInProgress.isDone()) {
+            return reloadInProgress;
+        }
+
+        long startNanos = System.nanoTime();
+        reloadInProgress = CompletableFuture.supplyAsync(() -> readData(csvPath), reloadExecutor)
+                .handle((data, throwable) -> {
+                    if (throwable != null) {
+                        reloadFailures.increment();
+                        log.error("Failed to reload the GSM Arena dataset, keeping the current one", throwable);
+                        throw new ServiceException(ErrorType.INTERNAL, throwable);
+                    }
+                    dataMap = CompletableFuture.completedFuture(data);
+                    ready = true;
+                    Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+                    lastLoadMillis.set(duration.toMillis());
+                    reloads.increment();
+                    log.info(
+                            "Reloaded {} devices from the GSM Arena dataset in {} ms",
+                            SafeArg.of("devices", data.size()),
+                            SafeArg.of("reloadMillis", duration.toMillis()));
+                    return new Reload(data.size(), duration);
+                });
+        return reloadInProgress;
+    }
+
+    public void stop() {
+        reloadExecutor.shutdownNow();
     }
 
     private static Map<String, GsmNetworkDetails> readData(String csvPath) {
@@ -54,16 +167,36 @@ public final class GsmArenaDataProvider {
                     throw new ServiceException(ErrorType.INTERNAL, ex);
                 }
 
-                dataMap.put(nextLine[0], new GsmNetworkDetails(nextLine[1], nextLine[2], nextLine[4], nextLine[6]));
+                dataMap.put(
+                        nextLine[0], GsmNetworkDetails.interned(nextLine[1], nextLine[2], nextLine[4], nextLine[6]));
             }
         } catch (IOException ex) {
             throw new ServiceException(ErrorType.INTERNAL, ex);
         }
 
-        return dataMap;
+        // a flat array of keys and values instead of a node per entry, the dataset is only read once loaded
+        return Map.copyOf(dataMap);
+    }
+
+    /** The devices of the current dataset and the heap they retain, nothing while it is still loading. */
+    public MemoryFootprint footprint() {
+        Map<String, GsmNetworkDetails> data = dataMap.getNow(Map.of());
+        Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        long bytes = MemorySizes.immutableMap(data.size());
+        for (Map.Entry<String, GsmNetworkDetails> entry : data.entrySet()) {
+            bytes += MemorySizes.string(entry.getKey()) + entry.getValue().approximateBytes(counted);
+        }
+        return new MemoryFootprint(data.size(), bytes);
     }
 
     public Optional<GsmNetworkDetails> lookupDevice(String deviceName) {
-        return Optional.ofNullable(dataMap.get(deviceName));
+        long startNanos = System.nanoTime();
+        try {
+            return Optional.ofNullable(dataMap.join().get(deviceName));
+        } finally {
+            RequestTimings.record(RequestTimings.Phase.GSM_ARENA, System.nanoTime() - startNanos);
+        }
     }
+
+    public record Reload(int devices, Duration duration) {}
 }
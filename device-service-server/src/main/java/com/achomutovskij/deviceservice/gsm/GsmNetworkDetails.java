@@ -16,4 +16,45 @@
 
 package com.achomutovskij.deviceservice.gsm;
 
-public record GsmNetworkDetails(String technology, String twoGBands, String threeGBands, String fourGBands) {}
+import com.achomutovskij.deviceservice.memory.MemorySizes;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.List;
+import java.util.Set;
+
+public record GsmNetworkDetails(String technology, String twoGBands, String threeGBands, String fourGBands) {
+
+    // weak, so that the strings and details of a reloaded dataset or an evicted lookup can still be collected
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+    private static final Interner<GsmNetworkDetails> DETAILS = Interners.newWeakInterner();
+
+    /**
+     * Returns the one shared instance with these details. The technology and band strings repeat across thousands of
+     * models, so the dataset and the Rapid API cache keep a single copy of each string and of each combination.
+     */
+    public static GsmNetworkDetails interned(
+            String technology, String twoGBands, String threeGBands, String fourGBands) {
+        return DETAILS.intern(new GsmNetworkDetails(
+                STRINGS.intern(technology),
+                STRINGS.intern(twoGBands),
+                STRINGS.intern(threeGBands),
+                STRINGS.intern(fourGBands)));
+    }
+
+    /**
+     * Estimates the bytes of these details and of their strings, counting only the objects that are not in the given
+     * identity set yet and adding them to it, so that the shared ones are counted once.
+     */
+    long approximateBytes(Set<Object> counted) {
+        if (!counted.add(this)) {
+            return 0;
+        }
+        long bytes = MemorySizes.object(4, 0);
+        for (String value : List.of(technology, twoGBands, threeGBands, fourGBands)) {
+            if (counted.add(value)) {
+                bytes += MemorySizes.string(value);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import com.palantir.logsafe.Preconditions;
+import java.util.Optional;
+
+/** Looks up the network details of a device, preferring the Rapid API over the bundled GSM Arena dataset. */
+public final class GsmNetworkDetailsLookup {
+
+    private final Optional<RapidApiClient> rapidApiClientOptional;
+    private final GsmArenaDataProvider gsmArenaDataProvider;
+
+    public GsmNetworkDetailsLookup(
+            Optional<RapidApiClient> rapidApiClientOptional, GsmArenaDataProvider gsmArenaDataProvider) {
+        this.rapidApiClientOptional = rapidApiClientOptional;
+        this.gsmArenaDataProvider =
+                Preconditions.checkNotNull(gsmArenaDataProvider, "GSM Arena Data Provider must be non-null");
+    }
+
+    public Optional<GsmNetworkDetails> lookup(String deviceName) {
+        if (rapidApiClientOptional.isPresent()) {
+            Optional<GsmNetworkDetails> gsmNetworkDetailsFromRapidApiOptional =
+                    rapidApiClientOptional.get().lookup(deviceName);
+            if (gsmNetworkDetailsFromRapidApiOptional.isPresent()) {
+                return gsmNetworkDetailsFromRapidApiOptional;
+            }
+        }
+
+        return gsmArenaDataProvider.lookupDevice(deviceName);
+    }
+}
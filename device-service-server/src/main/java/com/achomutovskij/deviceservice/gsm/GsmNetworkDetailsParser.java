@@ -0,0 +1,88 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Optional;
+
+/**
+ * Pulls the {@code gsmNetworkDetails} of a Rapid API specification response straight off the response stream. Nothing
+ * else of the body is materialized: the other fields are skipped and reading stops once the details are found. The
+ * parser is stateless, so one instance serves all the calls.
+ */
+final class GsmNetworkDetailsParser {
+
+    private static final String GSM_NETWORK_DETAILS = "gsmNetworkDetails";
+
+    /**
+     * Returns the details, or empty if the body has none.
+     *
+     * @throws IOException if the body cannot be read or is not valid JSON
+     * @throws IllegalStateException if a detail is not a JSON primitive
+     */
+    Optional<GsmNetworkDetails> parse(Reader body) throws IOException {
+        try (JsonReader reader = new JsonReader(body)) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return Optional.empty();
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(GSM_NETWORK_DETAILS) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    return Optional.of(readDetails(reader));
+                }
+                reader.skipValue();
+            }
+            return Optional.empty();
+        }
+    }
+
+    private static GsmNetworkDetails readDetails(JsonReader reader) throws IOException {
+        String technology = "";
+        String twoGBands = "";
+        String threeGBands = "";
+        String fourGBands = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "networkTechnology" -> technology = readString(reader);
+                case "network2GBands" -> twoGBands = readString(reader);
+                case "network3GBands" -> threeGBands = readString(reader);
+                case "network4GBands" -> fourGBands = readString(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return GsmNetworkDetails.interned(technology, twoGBands, threeGBands, fourGBands);
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return "";
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(reader.nextBoolean());
+        }
+        return reader.nextString();
+    }
+}
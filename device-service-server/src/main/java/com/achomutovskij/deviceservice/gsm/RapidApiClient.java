@@ -16,16 +16,24 @@
 
 package com.achomutovskij.deviceservice.gsm;
 
+import com.achomutovskij.deviceservice.memory.MemoryFootprint;
+import com.achomutovskij.deviceservice.memory.MemorySizes;
+import com.achomutovskij.deviceservice.server.RequestTimings;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
 import com.palantir.logsafe.logger.SafeLogger;
 import com.palantir.logsafe.logger.SafeLoggerFactory;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -36,71 +44,153 @@ public final class RapidApiClient {
 
     private static final SafeLogger log = SafeLoggerFactory.get(RapidApiClient.class);
 
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+    public static final HttpUrl DEFAULT_BASE_URL = HttpUrl.get("https://mobile-phone-specs-database.p.rapidapi.com/");
+    public static final int DEFAULT_MAX_CACHED_NAMES = 1_000;
+
+    private static final GsmNetworkDetailsParser PARSER = new GsmNetworkDetailsParser();
+    // cached for the names Rapid API has no details for, instead of an Optional wrapping every cached value
+    private static final GsmNetworkDetails NO_DETAILS = new GsmNetworkDetails("", "", "", "");
+    // Caffeine's node, and the node and table slot of the ConcurrentHashMap holding it
+    private static final long CACHE_ENTRY_BYTES =
+            MemorySizes.object(5, 4) + MemorySizes.object(3, 1) + MemorySizes.REFERENCE_BYTES;
+
     private final OkHttpClient okHttpClient;
+    private final HttpUrl baseUrl;
     private final String rapidApiKey;
-    private final LoadingCache<String, Optional<GsmNetworkDetails>> deviceToApiLookupResultCache;
+    private final Semaphore inFlightRequests;
+    private final LoadingCache<String, GsmNetworkDetails> deviceToApiLookupResultCache;
 
     public RapidApiClient(OkHttpClient okHttpClient, String rapidApiKey) {
+        this(okHttpClient, rapidApiKey, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    public RapidApiClient(OkHttpClient okHttpClient, String rapidApiKey, int maxConcurrentRequests) {
+        this(okHttpClient, rapidApiKey, maxConcurrentRequests, DEFAULT_BASE_URL);
+    }
+
+    /**
+     * Synchronous OkHttp calls bypass the dispatcher limits, so the semaphore is what keeps a burst of cache misses
+     * (e.g. one per virtual thread) from opening an unbounded number of connections to Rapid API.
+     */
+    public RapidApiClient(OkHttpClient okHttpClient, String rapidApiKey, int maxConcurrentRequests, HttpUrl baseUrl) {
+        this(okHttpClient, rapidApiKey, maxConcurrentRequests, baseUrl, OptionalLong.empty());
+    }
+
+    /**
+     * With a cache budget, the least recently used specs are evicted once the cached entries weigh more than it. An
+     * entry is weighed as if none of its strings were shared, so the cache stays within the budget either way. Without
+     * one, the specs of at most {@link #DEFAULT_MAX_CACHED_NAMES} device names are kept.
+     */
+    public RapidApiClient(
+            OkHttpClient okHttpClient,
+            String rapidApiKey,
+            int maxConcurrentRequests,
+            HttpUrl baseUrl,
+            OptionalLong maxCacheBytes) {
+        Preconditions.checkArgument(
+                maxConcurrentRequests > 0,
+                "Max concurrent requests must be positive",
+                SafeArg.of("maxConcurrentRequests", maxConcurrentRequests));
         this.okHttpClient = Preconditions.checkNotNull(okHttpClient, "OkHttpClient needs to be non-null");
+        this.baseUrl = Preconditions.checkNotNull(baseUrl, "Base URL must be non-null");
         this.rapidApiKey = Preconditions.checkNotNull(rapidApiKey, "API key must be non-null");
-        this.deviceToApiLookupResultCache =
-                Caffeine.newBuilder().maximumSize(1_000).build(this::performNetworkRequest);
+        this.inFlightRequests = new Semaphore(maxConcurrentRequests, true);
+        Preconditions.checkNotNull(maxCacheBytes, "Max cache bytes must be non-null");
+        this.deviceToApiLookupResultCache = maxCacheBytes.isPresent()
+                ? Caffeine.newBuilder()
+                        .maximumWeight(maxCacheBytes.getAsLong())
+                        .<String, GsmNetworkDetails>weigher(RapidApiClient::weigh)
+                        .build(this::performNetworkRequest)
+                : Caffeine.newBuilder().maximumSize(DEFAULT_MAX_CACHED_NAMES).build(this::performNetworkRequest);
     }
 
+    @SuppressWarnings("ReferenceEquality") // the sentinel, not details that happen to be empty
     public Optional<GsmNetworkDetails> lookup(String deviceName) {
-        return deviceToApiLookupResultCache.get(deviceName);
+        GsmNetworkDetails details = deviceToApiLookupResultCache.get(deviceName);
+        return details == null || details == NO_DETAILS ? Optional.empty() : Optional.of(details);
     }
 
-    private Optional<GsmNetworkDetails> performNetworkRequest(String deviceName) {
+    public boolean isCached(String deviceName) {
+        return deviceToApiLookupResultCache.getIfPresent(deviceName) != null;
+    }
+
+    /** The cached device names and the heap they and their specs retain. */
+    public MemoryFootprint footprint() {
+        Map<String, GsmNetworkDetails> entries = deviceToApiLookupResultCache.asMap();
+        Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        counted.add(NO_DETAILS);
+        long bytes = 0;
+        int cachedNames = 0;
+        for (Map.Entry<String, GsmNetworkDetails> entry : entries.entrySet()) {
+            bytes += CACHE_ENTRY_BYTES
+                    + MemorySizes.string(entry.getKey())
+                    + entry.getValue().approximateBytes(counted);
+            cachedNames++;
+        }
+        return new MemoryFootprint(cachedNames, bytes);
+    }
+
+    private static int weigh(String deviceName, GsmNetworkDetails details) {
+        long bytes = CACHE_ENTRY_BYTES
+                + MemorySizes.string(deviceName)
+                + details.approximateBytes(Collections.newSetFromMap(new IdentityHashMap<>()));
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns null, which the cache does not keep, when the call failed or was throttled, so that the next lookup of the
+     * device tries again instead of the failure being cached as a device without details.
+     */
+    private GsmNetworkDetails performNetworkRequest(String deviceName) {
 
         String[] words = deviceName.split("\\s+", 2); // split the string at the first whitespace
         if (words.length < 2) {
-            return Optional.empty();
+            return NO_DETAILS;
         }
         String brand = words[0];
         String model = words[1];
-        String encodedModel = model.replace(" ", "%20");
 
-        String url = String.format(
-                "https://mobile-phone-specs-database.p.rapidapi"
-                        + ".com/gsm/get-specifications-by-brandname-modelname/%s/%s",
-                brand, encodedModel);
+        HttpUrl url = baseUrl.newBuilder()
+                .addPathSegments("gsm/get-specifications-by-brandname-modelname")
+                .addPathSegment(brand)
+                .addPathSegment(model)
+                .build();
 
         Request request = new Request.Builder()
                 .url(url)
                 .get()
                 .addHeader("X-RapidAPI-Key", rapidApiKey)
-                .addHeader("X-RapidAPI-Host", "mobile-phone-specs-database.p.rapidapi.com")
+                .addHeader("X-RapidAPI-Host", baseUrl.host())
                 .build();
 
+        long queuedAtNanos = System.nanoTime();
+        inFlightRequests.acquireUninterruptibly();
+        long startNanos = System.nanoTime();
+        RequestTimings.record(RequestTimings.Phase.RAPID_API_QUEUE, startNanos - queuedAtNanos);
         try (Response response = okHttpClient.newCall(request).execute()) {
             ResponseBody responseBody = response.body();
 
-            if (responseBody == null) {
-                return Optional.empty();
+            if (response.code() == 404 || responseBody == null) {
+                return NO_DETAILS;
+            }
+            if (!response.isSuccessful()) {
+                log.warn(
+                        "Rapid API lookup failed, it will be retried on the next lookup",
+                        SafeArg.of("statusCode", response.code()));
+                return null;
             }
 
-            String json = responseBody.string();
-            Gson gson = new Gson();
-            JsonObject jsonObject = gson.fromJson(json, JsonObject.class);
-
-            Optional<JsonObject> gsmNetworkDetailsOptional =
-                    Optional.ofNullable(jsonObject.get("gsmNetworkDetails")).map(JsonElement::getAsJsonObject);
-
-            return gsmNetworkDetailsOptional.map(gsmNetworkDetails -> new GsmNetworkDetails(
-                    getStringWithKey(gsmNetworkDetails, "networkTechnology"),
-                    getStringWithKey(gsmNetworkDetails, "network2GBands"),
-                    getStringWithKey(gsmNetworkDetails, "network3GBands"),
-                    getStringWithKey(gsmNetworkDetails, "network4GBands")));
-        } catch (IOException | RuntimeException e) {
-            log.error("Failed to get or parse the response from Rapid API", e);
-            return Optional.empty();
+            return PARSER.parse(responseBody.charStream()).orElse(NO_DETAILS);
+        } catch (IOException e) {
+            log.error("Failed to get the response from Rapid API", e);
+            return null;
+        } catch (RuntimeException e) {
+            log.error("Failed to parse the response from Rapid API", e);
+            return NO_DETAILS;
+        } finally {
+            inFlightRequests.release();
+            RequestTimings.record(RequestTimings.Phase.RAPID_API, System.nanoTime() - startNanos);
         }
     }
-
-    private static String getStringWithKey(JsonObject gsmNetworkDetails, String key) {
-        return Optional.ofNullable(gsmNetworkDetails.get(key))
-                .map(JsonElement::getAsString)
-                .orElse("");
-    }
 }
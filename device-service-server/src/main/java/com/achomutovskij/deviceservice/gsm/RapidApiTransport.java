@@ -0,0 +1,75 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * How the service talks HTTP to Rapid API. All the lookups share the one client built from it, and with it one
+ * connection pool, so a warm connection is reused across lookups instead of paying for a new TLS handshake.
+ *
+ * @param http2 whether HTTP/2 is offered during the TLS handshake, which multiplexes the lookups over one connection
+ */
+public record RapidApiTransport(
+        Duration connectTimeout,
+        Duration readTimeout,
+        Duration callTimeout,
+        int maxIdleConnections,
+        Duration keepAlive,
+        int maxRequestsPerHost,
+        boolean http2) {
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_CALL_TIMEOUT = Duration.ofSeconds(20);
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = RapidApiClient.DEFAULT_MAX_CONCURRENT_REQUESTS;
+    public static final Duration DEFAULT_KEEP_ALIVE = Duration.ofMinutes(5);
+
+    public RapidApiTransport {
+        Preconditions.checkArgument(
+                maxIdleConnections > 0,
+                "Max idle connections must be positive",
+                SafeArg.of("maxIdleConnections", maxIdleConnections));
+        Preconditions.checkArgument(
+                maxRequestsPerHost > 0,
+                "Max requests per host must be positive",
+                SafeArg.of("maxRequestsPerHost", maxRequestsPerHost));
+    }
+
+    public OkHttpClient newHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        dispatcher.setMaxRequests(Math.max(maxRequestsPerHost, dispatcher.getMaxRequests()));
+
+        return new OkHttpClient.Builder()
+                .connectTimeout(connectTimeout)
+                .readTimeout(readTimeout)
+                .callTimeout(callTimeout)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(http2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .build();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import com.achomutovskij.deviceservice.api.SpecCacheWarmUpProgress;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the {@link RapidApiClient} cache warm for the registered devices, so that user-facing reads do not pay for
+ * cold lookups after a restart. On start and then periodically it re-reads the registered device names and queues the
+ * uncached ones, which are then prefetched one at a time at a fixed rate to stay within the Rapid API quota.
+ */
+public final class SpecCacheWarmer {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(SpecCacheWarmer.class);
+
+    public static final int DEFAULT_REQUESTS_PER_MINUTE = 30;
+    public static final int DEFAULT_REFRESH_INTERVAL_MINUTES = 60;
+
+    private final RapidApiClient rapidApiClient;
+    private final Supplier<List<String>> registeredDeviceNames;
+    private final Duration prefetchInterval;
+    private final Duration refreshInterval;
+    private final ScheduledExecutorService scheduler;
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    // guarded by this
+    private final Set<String> pending = new LinkedHashSet<>();
+    private List<String> lastRefreshNames = List.of();
+    private Optional<OffsetDateTime> lastRefreshTime = Optional.empty();
+
+    public SpecCacheWarmer(
+            RapidApiClient rapidApiClient,
+            Supplier<List<String>> registeredDeviceNames,
+            int requestsPerMinute,
+            Duration refreshInterval) {
+        Preconditions.checkArgument(
+                requestsPerMinute > 0,
+                "Requests per minute must be positive",
+                SafeArg.of("requestsPerMinute", requestsPerMinute));
+        this.rapidApiClient = Preconditions.checkNotNull(rapidApiClient, "Rapid API client must be non-null");
+        this.registeredDeviceNames =
+                Preconditions.checkNotNull(registeredDeviceNames, "Device names supplier must be non-null");
+        this.prefetchInterval = Duration.ofMinutes(1).dividedBy(requestsPerMinute);
+        this.refreshInterval = Preconditions.checkNotNull(refreshInterval, "Refresh interval must be non-null");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "spec-cache-warmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void start() {
+        tasks.add(scheduler.scheduleWithFixedDelay(
+                this::refresh, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS));
+        tasks.add(scheduler.scheduleWithFixedDelay(
+                this::prefetchNext, prefetchInterval.toMillis(), prefetchInterval.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    public synchronized void stop() {
+        tasks.forEach(task -> task.cancel(true));
+        scheduler.shutdownNow();
+    }
+
+    public synchronized SpecCacheWarmUpProgress progress() {
+        int warmed = (int) lastRefreshNames.stream().filter(rapidApiClient::isCached).count();
+        return SpecCacheWarmUpProgress.builder()
+                .enabled(true)
+                .registeredDeviceNames(lastRefreshNames.size())
+                .warmed(warmed)
+                .pending(pending.size())
+                .lastRefreshTime(lastRefreshTime)
+                .build();
+    }
+
+    private void refresh() {
+        try {
+            List<String> names = registeredDeviceNames.get();
+            synchronized (this) {
+                lastRefreshNames = names;
+                lastRefreshTime = Optional.of(OffsetDateTime.now(ZoneOffset.UTC));
+                for (String name : names) {
+                    if (!rapidApiClient.isCached(name)) {
+                        pending.add(name);
+                    }
+                }
+                log.info(
+                        "Queued uncached device specs for warm-up",
+                        SafeArg.of("registeredDeviceNames", names.size()),
+                        SafeArg.of("pending", pending.size()));
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the scheduled task, retry on the next refresh instead
+            log.error("Failed to read the registered device names for the warm-up", e);
+        }
+    }
+
+    private void prefetchNext() {
+        Optional<String> next = pollPending();
+        try {
+            next.filter(name -> !rapidApiClient.isCached(name)).ifPresent(rapidApiClient::lookup);
+        } catch (RuntimeException e) {
+            log.warn("Failed to prefetch the device specs", e);
+        }
+    }
+
+    private synchronized Optional<String> pollPending() {
+        Iterator<String> iterator = pending.iterator();
+        if (!iterator.hasNext()) {
+            return Optional.empty();
+        }
+        String next = iterator.next();
+        iterator.remove();
+        return Optional.of(next);
+    }
+}
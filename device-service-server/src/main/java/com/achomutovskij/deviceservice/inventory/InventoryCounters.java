@@ -0,0 +1,182 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.inventory;
+
+import com.achomutovskij.deviceservice.api.DeviceHolderStatistics;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.api.InventoryStatistics;
+import com.achomutovskij.deviceservice.api.ModelStatistics;
+import com.achomutovskij.deviceservice.database.DeviceChangeListener;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Inventory counters kept up to date from the changes to the devices table, so that the statistics are reported
+ * without reading the table: the work is proportional to the number of models and holders, not devices.
+ */
+public final class InventoryCounters implements DeviceChangeListener {
+
+    public static final int TOP_HOLDERS = 10;
+
+    // guarded by this
+    private final Map<Integer, Device> devicesById = new HashMap<>();
+    private final Map<String, ModelCounts> modelsByName = new TreeMap<>();
+    private final Map<String, Integer> bookedByPerson = new HashMap<>();
+    private int availableDevices;
+
+    public synchronized InventoryStatistics statistics() {
+        int totalDevices = devicesById.size();
+        int bookedDevices = totalDevices - availableDevices;
+
+        List<ModelStatistics> models = modelsByName.entrySet().stream()
+                .map(entry -> ModelStatistics.of(entry.getKey(), entry.getValue().total, entry.getValue().available))
+                .collect(Collectors.toList());
+        List<DeviceHolderStatistics> topHolders = bookedByPerson.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder())
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(TOP_HOLDERS)
+                .map(entry -> DeviceHolderStatistics.of(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+
+        return InventoryStatistics.builder()
+                .totalDevices(totalDevices)
+                .availableDevices(availableDevices)
+                .bookedDevices(bookedDevices)
+                .utilization(totalDevices == 0 ? 0 : (double) bookedDevices / totalDevices)
+                .models(models)
+                .topHolders(topHolders)
+                .build();
+    }
+
+    @Override
+    public synchronized void initialize(List<DeviceInfo> devices) {
+        clear();
+        for (DeviceInfo device : devices) {
+            add(device.getId(), device.getName());
+            if (!device.getAvailable()) {
+                book(devicesById.get(device.getId()), device.getLastBookedPersonName());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void deviceRegistered(int deviceId, String deviceName) {
+        add(deviceId, deviceName);
+    }
+
+    @Override
+    public synchronized void deviceBooked(int deviceId, String person) {
+        Device device = devicesById.get(deviceId);
+        if (device != null) {
+            book(device, Optional.of(person));
+        }
+    }
+
+    @Override
+    public synchronized void deviceReleased(int deviceId) {
+        Device device = devicesById.get(deviceId);
+        if (device != null) {
+            release(device);
+        }
+    }
+
+    @Override
+    public synchronized void deviceDeleted(int deviceId) {
+        Device device = devicesById.remove(deviceId);
+        if (device == null) {
+            return;
+        }
+        release(device);
+        availableDevices--;
+
+        ModelCounts model = modelsByName.get(device.name);
+        model.total--;
+        model.available--;
+        if (model.total == 0) {
+            modelsByName.remove(device.name);
+        }
+    }
+
+    @Override
+    public synchronized void allDevicesDeleted() {
+        clear();
+    }
+
+    private void add(int deviceId, String deviceName) {
+        devicesById.put(deviceId, new Device(deviceName));
+        ModelCounts model = modelsByName.computeIfAbsent(deviceName, _name -> new ModelCounts());
+        model.total++;
+        model.available++;
+        availableDevices++;
+    }
+
+    /** Also used when a booked device is handed straight to the next holder. */
+    private void book(Device device, Optional<String> person) {
+        if (device.booked) {
+            removeHolder(device);
+        } else {
+            device.booked = true;
+            modelsByName.get(device.name).available--;
+            availableDevices--;
+        }
+        device.holder = person;
+        person.ifPresent(holder -> bookedByPerson.merge(holder, 1, Integer::sum));
+    }
+
+    private void release(Device device) {
+        if (!device.booked) {
+            return;
+        }
+        removeHolder(device);
+        device.booked = false;
+        device.holder = Optional.empty();
+        modelsByName.get(device.name).available++;
+        availableDevices++;
+    }
+
+    private void removeHolder(Device device) {
+        device.holder.ifPresent(holder ->
+                bookedByPerson.computeIfPresent(holder, (_holder, count) -> count == 1 ? null : count - 1));
+    }
+
+    private void clear() {
+        devicesById.clear();
+        modelsByName.clear();
+        bookedByPerson.clear();
+        availableDevices = 0;
+    }
+
+    private static final class Device {
+        private final String name;
+        private boolean booked;
+        private Optional<String> holder = Optional.empty();
+
+        private Device(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class ModelCounts {
+        private int total;
+        private int available;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.memory;
+
+import com.achomutovskij.deviceservice.api.MemoryReport;
+import com.achomutovskij.deviceservice.api.MemoryUsage;
+import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Collects the footprints of the caches and indexes that register with it, each against an optional budget. The
+ * footprints are computed when a report is asked for, by walking the entries, so a report costs time proportional to
+ * the size of the components and is meant for the management API rather than for frequent polling.
+ */
+public final class MemoryAccounting {
+
+    private final Map<String, Component> components = new ConcurrentSkipListMap<>();
+
+    public void register(String component, Supplier<MemoryFootprint> footprint, OptionalLong budgetBytes) {
+        Preconditions.checkNotNull(footprint, "Footprint must be non-null");
+        Preconditions.checkNotNull(budgetBytes, "Budget must be non-null");
+        Component previous = components.putIfAbsent(component, new Component(footprint, budgetBytes));
+        Preconditions.checkArgument(
+                previous == null, "Component is already registered", SafeArg.of("component", component));
+    }
+
+    public MemoryReport report() {
+        List<MemoryUsage> usages = components.entrySet().stream()
+                .map(entry -> usage(entry.getKey(), entry.getValue()))
+                .toList();
+        Runtime runtime = Runtime.getRuntime();
+        return MemoryReport.builder()
+                .components(usages)
+                .heapUsedBytes(SafeLong.of(runtime.totalMemory() - runtime.freeMemory()))
+                .heapCommittedBytes(SafeLong.of(runtime.totalMemory()))
+                .heapMaxBytes(SafeLong.of(runtime.maxMemory()))
+                .build();
+    }
+
+    private static MemoryUsage usage(String component, Component registered) {
+        MemoryFootprint footprint = registered.footprint().get();
+        OptionalLong budgetBytes = registered.budgetBytes();
+        return MemoryUsage.builder()
+                .component(component)
+                .entries(SafeLong.of(footprint.entries()))
+                .approximateBytes(SafeLong.of(footprint.approximateBytes()))
+                .budgetBytes(budgetBytes.stream().mapToObj(SafeLong::of).findFirst())
+                .overBudget(budgetBytes.isPresent() && footprint.approximateBytes() > budgetBytes.getAsLong())
+                .build();
+    }
+
+    private record Component(Supplier<MemoryFootprint> footprint, OptionalLong budgetBytes) {}
+}
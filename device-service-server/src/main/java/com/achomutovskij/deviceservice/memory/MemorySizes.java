@@ -0,0 +1,86 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.memory;
+
+import java.util.BitSet;
+
+/**
+ * Approximate shallow sizes of the objects the caches and indexes are made of, on a 64-bit JVM with compressed
+ * references and 8-byte alignment. They are estimates for sizing budgets, not measurements: the JVM's actual layout
+ * and the slack of the collections can differ by some percent.
+ */
+public final class MemorySizes {
+
+    public static final long OBJECT_HEADER_BYTES = 12;
+    public static final long REFERENCE_BYTES = 4;
+    public static final long ARRAY_HEADER_BYTES = 16;
+
+    /** {@link Integer}, {@link java.util.Optional} and other single-field boxes. */
+    public static final long BOX_BYTES = align(OBJECT_HEADER_BYTES + REFERENCE_BYTES);
+
+    private static final long STRING_BYTES = align(OBJECT_HEADER_BYTES + REFERENCE_BYTES + Integer.BYTES + 2);
+    private static final long HASH_MAP_BYTES =
+            align(OBJECT_HEADER_BYTES + 4 * REFERENCE_BYTES + 3 * Integer.BYTES + Float.BYTES);
+    private static final long HASH_MAP_NODE_BYTES = align(OBJECT_HEADER_BYTES + Integer.BYTES + 3 * REFERENCE_BYTES);
+    private static final long BIT_SET_BYTES = align(OBJECT_HEADER_BYTES + REFERENCE_BYTES + Integer.BYTES + 1);
+
+    private MemorySizes() {}
+
+    public static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /** An object with the given number of reference and {@code int} fields. */
+    public static long object(int references, int ints) {
+        return align(OBJECT_HEADER_BYTES + references * REFERENCE_BYTES + ints * (long) Integer.BYTES);
+    }
+
+    public static long referenceArray(int length) {
+        return align(ARRAY_HEADER_BYTES + length * REFERENCE_BYTES);
+    }
+
+    /** A string and its backing array, one byte per character when they are all Latin-1, two otherwise. */
+    public static long string(String value) {
+        boolean latin1 = value.chars().allMatch(character -> character <= 0xFF);
+        return STRING_BYTES + align(ARRAY_HEADER_BYTES + (latin1 ? 1L : 2L) * value.length());
+    }
+
+    /** A {@link java.util.HashMap} or {@link java.util.HashSet} with its table and nodes, without keys and values. */
+    public static long hashMap(int entries) {
+        if (entries == 0) {
+            return HASH_MAP_BYTES;
+        }
+        // the table is a power of two, doubled once it is three quarters full
+        int minCapacity = (int) Math.ceil(entries / 0.75);
+        int capacity = minCapacity <= 1 ? 1 : Integer.highestOneBit(minCapacity - 1) << 1;
+        return HASH_MAP_BYTES + referenceArray(capacity) + entries * HASH_MAP_NODE_BYTES;
+    }
+
+    /** A map made by {@link java.util.Map#copyOf}: one flat array probed in place, twice as long as the pairs. */
+    public static long immutableMap(int entries) {
+        return object(1, 1) + referenceArray(entries * 4);
+    }
+
+    /** A set made by {@link java.util.Set#copyOf}: one flat array probed in place, twice as long as the elements. */
+    public static long immutableSet(int elements) {
+        return object(1, 1) + referenceArray(elements * 2);
+    }
+
+    public static long bitSet(BitSet bitSet) {
+        return BIT_SET_BYTES + align(ARRAY_HEADER_BYTES + bitSet.size() / Byte.SIZE);
+    }
+}
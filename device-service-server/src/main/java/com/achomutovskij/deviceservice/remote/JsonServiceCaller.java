@@ -0,0 +1,129 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.remote;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.errors.SerializableError;
+import com.palantir.conjure.java.api.errors.ServiceException;
+import com.palantir.logsafe.Arg;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
+import java.io.IOException;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Calls a Conjure service of another node with JSON over HTTP. The errors of the other node are rethrown as this
+ * node's own, so that a caller gets the same error whichever node it calls.
+ */
+public final class JsonServiceCaller {
+
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .registerModule(new Jdk8Module())
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE); // keeps the other node's offsets
+
+    private final OkHttpClient okHttpClient;
+    private final HttpUrl serviceUrl;
+
+    /** @param serviceUrl the URL of the service on the other node, e.g. https://host-a:8345/api/v1/cluster */
+    public JsonServiceCaller(OkHttpClient okHttpClient, HttpUrl serviceUrl) {
+        this.okHttpClient = Preconditions.checkNotNull(okHttpClient, "OkHttpClient needs to be non-null");
+        this.serviceUrl = Preconditions.checkNotNull(serviceUrl, "Service URL must be non-null");
+    }
+
+    /** The URL of the endpoint at the given path below the service URL. */
+    public HttpUrl url(String pathSegments) {
+        return urlBuilder().addPathSegments(pathSegments).build();
+    }
+
+    public HttpUrl.Builder urlBuilder() {
+        return serviceUrl.newBuilder();
+    }
+
+    public <T> T call(Request.Builder request, TypeReference<T> responseType) {
+        return execute(request, body -> OBJECT_MAPPER.readValue(body.byteStream(), responseType));
+    }
+
+    public void send(Request.Builder request) {
+        execute(request, _body -> null);
+    }
+
+    public static RequestBody json(Object value) {
+        try {
+            return RequestBody.create(OBJECT_MAPPER.writeValueAsBytes(value), JSON);
+        } catch (JsonProcessingException e) {
+            throw new ServiceException(ErrorType.INTERNAL, e);
+        }
+    }
+
+    private <T> T execute(Request.Builder request, BodyReader<T> bodyReader) {
+        Request built = request.build();
+        try (Response response = okHttpClient.newCall(built).execute();
+                ResponseBody body = response.body()) {
+            if (!response.isSuccessful()) {
+                throw remoteError(response.code(), body.string());
+            }
+            return bodyReader.read(body);
+        } catch (IOException e) {
+            throw new ServiceException(ErrorType.INTERNAL, e, UnsafeArg.of("url", built.url()));
+        }
+    }
+
+    private static ServiceException remoteError(int status, String body) {
+        SerializableError error;
+        try {
+            error = OBJECT_MAPPER.readValue(body, SerializableError.class);
+        } catch (JsonProcessingException e) {
+            return new ServiceException(ErrorType.INTERNAL, e, SafeArg.of("remoteStatus", status));
+        }
+
+        ErrorType errorType;
+        try {
+            errorType = ErrorType.create(ErrorType.Code.valueOf(error.errorCode()), error.errorName());
+        } catch (IllegalArgumentException e) {
+            // e.g. the built-in errors, whose namespace is reserved
+            errorType = ErrorType.INTERNAL;
+        }
+        // the errors of this service only have safe args
+        Arg<?>[] args = error.parameters().entrySet().stream()
+                .map(parameter -> SafeArg.of(parameter.getKey(), parameter.getValue()))
+                .toArray(Arg<?>[]::new);
+        return new ServiceException(errorType, args);
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(ResponseBody body) throws IOException;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.replication;
+
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.database.DeviceChangeListener;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The ordered log of the devices changed on this node, tailed by the followers. Only the id of a changed device is
+ * kept, in a ring of the latest changes: the followers read the device's current state when they fetch the change, so
+ * a log entry is an int however the device changed. A follower that falls further behind than the ring starts over
+ * from a snapshot.
+ */
+public final class ChangeLog implements DeviceChangeListener {
+
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    /** The device id of the entry logged when all the devices are deleted. */
+    public static final int ALL_DEVICES = -1;
+
+    private final UUID id = UUID.randomUUID();
+    private final int[] deviceIds;
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "change-log-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // guarded by this
+    private long lastSequence;
+    // completed by the next append, swapped for a new one each time
+    private SettableFuture<Boolean> nextChange = SettableFuture.create();
+
+    public ChangeLog(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive", SafeArg.of("capacity", capacity));
+        this.deviceIds = new int[capacity];
+    }
+
+    /** Identifies this log: the sequences restart from zero with every new log, i.e. every restart of the node. */
+    public UUID id() {
+        return id;
+    }
+
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Returns at most the given number of changes after the given sequence, or nothing if some of them are no longer
+     * kept or the sequence is not one of this log's.
+     */
+    public synchronized Optional<Changes> since(long after, int maxChanges) {
+        if (after < lastSequence - deviceIds.length || after > lastSequence) {
+            return Optional.empty();
+        }
+
+        long until = Math.min(lastSequence, after + maxChanges);
+        List<Entry> entries = new ArrayList<>((int) (until - after));
+        for (long sequence = after + 1; sequence <= until; sequence++) {
+            entries.add(new Entry(sequence, deviceIds[slot(sequence)]));
+        }
+        return Optional.of(new Changes(entries, lastSequence));
+    }
+
+    /**
+     * Completes with true once there is a change after the given sequence, or with false once the timeout has passed
+     * without one. The future is completed on the thread that appends the change, callers should transform it on an
+     * executor of their own.
+     */
+    public ListenableFuture<Boolean> awaitChangeAfter(long after, Duration timeout) {
+        ListenableFuture<Boolean> change;
+        synchronized (this) {
+            if (lastSequence > after || timeout.isZero()) {
+                return Futures.immediateFuture(lastSequence > after);
+            }
+            // a waiter giving up must not cancel the future shared with the other waiters
+            change = Futures.nonCancellationPropagating(nextChange);
+        }
+        return Futures.catching(
+                Futures.withTimeout(change, timeout, timeouts),
+                TimeoutException.class,
+                _e -> false,
+                MoreExecutors.directExecutor());
+    }
+
+    public void stop() {
+        timeouts.shutdownNow();
+    }
+
+    @Override
+    public void initialize(List<DeviceInfo> _devices) {
+        // the followers start from a snapshot of the table, the log only needs the changes made after it
+    }
+
+    @Override
+    public void deviceRegistered(int deviceId, String _deviceName) {
+        append(deviceId);
+    }
+
+    @Override
+    public void deviceBooked(int deviceId, String _person) {
+        append(deviceId);
+    }
+
+    @Override
+    public void deviceReleased(int deviceId) {
+        append(deviceId);
+    }
+
+    @Override
+    public void leaseRenewed(int deviceId) {
+        append(deviceId);
+    }
+
+    @Override
+    public void deviceDeleted(int deviceId) {
+        append(deviceId);
+    }
+
+    @Override
+    public void allDevicesDeleted() {
+        append(ALL_DEVICES);
+    }
+
+    private void append(int deviceId) {
+        SettableFuture<Boolean> appended;
+        synchronized (this) {
+            lastSequence++;
+            deviceIds[slot(lastSequence)] = deviceId;
+            appended = nextChange;
+            nextChange = SettableFuture.create();
+        }
+        appended.set(true);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % deviceIds.length);
+    }
+
+    /** A logged change: the device with the given id, or all of them if it is {@link #ALL_DEVICES}, changed. */
+    public record Entry(long sequence, int deviceId) {}
+
+    /** @param lastSequence the latest change in the log when the entries were read */
+    public record Changes(List<Entry> entries, long lastSequence) {}
+}
@@ -0,0 +1,139 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.replication;
+
+import com.achomutovskij.deviceservice.server.RateLimitingHandler;
+import com.google.common.net.HttpHeaders;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Serves the API of a follower: the calls that change the devices are forwarded to the leader and answered with the
+ * leader's response, errors included, so that clients can make any call on a follower. Every other response says how
+ * stale the follower's copy may be.
+ */
+public final class FollowerHandler implements HttpHandler {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(FollowerHandler.class);
+
+    public static final HttpString STALENESS_HEADER = HttpString.tryFromString("X-Replica-Staleness-Millis");
+
+    private static final List<String> LEADER_PATH_PREFIXES = List.of("/v1/booking/", "/v1/management/");
+    // the headers of the call and of the response that matter to Conjure, the rest are the follower's own
+    private static final List<String> FORWARDED_REQUEST_HEADERS = List.of(HttpHeaders.ACCEPT, HttpHeaders.USER_AGENT);
+    private static final List<String> FORWARDED_RESPONSE_HEADERS =
+            List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.RETRY_AFTER);
+
+    private final HttpHandler next;
+    private final OkHttpClient leaderHttpClient;
+    private final String leaderBaseUrl;
+    private final ReplicaFollower follower;
+
+    /**
+     * @param leaderHttpClient calls the leader, with a call timeout long enough for the longest waiting booking
+     * @param leaderBaseUrl the leader's API base URL, e.g. https://leader:8345/api/
+     */
+    public FollowerHandler(
+            HttpHandler next, OkHttpClient leaderHttpClient, String leaderBaseUrl, ReplicaFollower follower) {
+        this.next = Preconditions.checkNotNull(next, "Next handler must be non-null");
+        this.leaderHttpClient = Preconditions.checkNotNull(leaderHttpClient, "Leader HTTP client must be non-null");
+        Preconditions.checkNotNull(leaderBaseUrl, "Leader base URL must be non-null");
+        this.leaderBaseUrl = leaderBaseUrl.endsWith("/") ? leaderBaseUrl : leaderBaseUrl + "/";
+        this.follower = Preconditions.checkNotNull(follower, "Follower must be non-null");
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        String path = exchange.getRelativePath();
+        if (LEADER_PATH_PREFIXES.stream().anyMatch(path::startsWith)) {
+            if (exchange.isInIoThread()) {
+                // the call to the leader blocks
+                exchange.dispatch(this);
+                return;
+            }
+            forwardToLeader(exchange, path);
+            return;
+        }
+
+        Optional<Duration> staleness = follower.staleness();
+        if (staleness.isPresent()) {
+            exchange.getResponseHeaders().put(STALENESS_HEADER, staleness.get().toMillis());
+        }
+        next.handleRequest(exchange);
+    }
+
+    private void forwardToLeader(HttpServerExchange exchange, String path) throws IOException {
+        exchange.startBlocking();
+        byte[] body = exchange.getInputStream().readAllBytes();
+        String method = exchange.getRequestMethod().toString();
+        String contentType = exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+        String query = exchange.getQueryString();
+
+        RequestBody requestBody = method.equals("GET") || method.equals("HEAD")
+                ? null
+                : RequestBody.create(body, contentType == null ? null : MediaType.parse(contentType));
+        Request.Builder request = new Request.Builder()
+                .url(leaderBaseUrl + path.substring(1) + (query.isEmpty() ? "" : "?" + query))
+                .method(method, requestBody);
+        for (String header : FORWARDED_REQUEST_HEADERS) {
+            String value = exchange.getRequestHeaders().getFirst(header);
+            if (value != null) {
+                request.header(header, value);
+            }
+        }
+        // the leader limits the caller rather than the follower when it lists the follower as a trusted proxy
+        InetSocketAddress source = exchange.getSourceAddress();
+        if (source != null) {
+            request.header(RateLimitingHandler.DEFAULT_CALLER_HEADER, source.getAddress().getHostAddress());
+        }
+
+        byte[] responseBody;
+        try (Response response = leaderHttpClient.newCall(request.build()).execute()) {
+            responseBody = response.body().bytes();
+            exchange.setStatusCode(response.code());
+            for (String header : FORWARDED_RESPONSE_HEADERS) {
+                String value = response.header(header);
+                if (value != null) {
+                    exchange.getResponseHeaders().put(HttpString.tryFromString(header), value);
+                }
+            }
+        } catch (IOException e) {
+            // answered like an overloaded node, which Conjure clients retry
+            log.warn("Failed to forward the call to the leader", UnsafeArg.of("path", path), e);
+            exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+            return;
+        }
+        exchange.setResponseContentLength(responseBody.length);
+        exchange.getOutputStream().write(responseBody);
+    }
+}
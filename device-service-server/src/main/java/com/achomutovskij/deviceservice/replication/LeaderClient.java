@@ -0,0 +1,81 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.replication;
+
+import com.achomutovskij.deviceservice.api.DeviceChangeBatch;
+import com.achomutovskij.deviceservice.api.DeviceSnapshot;
+import com.achomutovskij.deviceservice.remote.JsonServiceCaller;
+import com.achomutovskij.deviceservice.replication.api.UndertowDeviceReplicationService;
+import com.achomutovskij.deviceservice.server.PeerAuthenticationHandler;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.logsafe.Preconditions;
+import java.util.UUID;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * Calls the Device Replication Service of the leader over HTTP. The changes are fetched synchronously, the returned
+ * future is already complete: the follower polls from a thread of its own.
+ */
+public final class LeaderClient implements UndertowDeviceReplicationService {
+
+    private static final TypeReference<DeviceSnapshot> SNAPSHOT = new TypeReference<>() {};
+    private static final TypeReference<DeviceChangeBatch> CHANGES = new TypeReference<>() {};
+
+    private final JsonServiceCaller caller;
+    private final String authorization;
+
+    /**
+     * @param baseUrl the API base URL of the leader, e.g. https://leader:8345/api/
+     * @param leaderToken the replication token of the leader
+     */
+    public LeaderClient(OkHttpClient okHttpClient, HttpUrl baseUrl, String leaderToken) {
+        this.caller = new JsonServiceCaller(
+                okHttpClient,
+                Preconditions.checkNotNull(baseUrl, "Base URL must be non-null")
+                        .newBuilder()
+                        .addPathSegments("v1/replication")
+                        .build());
+        this.authorization = PeerAuthenticationHandler.authorization(
+                Preconditions.checkNotNull(leaderToken, "Leader token must be non-null"));
+    }
+
+    @Override
+    public DeviceSnapshot getSnapshot() {
+        return caller.call(request(caller.url("snapshot")), SNAPSHOT);
+    }
+
+    @Override
+    public ListenableFuture<DeviceChangeBatch> getChanges(UUID logId, SafeLong after, int waitMillis) {
+        HttpUrl url = caller.urlBuilder()
+                .addPathSegment("changes")
+                .addQueryParameter("logId", logId.toString())
+                .addQueryParameter("after", Long.toString(after.longValue()))
+                .addQueryParameter("waitMillis", Integer.toString(waitMillis))
+                .build();
+        return Futures.immediateFuture(caller.call(request(url), CHANGES));
+    }
+
+    private Request.Builder request(HttpUrl url) {
+        return new Request.Builder().url(url).header(HttpHeaders.AUTHORIZATION, authorization);
+    }
+}
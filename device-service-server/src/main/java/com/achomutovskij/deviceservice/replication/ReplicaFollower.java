@@ -0,0 +1,207 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.replication;
+
+import com.achomutovskij.deviceservice.api.DeviceChange;
+import com.achomutovskij.deviceservice.api.DeviceChangeBatch;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.api.DeviceSnapshot;
+import com.achomutovskij.deviceservice.database.DatabaseManager;
+import com.achomutovskij.deviceservice.replication.api.UndertowDeviceReplicationService;
+import com.achomutovskij.deviceservice.server.MetricsRegistry;
+import com.google.common.util.concurrent.Futures;
+import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the local table a copy of the leader's: it starts from a snapshot and then applies the leader's change log,
+ * one long-polled batch at a time, on a thread of its own. The copy is stale by at most the time since the follower
+ * last caught up, i.e. since it sent the request whose batch brought it to the leader's latest change; while nothing
+ * changes that is about the poll wait.
+ */
+public final class ReplicaFollower {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(ReplicaFollower.class);
+
+    public static final Duration DEFAULT_POLL_WAIT = Duration.ofSeconds(2);
+    public static final Duration DEFAULT_MAX_STALENESS = Duration.ofSeconds(10);
+
+    private static final Duration MIN_RETRY_DELAY = Duration.ofMillis(100);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(5);
+
+    private final DatabaseManager databaseManager;
+    private final UndertowDeviceReplicationService leader;
+    private final Duration pollWait;
+    private final Duration maxStaleness;
+    private final ScheduledExecutorService poller;
+    private final LongAdder snapshots;
+    private final LongAdder appliedChanges;
+    private final LongAdder failures;
+
+    // only used by the poller thread; the log is not known until the first snapshot
+    private Optional<UUID> logId = Optional.empty();
+    private long appliedSequence;
+    private Duration retryDelay = MIN_RETRY_DELAY;
+
+    private volatile OptionalLong caughtUpAtNanos = OptionalLong.empty();
+
+    public ReplicaFollower(
+            DatabaseManager databaseManager,
+            UndertowDeviceReplicationService leader,
+            Duration pollWait,
+            Duration maxStaleness,
+            MetricsRegistry metricsRegistry) {
+        Preconditions.checkArgument(
+                !pollWait.isNegative() && !maxStaleness.isNegative(),
+                "Poll wait and max staleness must not be negative",
+                SafeArg.of("pollWait", pollWait),
+                SafeArg.of("maxStaleness", maxStaleness));
+        this.databaseManager = Preconditions.checkNotNull(databaseManager, "Database manager must be non-null");
+        this.leader = Preconditions.checkNotNull(leader, "Leader must be non-null");
+        this.pollWait = pollWait;
+        this.maxStaleness = maxStaleness;
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-follower");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshots = metricsRegistry.counter("replication.snapshots");
+        this.appliedChanges = metricsRegistry.counter("replication.appliedChanges");
+        this.failures = metricsRegistry.counter("replication.failures");
+        metricsRegistry.gauge("replication.stalenessMillis", () -> staleness().map(Duration::toMillis).orElse(-1L));
+    }
+
+    public void start() {
+        poller.execute(this::poll);
+    }
+
+    public void stop() {
+        poller.shutdownNow();
+    }
+
+    /** How far behind the leader the local copy may be, nothing until it has caught up once. */
+    public Optional<Duration> staleness() {
+        OptionalLong caughtUp = caughtUpAtNanos;
+        return caughtUp.isPresent()
+                ? Optional.of(Duration.ofNanos(System.nanoTime() - caughtUp.getAsLong()))
+                : Optional.empty();
+    }
+
+    /** Whether the local copy is within the configured staleness of the leader. */
+    public boolean isFresh() {
+        return staleness().filter(staleness -> staleness.compareTo(maxStaleness) <= 0).isPresent();
+    }
+
+    private void poll() {
+        try {
+            if (logId.isPresent()) {
+                applyChanges(logId.get());
+            } else {
+                applySnapshot();
+            }
+            retryDelay = MIN_RETRY_DELAY;
+            schedule(Duration.ZERO);
+        } catch (RuntimeException e) {
+            // keeps serving the copy it has, the staleness tells the callers how old it gets
+            failures.increment();
+            log.warn("Failed to replicate from the leader", SafeArg.of("retryDelay", retryDelay), e);
+            schedule(retryDelay);
+            retryDelay = retryDelay.multipliedBy(2).compareTo(MAX_RETRY_DELAY) < 0
+                    ? retryDelay.multipliedBy(2)
+                    : MAX_RETRY_DELAY;
+        }
+    }
+
+    private void applySnapshot() {
+        DeviceSnapshot snapshot = leader.getSnapshot();
+        databaseManager.replicate(true, snapshot.getDevices(), List.of());
+        logId = Optional.of(snapshot.getLogId());
+        appliedSequence = snapshot.getSequence().longValue();
+        snapshots.increment();
+        log.info(
+                "Replicated a snapshot of the leader",
+                SafeArg.of("devices", snapshot.getDevices().size()),
+                SafeArg.of("sequence", appliedSequence));
+    }
+
+    private void applyChanges(UUID currentLogId) {
+        long requestedAtNanos = System.nanoTime();
+        DeviceChangeBatch batch = Futures.getUnchecked(
+                leader.getChanges(currentLogId, SafeLong.of(appliedSequence), Math.toIntExact(pollWait.toMillis())));
+        if (batch.getSnapshotRequired()) {
+            log.info("The leader's change log moved on, starting over from a snapshot");
+            logId = Optional.empty();
+            return;
+        }
+
+        apply(batch.getChanges());
+        if (!batch.getChanges().isEmpty()) {
+            appliedSequence = batch.getChanges().get(batch.getChanges().size() - 1).getSequence().longValue();
+            appliedChanges.add(batch.getChanges().size());
+        }
+        if (appliedSequence >= batch.getLastSequence().longValue()) {
+            caughtUpAtNanos = OptionalLong.of(requestedAtNanos);
+        }
+    }
+
+    /** Folds the batch into the latest state of each device it touches and writes that in one transaction. */
+    private void apply(List<DeviceChange> changes) {
+        boolean deleteAllFirst = false;
+        Map<Integer, DeviceInfo> devices = new LinkedHashMap<>();
+        Set<Integer> deletedIds = new LinkedHashSet<>();
+        for (DeviceChange change : changes) {
+            if (change.getDeviceId().isEmpty()) { // all the devices were deleted, the earlier changes no longer matter
+                deleteAllFirst = true;
+                devices.clear();
+                deletedIds.clear();
+            } else if (change.getDevice().isPresent()) {
+                devices.put(change.getDeviceId().getAsInt(), change.getDevice().get());
+                deletedIds.remove(change.getDeviceId().getAsInt());
+            } else {
+                devices.remove(change.getDeviceId().getAsInt());
+                deletedIds.add(change.getDeviceId().getAsInt());
+            }
+        }
+
+        if (deleteAllFirst || !devices.isEmpty() || !deletedIds.isEmpty()) {
+            databaseManager.replicate(deleteAllFirst, devices.values(), deletedIds);
+        }
+    }
+
+    @SuppressWarnings("FutureReturnValueIgnored") // the poll handles its own failures
+    private void schedule(Duration delay) {
+        if (!poller.isShutdown()) {
+            poller.schedule(this::poll, delay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+}
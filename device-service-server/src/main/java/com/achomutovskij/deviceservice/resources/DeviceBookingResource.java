@@ -18,19 +18,37 @@ package com.achomutovskij.deviceservice.resources;
 
 import com.achomutovskij.deviceservice.api.BookingErrors;
 import com.achomutovskij.deviceservice.api.BookingRequest;
+import com.achomutovskij.deviceservice.api.RenewLeaseRequest;
 import com.achomutovskij.deviceservice.booking.api.UndertowDeviceBookingService;
+import com.achomutovskij.deviceservice.cluster.Cluster;
 import com.achomutovskij.deviceservice.database.DatabaseManager;
+import com.achomutovskij.deviceservice.database.MultiBookingItem;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.palantir.conjure.java.api.errors.ErrorType;
 import com.palantir.conjure.java.api.errors.ServiceException;
 import com.palantir.logsafe.Preconditions;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
 
 public final class DeviceBookingResource implements UndertowDeviceBookingService {
 
+    public static final int MAX_WAIT_TIMEOUT_MILLIS = 120_000;
+    private static final int MAX_LEASE_DURATION_SECONDS = (int) Duration.ofDays(7).toSeconds();
+    private static final int MAX_DEVICES_PER_BATCH = 100;
+
     private final DatabaseManager databaseManager;
+    private final Cluster cluster;
+    private final IdempotencyCache idempotencyCache;
 
-    public DeviceBookingResource(DatabaseManager databaseManager) {
+    public DeviceBookingResource(DatabaseManager databaseManager, Cluster cluster) {
         this.databaseManager = Preconditions.checkNotNull(databaseManager, "Database manager must be non-null");
+        this.cluster = Preconditions.checkNotNull(cluster, "Cluster must be non-null");
+        this.idempotencyCache = new IdempotencyCache();
     }
 
     @Override
@@ -40,21 +58,103 @@ public final class DeviceBookingResource implements UndertowDeviceBookingService
             throw BookingErrors.requestMustHaveEitherDeviceIdOrName();
         }
 
-        try {
+        leaseDuration(bookDeviceRequest); // rejects an invalid lease before anything is forwarded
+        idempotencyCache.run("reserve", bookDeviceRequest, () -> {
+            // any node may have an available device with the name, only the owner can book the one with the id
             if (bookDeviceRequest.getDeviceName().isPresent()) {
-                databaseManager.bookDevice(
-                        bookDeviceRequest.getPerson(),
-                        bookDeviceRequest.getDeviceName().get());
+                BookingRequest byName = withoutDeviceId(bookDeviceRequest);
+                cluster.runOnFirstAccepting(
+                        () -> bookLocally(byName),
+                        peer -> peer.bookLocalDevice(byName),
+                        e -> e.getErrorType().equals(BookingErrors.DEVICE_NOT_AVAILABLE));
             }
 
             if (bookDeviceRequest.getDeviceId().isPresent()) {
-                databaseManager.bookDevice(
-                        bookDeviceRequest.getPerson(),
-                        bookDeviceRequest.getDeviceId().getAsInt());
+                BookingRequest byId = withoutDeviceName(bookDeviceRequest);
+                cluster.runOnOwner(
+                        byId.getDeviceId().getAsInt(), () -> bookLocally(byId), peer -> peer.bookLocalDevice(byId));
             }
-        } catch (SQLException ex) {
-            throw new ServiceException(ErrorType.INTERNAL, ex);
+        });
+    }
+
+    @Override
+    public List<Integer> bookDevices(List<BookingRequest> bookDevicesRequest) {
+        // all the devices are booked in one transaction of the local database, which cannot span the nodes
+        if (!cluster.isStandalone()) {
+            throw BookingErrors.batchBookingNotSupportedInCluster();
+        }
+
+        List<MultiBookingItem> items = new ArrayList<>(bookDevicesRequest.size());
+        int totalCount = 0;
+
+        for (BookingRequest bookDeviceRequest : bookDevicesRequest) {
+            if (bookDeviceRequest.getDeviceName().isEmpty()
+                    && bookDeviceRequest.getDeviceId().isEmpty()) {
+                throw BookingErrors.requestMustHaveEitherDeviceIdOrName();
+            }
+
+            int count = bookDeviceRequest.getCount().orElse(1);
+            if (count <= 0
+                    || count > MAX_DEVICES_PER_BATCH
+                    || (count > 1 && bookDeviceRequest.getDeviceName().isEmpty())) {
+                throw BookingErrors.invalidBookingCount(count, MAX_DEVICES_PER_BATCH);
+            }
+            totalCount += bookDeviceRequest.getDeviceName().isPresent() ? count : 0;
+            totalCount += bookDeviceRequest.getDeviceId().isPresent() ? 1 : 0;
+
+            items.add(new MultiBookingItem(
+                    bookDeviceRequest.getPerson(),
+                    bookDeviceRequest.getDeviceName(),
+                    bookDeviceRequest.getDeviceId(),
+                    count,
+                    leaseDuration(bookDeviceRequest)));
         }
+
+        if (totalCount > MAX_DEVICES_PER_BATCH) {
+            throw BookingErrors.invalidBookingCount(totalCount, MAX_DEVICES_PER_BATCH);
+        }
+
+        // a batch is retried as a whole, so its requests carry the same key, or none
+        Optional<String> idempotencyKey =
+                bookDevicesRequest.isEmpty() ? Optional.empty() : bookDevicesRequest.get(0).getIdempotencyKey();
+        if (bookDevicesRequest.stream().anyMatch(request -> !request.getIdempotencyKey().equals(idempotencyKey))) {
+            throw BookingErrors.inconsistentIdempotencyKeys();
+        }
+        if (idempotencyKey.isEmpty()) {
+            return databaseManager.bookDevices(items);
+        }
+        return idempotencyCache.call(
+                "reserve/batch",
+                bookDevicesRequest.get(0).getPerson(),
+                idempotencyKey,
+                List.copyOf(bookDevicesRequest),
+                () -> databaseManager.bookDevices(items));
+    }
+
+    @Override
+    public ListenableFuture<Integer> bookDeviceWhenAvailable(BookingRequest bookDeviceRequest, int timeoutMillis) {
+        if (bookDeviceRequest.getDeviceName().isEmpty()) {
+            throw BookingErrors.waitingRequiresDeviceName();
+        }
+
+        if (timeoutMillis <= 0 || timeoutMillis > MAX_WAIT_TIMEOUT_MILLIS) {
+            throw BookingErrors.invalidWaitTimeout(timeoutMillis, MAX_WAIT_TIMEOUT_MILLIS);
+        }
+
+        return databaseManager.bookDeviceWhenAvailable(
+                bookDeviceRequest.getPerson(),
+                bookDeviceRequest.getDeviceName().get(),
+                leaseDuration(bookDeviceRequest),
+                Duration.ofMillis(timeoutMillis));
+    }
+
+    @Override
+    public OffsetDateTime renewLease(RenewLeaseRequest renewLeaseRequest) {
+        checkedLeaseDuration(renewLeaseRequest.getLeaseDurationSeconds());
+        return cluster.onOwner(
+                renewLeaseRequest.getDeviceId(),
+                () -> renewLocally(renewLeaseRequest),
+                peer -> peer.renewLocalLease(renewLeaseRequest));
     }
 
     @Override
@@ -64,6 +164,62 @@ public final class DeviceBookingResource implements UndertowDeviceBookingService
             throw BookingErrors.requestMustHaveEitherDeviceIdOrName();
         }
 
+        idempotencyCache.run("return", returnDeviceRequest, () -> {
+            if (returnDeviceRequest.getDeviceName().isPresent()) {
+                BookingRequest byName = withoutDeviceId(returnDeviceRequest);
+                cluster.runOnFirstAccepting(
+                        () -> returnLocally(byName),
+                        peer -> peer.returnLocalDevice(byName),
+                        e -> e.getErrorType().equals(BookingErrors.NO_PERSON_WITH_GIVEN_BOOKED_DEVICE));
+            }
+
+            if (returnDeviceRequest.getDeviceId().isPresent()) {
+                BookingRequest byId = withoutDeviceName(returnDeviceRequest);
+                cluster.runOnOwner(
+                        byId.getDeviceId().getAsInt(),
+                        () -> returnLocally(byId),
+                        peer -> peer.returnLocalDevice(byId));
+            }
+        });
+    }
+
+    /** Books the device on this node only, for a request forwarded by another node of the cluster. */
+    void bookLocally(BookingRequest bookDeviceRequest) {
+        book(bookDeviceRequest, leaseDuration(bookDeviceRequest));
+    }
+
+    void returnLocally(BookingRequest returnDeviceRequest) {
+        giveBack(returnDeviceRequest);
+    }
+
+    OffsetDateTime renewLocally(RenewLeaseRequest renewLeaseRequest) {
+        return databaseManager.renewLease(
+                renewLeaseRequest.getPerson(),
+                renewLeaseRequest.getDeviceId(),
+                checkedLeaseDuration(renewLeaseRequest.getLeaseDurationSeconds()));
+    }
+
+    private void book(BookingRequest bookDeviceRequest, Optional<Duration> leaseDuration) {
+        try {
+            if (bookDeviceRequest.getDeviceName().isPresent()) {
+                databaseManager.bookDevice(
+                        bookDeviceRequest.getPerson(),
+                        bookDeviceRequest.getDeviceName().get(),
+                        leaseDuration);
+            }
+
+            if (bookDeviceRequest.getDeviceId().isPresent()) {
+                databaseManager.bookDevice(
+                        bookDeviceRequest.getPerson(),
+                        bookDeviceRequest.getDeviceId().getAsInt(),
+                        leaseDuration);
+            }
+        } catch (SQLException ex) {
+            throw new ServiceException(ErrorType.INTERNAL, ex);
+        }
+    }
+
+    private void giveBack(BookingRequest returnDeviceRequest) {
         try {
             if (returnDeviceRequest.getDeviceName().isPresent()) {
                 databaseManager.returnDevice(
@@ -80,4 +236,32 @@ public final class DeviceBookingResource implements UndertowDeviceBookingService
             throw new ServiceException(ErrorType.INTERNAL, ex);
         }
     }
+
+    private static BookingRequest withoutDeviceId(BookingRequest bookingRequest) {
+        return BookingRequest.builder()
+                .from(bookingRequest)
+                .deviceId(OptionalInt.empty())
+                .build();
+    }
+
+    private static BookingRequest withoutDeviceName(BookingRequest bookingRequest) {
+        return BookingRequest.builder()
+                .from(bookingRequest)
+                .deviceName(Optional.empty())
+                .build();
+    }
+
+    private static Optional<Duration> leaseDuration(BookingRequest bookingRequest) {
+        OptionalInt leaseDurationSeconds = bookingRequest.getLeaseDurationSeconds();
+        return leaseDurationSeconds.isPresent()
+                ? Optional.of(checkedLeaseDuration(leaseDurationSeconds.getAsInt()))
+                : Optional.empty();
+    }
+
+    private static Duration checkedLeaseDuration(int leaseDurationSeconds) {
+        if (leaseDurationSeconds <= 0 || leaseDurationSeconds > MAX_LEASE_DURATION_SECONDS) {
+            throw BookingErrors.invalidLeaseDuration(leaseDurationSeconds, MAX_LEASE_DURATION_SECONDS);
+        }
+        return Duration.ofSeconds(leaseDurationSeconds);
+    }
 }
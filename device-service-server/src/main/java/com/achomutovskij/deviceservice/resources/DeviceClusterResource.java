@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.resources;
+
+import com.achomutovskij.deviceservice.api.BookingRequest;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.api.RenewLeaseRequest;
+import com.achomutovskij.deviceservice.cluster.api.UndertowDeviceClusterService;
+import com.achomutovskij.deviceservice.database.DatabaseManager;
+import com.palantir.logsafe.Preconditions;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/** Serves the calls forwarded by the other nodes of the cluster from this node's devices. */
+public final class DeviceClusterResource implements UndertowDeviceClusterService {
+
+    private final DatabaseManager databaseManager;
+    private final DeviceBookingResource deviceBookingResource;
+
+    public DeviceClusterResource(DatabaseManager databaseManager, DeviceBookingResource deviceBookingResource) {
+        this.databaseManager = Preconditions.checkNotNull(databaseManager, "Database manager must be non-null");
+        this.deviceBookingResource =
+                Preconditions.checkNotNull(deviceBookingResource, "Device booking resource must be non-null");
+    }
+
+    @Override
+    public List<DeviceInfo> getLocalDevices() {
+        return databaseManager.getAllDevices();
+    }
+
+    @Override
+    public List<DeviceInfo> getLocalAvailableDevices() {
+        return databaseManager.getAllAvailableDevices();
+    }
+
+    @Override
+    public List<DeviceInfo> getLocalDevicesByName(String name) {
+        return databaseManager.getDevicesWithName(name);
+    }
+
+    @Override
+    public List<DeviceInfo> getLocalDevicesByIds(List<Integer> ids) {
+        return databaseManager.getDevicesByIds(ids);
+    }
+
+    @Override
+    public void deleteLocalDevice(int id) {
+        databaseManager.deleteDevice(id);
+    }
+
+    @Override
+    public void deleteAllLocalDevices() {
+        databaseManager.deleteAllDevices();
+    }
+
+    @Override
+    public void bookLocalDevice(BookingRequest bookDeviceRequest) {
+        deviceBookingResource.bookLocally(bookDeviceRequest);
+    }
+
+    @Override
+    public void returnLocalDevice(BookingRequest returnDeviceRequest) {
+        deviceBookingResource.returnLocally(returnDeviceRequest);
+    }
+
+    @Override
+    public OffsetDateTime renewLocalLease(RenewLeaseRequest renewLeaseRequest) {
+        return deviceBookingResource.renewLocally(renewLeaseRequest);
+    }
+}
@@ -18,95 +18,160 @@ package com.achomutovskij.deviceservice.resources;
 
 import com.achomutovskij.deviceservice.api.DeviceErrors;
 import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.api.InventoryStatistics;
+import com.achomutovskij.deviceservice.api.SpecCacheWarmUpProgress;
+import com.achomutovskij.deviceservice.capability.DeviceCapabilityIndex;
+import com.achomutovskij.deviceservice.capability.NetworkBand;
+import com.achomutovskij.deviceservice.cluster.Cluster;
+import com.achomutovskij.deviceservice.cluster.api.UndertowDeviceClusterService;
 import com.achomutovskij.deviceservice.database.DatabaseManager;
-import com.achomutovskij.deviceservice.gsm.GsmArenaDataProvider;
 import com.achomutovskij.deviceservice.gsm.GsmNetworkDetails;
-import com.achomutovskij.deviceservice.gsm.RapidApiClient;
+import com.achomutovskij.deviceservice.gsm.GsmNetworkDetailsLookup;
+import com.achomutovskij.deviceservice.gsm.SpecCacheWarmer;
 import com.achomutovskij.deviceservice.info.api.UndertowDeviceInfoService;
+import com.achomutovskij.deviceservice.inventory.InventoryCounters;
+import com.achomutovskij.deviceservice.server.RequestTimings;
 import com.palantir.logsafe.Preconditions;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public final class DeviceInfoResource implements UndertowDeviceInfoService {
 
+    private static final int MAX_IDS_PER_CALL = 1_000;
     private static final String INFO_UNAVAILABLE = "INFO UNAVAILABLE";
+    private static final GsmNetworkDetails NO_DETAILS =
+            new GsmNetworkDetails(INFO_UNAVAILABLE, INFO_UNAVAILABLE, INFO_UNAVAILABLE, INFO_UNAVAILABLE);
 
     private final DatabaseManager databaseManager;
+    private final Cluster cluster;
 
-    private final Optional<RapidApiClient> rapidApiClientOptional;
-    private final GsmArenaDataProvider gsmArenaDataProvider;
+    private final GsmNetworkDetailsLookup gsmNetworkDetailsLookup;
+    private final Optional<SpecCacheWarmer> specCacheWarmerOptional;
+    private final DeviceCapabilityIndex deviceCapabilityIndex;
+    private final InventoryCounters inventoryCounters;
 
     public DeviceInfoResource(
             DatabaseManager databaseManager,
-            Optional<RapidApiClient> rapidApiClientOptional,
-            GsmArenaDataProvider gsmArenaDataProvider) {
+            Cluster cluster,
+            GsmNetworkDetailsLookup gsmNetworkDetailsLookup,
+            Optional<SpecCacheWarmer> specCacheWarmerOptional,
+            DeviceCapabilityIndex deviceCapabilityIndex,
+            InventoryCounters inventoryCounters) {
         this.databaseManager = Preconditions.checkNotNull(databaseManager, "Database manager must be non-null");
-        this.rapidApiClientOptional = rapidApiClientOptional;
-        this.gsmArenaDataProvider =
-                Preconditions.checkNotNull(gsmArenaDataProvider, "GSM Arena Data Provider must be non-null");
+        this.cluster = Preconditions.checkNotNull(cluster, "Cluster must be non-null");
+        this.gsmNetworkDetailsLookup =
+                Preconditions.checkNotNull(gsmNetworkDetailsLookup, "GSM network details lookup must be non-null");
+        this.specCacheWarmerOptional = specCacheWarmerOptional;
+        this.deviceCapabilityIndex =
+                Preconditions.checkNotNull(deviceCapabilityIndex, "Device capability index must be non-null");
+        this.inventoryCounters = Preconditions.checkNotNull(inventoryCounters, "Inventory counters must be non-null");
     }
 
     @Override
     public List<DeviceInfo> getAllDevices() {
-        return databaseManager.getAllDevices().stream()
-                .map(this::enrichWithGsmNetworkDetails)
-                .collect(Collectors.toList());
+        return enrichWithGsmNetworkDetails(
+                cluster.gather(databaseManager::getAllDevices, UndertowDeviceClusterService::getLocalDevices));
     }
 
     @Override
     public List<DeviceInfo> getDevicesByName(String name) {
-        List<DeviceInfo> devices = databaseManager.getDevicesWithName(name);
+        List<DeviceInfo> devices = cluster.gather(
+                () -> databaseManager.getDevicesWithName(name), peer -> peer.getLocalDevicesByName(name));
 
         if (devices.isEmpty()) {
             throw DeviceErrors.deviceNameNotFound(name);
         }
 
-        return devices.stream().map(this::enrichWithGsmNetworkDetails).collect(Collectors.toList());
+        return enrichWithGsmNetworkDetails(devices);
     }
 
     @Override
     public DeviceInfo getDeviceById(int id) {
-        return enrichWithGsmNetworkDetails(databaseManager.queryDeviceById(id));
+        DeviceInfo fromDb = cluster.onOwner(
+                id,
+                () -> databaseManager.queryDeviceById(id),
+                peer -> peer.getLocalDevicesByIds(List.of(id)).stream()
+                        .findFirst()
+                        .orElseThrow(() -> DeviceErrors.deviceIdNotFound(id)));
+        long startNanos = System.nanoTime();
+        DeviceInfo device = enrich(fromDb, gsmNetworkDetailsLookup.lookup(fromDb.getName()));
+        RequestTimings.record(RequestTimings.Phase.ENRICH, System.nanoTime() - startNanos);
+        return device;
+    }
+
+    @Override
+    public List<DeviceInfo> getDevicesByIds(List<Integer> ids) {
+        if (ids.size() > MAX_IDS_PER_CALL) {
+            throw DeviceErrors.tooManyDeviceIds(ids.size(), MAX_IDS_PER_CALL);
+        }
+
+        return enrichWithGsmNetworkDetails(cluster.gatherByIds(
+                ids, databaseManager::getDevicesByIds, UndertowDeviceClusterService::getLocalDevicesByIds));
     }
 
     @Override
     public List<DeviceInfo> getAllAvailableDevices() {
-        return databaseManager.getAllAvailableDevices().stream()
-                .map(this::enrichWithGsmNetworkDetails)
-                .collect(Collectors.toList());
+        return enrichWithGsmNetworkDetails(cluster.gather(
+                databaseManager::getAllAvailableDevices, UndertowDeviceClusterService::getLocalAvailableDevices));
     }
 
-    private DeviceInfo enrichWithGsmNetworkDetails(DeviceInfo fromDb) {
+    @Override
+    public List<Integer> searchAvailableDevicesByBand(
+            Set<Integer> lteBands, Set<Integer> threeGBands, Set<Integer> twoGBands) {
+        Set<NetworkBand> bands = new HashSet<>();
+        lteBands.forEach(band -> bands.add(NetworkBand.lte(band)));
+        threeGBands.forEach(band -> bands.add(NetworkBand.threeG(band)));
+        twoGBands.forEach(band -> bands.add(NetworkBand.twoG(band)));
+        return deviceCapabilityIndex.findAvailableDevices(bands);
+    }
 
-        DeviceInfo.Builder builder = DeviceInfo.builder()
-                .id(fromDb.getId())
-                .name(fromDb.getName())
-                .available(fromDb.getAvailable())
-                .lastBookedPersonName(fromDb.getLastBookedPersonName())
-                .lastBookedTime(fromDb.getLastBookedTime());
-
-        if (rapidApiClientOptional.isPresent()) {
-            Optional<GsmNetworkDetails> gsmNetworkDetailsFromRapidApiOptional =
-                    rapidApiClientOptional.get().lookup(fromDb.getName());
-            if (gsmNetworkDetailsFromRapidApiOptional.isPresent()) {
-                return enrich(builder, gsmNetworkDetailsFromRapidApiOptional.get());
-            }
-        }
+    @Override
+    public InventoryStatistics getInventoryStatistics() {
+        return inventoryCounters.statistics();
+    }
 
-        Optional<GsmNetworkDetails> gsmArenaDataOptional = gsmArenaDataProvider.lookupDevice(fromDb.getName());
+    @Override
+    public SpecCacheWarmUpProgress getSpecCacheWarmUpProgress() {
+        return specCacheWarmerOptional.map(SpecCacheWarmer::progress).orElseGet(() -> SpecCacheWarmUpProgress.builder()
+                .enabled(false)
+                .registeredDeviceNames(0)
+                .warmed(0)
+                .pending(0)
+                .build());
+    }
 
-        return gsmArenaDataOptional
-                .map(gsmNetworkDetails -> enrich(builder, gsmNetworkDetails))
-                .orElseGet(() -> builder.technology(INFO_UNAVAILABLE)
-                        .twoGBands(INFO_UNAVAILABLE)
-                        .threeGBands(INFO_UNAVAILABLE)
-                        .fourGBands(INFO_UNAVAILABLE)
-                        .build());
+    /** Looks up the network details once per distinct device name rather than once per device. */
+    private List<DeviceInfo> enrichWithGsmNetworkDetails(List<DeviceInfo> devices) {
+        long startNanos = System.nanoTime();
+        Map<String, Optional<GsmNetworkDetails>> gsmNetworkDetailsByName = new HashMap<>();
+        List<DeviceInfo> enriched = devices.stream()
+                .map(fromDb -> enrich(
+                        fromDb,
+                        gsmNetworkDetailsByName.computeIfAbsent(fromDb.getName(), gsmNetworkDetailsLookup::lookup)))
+                .collect(Collectors.toList());
+        RequestTimings.record(RequestTimings.Phase.ENRICH, System.nanoTime() - startNanos);
+        return enriched;
     }
 
-    private static DeviceInfo enrich(DeviceInfo.Builder builder, GsmNetworkDetails gsmNetworkDetails) {
-        return builder.technology(gsmNetworkDetails.technology())
+    /**
+     * Builds the one copy of the device that is sent, the strings of the details are the shared ones of the dataset
+     * or the Rapid API cache and are not copied.
+     */
+    private static DeviceInfo enrich(DeviceInfo fromDb, Optional<GsmNetworkDetails> gsmNetworkDetailsOptional) {
+        GsmNetworkDetails gsmNetworkDetails = gsmNetworkDetailsOptional.orElse(NO_DETAILS);
+        return DeviceInfo.builder()
+                .id(fromDb.getId())
+                .name(fromDb.getName())
+                .available(fromDb.getAvailable())
+                .lastBookedPersonName(fromDb.getLastBookedPersonName())
+                .lastBookedTime(fromDb.getLastBookedTime())
+                .leaseExpiresAt(fromDb.getLeaseExpiresAt())
+                .technology(gsmNetworkDetails.technology())
                 .twoGBands(gsmNetworkDetails.twoGBands())
                 .threeGBands(gsmNetworkDetails.threeGBands())
                 .fourGBands(gsmNetworkDetails.fourGBands())
@@ -16,30 +16,86 @@
 
 package com.achomutovskij.deviceservice.resources;
 
+import com.achomutovskij.deviceservice.api.DatabaseBackup;
+import com.achomutovskij.deviceservice.api.GsmArenaDatasetReload;
+import com.achomutovskij.deviceservice.api.MemoryReport;
+import com.achomutovskij.deviceservice.capability.DeviceCapabilityIndex;
+import com.achomutovskij.deviceservice.cluster.Cluster;
+import com.achomutovskij.deviceservice.cluster.api.UndertowDeviceClusterService;
+import com.achomutovskij.deviceservice.database.DatabaseBackups;
 import com.achomutovskij.deviceservice.database.DatabaseManager;
+import com.achomutovskij.deviceservice.gsm.GsmArenaDataProvider;
 import com.achomutovskij.deviceservice.management.api.UndertowDeviceManagementService;
+import com.achomutovskij.deviceservice.memory.MemoryAccounting;
+import com.google.common.base.Throwables;
+import com.palantir.conjure.java.lib.SafeLong;
 import com.palantir.logsafe.Preconditions;
+import java.util.concurrent.CompletionException;
 
 public final class DeviceManagementResource implements UndertowDeviceManagementService {
 
     private final DatabaseManager databaseManager;
+    private final Cluster cluster;
+    private final GsmArenaDataProvider gsmArenaDataProvider;
+    private final DeviceCapabilityIndex deviceCapabilityIndex;
+    private final DatabaseBackups databaseBackups;
+    private final MemoryAccounting memoryAccounting;
 
-    public DeviceManagementResource(DatabaseManager databaseManager) {
+    public DeviceManagementResource(
+            DatabaseManager databaseManager,
+            Cluster cluster,
+            GsmArenaDataProvider gsmArenaDataProvider,
+            DeviceCapabilityIndex deviceCapabilityIndex,
+            DatabaseBackups databaseBackups,
+            MemoryAccounting memoryAccounting) {
         this.databaseManager = Preconditions.checkNotNull(databaseManager, "Database manager must be non-null");
+        this.cluster = Preconditions.checkNotNull(cluster, "Cluster must be non-null");
+        this.gsmArenaDataProvider =
+                Preconditions.checkNotNull(gsmArenaDataProvider, "GSM Arena Data Provider must be non-null");
+        this.deviceCapabilityIndex =
+                Preconditions.checkNotNull(deviceCapabilityIndex, "Device capability index must be non-null");
+        this.databaseBackups = Preconditions.checkNotNull(databaseBackups, "Database backups must be non-null");
+        this.memoryAccounting = Preconditions.checkNotNull(memoryAccounting, "Memory accounting must be non-null");
     }
 
     @Override
     public void createDevice(String name) {
+        // stored here, under an id this node owns
         databaseManager.registerDevice(name);
     }
 
     @Override
     public void deleteDevice(int id) {
-        databaseManager.deleteDevice(id);
+        cluster.runOnOwner(id, () -> databaseManager.deleteDevice(id), peer -> peer.deleteLocalDevice(id));
     }
 
     @Override
     public void deleteAllDevices() {
-        databaseManager.deleteAllDevices();
+        cluster.runOnAll(databaseManager::deleteAllDevices, UndertowDeviceClusterService::deleteAllLocalDevices);
+    }
+
+    @Override
+    public GsmArenaDatasetReload reloadGsmArenaDataset() {
+        GsmArenaDataProvider.Reload reload;
+        try {
+            reload = gsmArenaDataProvider.reload().join();
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+        deviceCapabilityIndex.refreshSpecs();
+        return GsmArenaDatasetReload.of(reload.devices(), (int) reload.duration().toMillis());
+    }
+
+    @Override
+    public DatabaseBackup backupDatabase() {
+        DatabaseBackups.Backup backup = databaseBackups.backUp();
+        return DatabaseBackup.of(
+                backup.file().toString(), SafeLong.of(backup.sizeBytes()), (int) backup.duration().toMillis());
+    }
+
+    @Override
+    public MemoryReport getMemoryReport() {
+        return memoryAccounting.report();
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.resources;
+
+import com.achomutovskij.deviceservice.api.DeviceChange;
+import com.achomutovskij.deviceservice.api.DeviceChangeBatch;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.api.DeviceSnapshot;
+import com.achomutovskij.deviceservice.api.ReplicationErrors;
+import com.achomutovskij.deviceservice.database.DatabaseManager;
+import com.achomutovskij.deviceservice.replication.ChangeLog;
+import com.achomutovskij.deviceservice.replication.api.UndertowDeviceReplicationService;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.logsafe.Preconditions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/** Serves this node's devices and change log to the followers. */
+public final class DeviceReplicationResource implements UndertowDeviceReplicationService {
+
+    private static final int MAX_CHANGES_WAIT_MILLIS = 20_000;
+    private static final int MAX_CHANGES_PER_BATCH = 1_000;
+
+    private final DatabaseManager databaseManager;
+    private final ChangeLog changeLog;
+    // reads the changed devices once a waiting request is woken up, off the thread that committed the change
+    private final ExecutorService changeReaders = Executors.newVirtualThreadPerTaskExecutor();
+
+    public DeviceReplicationResource(DatabaseManager databaseManager, ChangeLog changeLog) {
+        this.databaseManager = Preconditions.checkNotNull(databaseManager, "Database manager must be non-null");
+        this.changeLog = Preconditions.checkNotNull(changeLog, "Change log must be non-null");
+    }
+
+    @Override
+    public DeviceSnapshot getSnapshot() {
+        // the sequence is read first: the changes made while the table is read are fetched again by the follower
+        long sequence = changeLog.lastSequence();
+        return DeviceSnapshot.builder()
+                .logId(changeLog.id())
+                .sequence(SafeLong.of(sequence))
+                .devices(databaseManager.getAllDevices())
+                .build();
+    }
+
+    @Override
+    public ListenableFuture<DeviceChangeBatch> getChanges(UUID logId, SafeLong after, int waitMillis) {
+        if (waitMillis < 0 || waitMillis > MAX_CHANGES_WAIT_MILLIS) {
+            throw ReplicationErrors.invalidChangesWait(waitMillis, MAX_CHANGES_WAIT_MILLIS);
+        }
+        if (!logId.equals(changeLog.id())) {
+            return Futures.immediateFuture(snapshotRequired());
+        }
+
+        return Futures.transform(
+                changeLog.awaitChangeAfter(after.longValue(), Duration.ofMillis(waitMillis)),
+                _changed -> readChanges(after.longValue()),
+                changeReaders);
+    }
+
+    private DeviceChangeBatch readChanges(long after) {
+        Optional<ChangeLog.Changes> changes = changeLog.since(after, MAX_CHANGES_PER_BATCH);
+        if (changes.isEmpty()) {
+            return snapshotRequired();
+        }
+
+        // the devices are read after the log: a device may already be in a later state, which its later entries carry
+        List<Integer> changedIds = changes.get().entries().stream()
+                .map(ChangeLog.Entry::deviceId)
+                .filter(deviceId -> deviceId != ChangeLog.ALL_DEVICES)
+                .distinct()
+                .collect(Collectors.toList());
+        Map<Integer, DeviceInfo> devicesById = databaseManager.getDevicesByIds(changedIds).stream()
+                .collect(Collectors.toMap(DeviceInfo::getId, Function.identity()));
+
+        List<DeviceChange> deviceChanges = new ArrayList<>(changes.get().entries().size());
+        for (ChangeLog.Entry entry : changes.get().entries()) {
+            DeviceChange.Builder change = DeviceChange.builder().sequence(SafeLong.of(entry.sequence()));
+            if (entry.deviceId() != ChangeLog.ALL_DEVICES) {
+                // a device that is gone was deleted, the ids are never reused
+                change = change.deviceId(entry.deviceId())
+                        .device(Optional.ofNullable(devicesById.get(entry.deviceId())));
+            }
+            deviceChanges.add(change.build());
+        }
+
+        return DeviceChangeBatch.builder()
+                .changes(deviceChanges)
+                .lastSequence(SafeLong.of(changes.get().lastSequence()))
+                .snapshotRequired(false)
+                .build();
+    }
+
+    private DeviceChangeBatch snapshotRequired() {
+        return DeviceChangeBatch.builder()
+                .lastSequence(SafeLong.of(changeLog.lastSequence()))
+                .snapshotRequired(true)
+                .build();
+    }
+}
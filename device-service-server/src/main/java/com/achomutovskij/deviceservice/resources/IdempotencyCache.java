@@ -0,0 +1,112 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.resources;
+
+import com.achomutovskij.deviceservice.api.BookingErrors;
+import com.achomutovskij.deviceservice.api.BookingRequest;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.errors.ServiceException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the outcome of booking requests, single or batched, that carry an idempotency key, so that a retried
+ * request gets the outcome of the original one instead of being executed again. Replays are answered from memory
+ * without touching the database. Outcomes are kept for a bounded number of keys and for a limited time; internal
+ * errors are not kept, so retrying after one executes the request again.
+ */
+final class IdempotencyCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 10_000;
+    static final Duration DEFAULT_EXPIRY = Duration.ofMinutes(10);
+
+    private final ConcurrentMap<Key, Entry> entries;
+
+    IdempotencyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_EXPIRY);
+    }
+
+    IdempotencyCache(int maxEntries, Duration expiry) {
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(expiry)
+                .<Key, Entry>build()
+                .asMap();
+    }
+
+    /**
+     * Runs the action unless a request with the same operation, person and idempotency key has already been run, in
+     * which case its outcome is returned or rethrown, waiting for it if it is still in flight.
+     */
+    void run(String operation, BookingRequest request, Runnable action) {
+        call(operation, request.getPerson(), request.getIdempotencyKey(), request, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Like {@link #run}, for an action with a result. The request is compared with the original one on a replay, so it
+     * must hold everything that was asked; results are only replayed under the operation that produced them.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T call(String operation, String person, Optional<String> idempotencyKey, Object request, Supplier<T> action) {
+        if (idempotencyKey.isEmpty()) {
+            return action.get();
+        }
+
+        Key key = new Key(operation, person, idempotencyKey.get());
+        Entry entry = new Entry(request, new CompletableFuture<>());
+        Entry original = entries.putIfAbsent(key, entry);
+        if (original != null) {
+            return (T) replay(original, request);
+        }
+
+        try {
+            T result = action.get();
+            entry.outcome().complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            if (!(e instanceof ServiceException serviceException)
+                    || serviceException.getErrorType().code() == ErrorType.Code.INTERNAL) {
+                entries.remove(key, entry);
+            }
+            entry.outcome().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static Object replay(Entry original, Object request) {
+        if (!original.request().equals(request)) {
+            throw BookingErrors.idempotencyKeyReused();
+        }
+        try {
+            return original.outcome().join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private record Key(String operation, String person, String idempotencyKey) {}
+
+    private record Entry(Object request, CompletableFuture<Object> outcome) {}
+}
@@ -0,0 +1,45 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+/** Exports the metrics as plain text, one {@code name value} line per metric ordered by name. */
+public final class MetricsHandler implements HttpHandler {
+
+    private final MetricsRegistry metricsRegistry;
+
+    public MetricsHandler(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = Preconditions.checkNotNull(metricsRegistry, "Metrics registry must be non-null");
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        StringBuilder body = new StringBuilder();
+        metricsRegistry.snapshot().forEach((name, value) -> body.append(name)
+                .append(' ')
+                .append(value)
+                .append('\n'));
+        exchange.setStatusCode(StatusCodes.OK);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+        exchange.getResponseSender().send(body.toString());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Lets only the other nodes, the peers of a cluster or the followers of a leader, call the services under the peer
+ * path prefix: they must present the shared token as a bearer token. Other callers are answered with 401 straight
+ * from the IO thread.
+ */
+public final class PeerAuthenticationHandler implements HttpHandler {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final HttpHandler next;
+    private final String peerPathPrefix;
+    private final byte[] expectedAuthorization;
+
+    public PeerAuthenticationHandler(HttpHandler next, String peerPathPrefix, String peerToken) {
+        this.next = Preconditions.checkNotNull(next, "Next handler must be non-null");
+        this.peerPathPrefix = Preconditions.checkNotNull(peerPathPrefix, "Peer path prefix must be non-null");
+        Preconditions.checkArgument(
+                peerToken != null && !peerToken.isBlank(), "Peer token must be non-null and non-blank");
+        this.expectedAuthorization = authorization(peerToken).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The value of the {@code Authorization} header the peers send. */
+    public static String authorization(String peerToken) {
+        return BEARER_PREFIX + peerToken;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (!exchange.getRelativePath().startsWith(peerPathPrefix) || isPeer(exchange)) {
+            next.handleRequest(exchange);
+            return;
+        }
+
+        exchange.setStatusCode(StatusCodes.UNAUTHORIZED);
+        exchange.endExchange();
+    }
+
+    private boolean isPeer(HttpServerExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION);
+        // compared in constant time, so that the token cannot be guessed from how long the check takes
+        return authorization != null
+                && MessageDigest.isEqual(authorization.getBytes(StandardCharsets.UTF_8), expectedAuthorization);
+    }
+}
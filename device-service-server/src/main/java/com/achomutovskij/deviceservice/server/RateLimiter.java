@@ -0,0 +1,61 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.palantir.logsafe.Preconditions;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One rate limit budget, with a {@link TokenBucket} per caller. Buckets of callers that have gone quiet are evicted,
+ * which is harmless since an idle bucket is full anyway.
+ */
+final class RateLimiter {
+
+    private static final int MAX_TRACKED_CALLERS = 100_000;
+    private static final Duration IDLE_CALLER_EXPIRY = Duration.ofMinutes(10);
+
+    private final int permitsPerSecond;
+    private final int burst;
+    private final Cache<String, TokenBucket> buckets;
+    private final LongAdder allowed;
+    private final LongAdder rejected;
+
+    RateLimiter(String budget, int permitsPerSecond, int burst, MetricsRegistry metricsRegistry) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(MAX_TRACKED_CALLERS)
+                .expireAfterAccess(IDLE_CALLER_EXPIRY)
+                .build();
+        Preconditions.checkNotNull(metricsRegistry, "Metrics registry must be non-null");
+        this.allowed = metricsRegistry.counter("rateLimit." + budget + ".allowed");
+        this.rejected = metricsRegistry.counter("rateLimit." + budget + ".rejected");
+        metricsRegistry.gauge("rateLimit." + budget + ".callers", buckets::estimatedSize);
+    }
+
+    /** @return zero if the caller is within its budget, otherwise how long it should wait, in nanoseconds */
+    long tryAcquire(String caller) {
+        long nowNanos = System.nanoTime();
+        long waitNanos = buckets.get(caller, _caller -> new TokenBucket(permitsPerSecond, burst, nowNanos))
+                .tryAcquire(nowNanos);
+        (waitNanos == 0 ? allowed : rejected).increment();
+        return waitNanos;
+    }
+}
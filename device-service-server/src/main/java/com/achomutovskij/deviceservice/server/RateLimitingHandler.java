@@ -0,0 +1,104 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies per-caller rate limits before a request reaches the Conjure handlers. Requests under the read prefix draw
+ * from the read budget, all others from the write budget, so that a flood of reads cannot starve the bookings.
+ * Requests under the excluded prefixes are not limited. Callers are told apart by their address, since anyone can
+ * send any header: only the trusted proxies, which call on behalf of many people, may name the caller in the caller
+ * header. Rejections are answered with 429 and a {@code Retry-After} straight from the IO thread, which Conjure
+ * clients back off from and retry.
+ */
+public final class RateLimitingHandler implements HttpHandler {
+
+    public static final String DEFAULT_CALLER_HEADER = "X-Caller";
+
+    private final HttpHandler next;
+    private final String readPathPrefix;
+    private final List<String> excludedPathPrefixes;
+    private final HttpString callerHeader;
+    private final Set<String> trustedProxies;
+    private final RateLimiter readLimiter;
+    private final RateLimiter writeLimiter;
+
+    public RateLimitingHandler(
+            HttpHandler next,
+            String readPathPrefix,
+            List<String> excludedPathPrefixes,
+            String callerHeader,
+            Set<String> trustedProxies,
+            Budget readBudget,
+            Budget writeBudget,
+            MetricsRegistry metricsRegistry) {
+        this.next = Preconditions.checkNotNull(next, "Next handler must be non-null");
+        this.readPathPrefix = Preconditions.checkNotNull(readPathPrefix, "Read path prefix must be non-null");
+        this.excludedPathPrefixes = List.copyOf(excludedPathPrefixes);
+        this.callerHeader = HttpString.tryFromString(callerHeader);
+        this.trustedProxies = Set.copyOf(trustedProxies);
+        this.readLimiter =
+                new RateLimiter("read", readBudget.permitsPerSecond(), readBudget.burst(), metricsRegistry);
+        this.writeLimiter =
+                new RateLimiter("write", writeBudget.permitsPerSecond(), writeBudget.burst(), metricsRegistry);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        String path = exchange.getRelativePath();
+        if (excludedPathPrefixes.stream().anyMatch(path::startsWith)) {
+            next.handleRequest(exchange);
+            return;
+        }
+
+        RateLimiter limiter = path.startsWith(readPathPrefix) ? readLimiter : writeLimiter;
+        long waitNanos = limiter.tryAcquire(caller(exchange));
+        if (waitNanos == 0) {
+            next.handleRequest(exchange);
+            return;
+        }
+
+        long retryAfterSeconds = TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1; // rounded up
+        exchange.setStatusCode(StatusCodes.TOO_MANY_REQUESTS);
+        exchange.getResponseHeaders().put(Headers.RETRY_AFTER, retryAfterSeconds);
+        exchange.endExchange();
+    }
+
+    private String caller(HttpServerExchange exchange) {
+        InetSocketAddress source = exchange.getSourceAddress();
+        String address = source == null ? "" : source.getAddress().getHostAddress();
+        if (!trustedProxies.contains(address)) {
+            return address;
+        }
+        String caller = exchange.getRequestHeaders().getFirst(callerHeader);
+        // keeps a proxy's own calls apart from a caller that happens to share its name
+        return caller == null ? address : address + "/" + caller;
+    }
+
+    /** A sustained rate and the number of requests that may be made at once after being idle. */
+    public record Budget(int permitsPerSecond, int burst) {}
+}
@@ -0,0 +1,45 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Answers 200 once the service is ready to serve complete responses and 503 until then, so that a rolling deploy can
+ * route traffic to the node as soon as it starts while still knowing when background loading has finished.
+ */
+public final class ReadinessHandler implements HttpHandler {
+
+    private final BooleanSupplier ready;
+
+    public ReadinessHandler(BooleanSupplier ready) {
+        this.ready = Preconditions.checkNotNull(ready, "Readiness supplier must be non-null");
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        boolean isReady = ready.getAsBoolean();
+        exchange.setStatusCode(isReady ? StatusCodes.OK : StatusCodes.SERVICE_UNAVAILABLE);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+        exchange.getResponseSender().send(isReady ? "READY" : "NOT READY");
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent per phase while serving one request. The request's timings are bound to the thread running its handler,
+ * so the components record their phases without the timings being passed down to them; outside a request, e.g. on
+ * the background threads, recording does nothing.
+ */
+public final class RequestTimings {
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos;
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    RequestTimings(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    /** Adds the duration to the phase of the request served by the current thread, if any. */
+    public static void record(Phase phase, long durationNanos) {
+        RequestTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.phaseNanos.addAndGet(phase.ordinal(), durationNanos);
+        }
+    }
+
+    void bind() {
+        CURRENT.set(this);
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    long elapsedNanos(long nowNanos) {
+        return nowNanos - startNanos;
+    }
+
+    /** The recorded phases in milliseconds, in the order of {@link Phase}. */
+    Map<String, Double> phaseMillis() {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            long nanos = phaseNanos.get(phase.ordinal());
+            if (nanos > 0) {
+                millis.put(phase.metricName(), nanos / 1e6);
+            }
+        }
+        return millis;
+    }
+
+    /** A {@code Server-Timing} header value with the recorded phases and the total so far. */
+    String serverTiming(long nowNanos) {
+        StringBuilder header = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            long nanos = phaseNanos.get(phase.ordinal());
+            if (nanos > 0) {
+                appendMetric(header, phase.metricName(), nanos, phase.description());
+            }
+        }
+        appendMetric(header, "total", elapsedNanos(nowNanos), "Handler until the response was sent");
+        return header.toString();
+    }
+
+    private static void appendMetric(StringBuilder header, String name, long nanos, String description) {
+        if (header.length() > 0) {
+            header.append(", ");
+        }
+        header.append(name)
+                .append(";dur=")
+                .append(String.format(Locale.ROOT, "%.3f", nanos / 1e6))
+                .append(";desc=\"")
+                .append(description)
+                .append('"');
+    }
+
+    /** The phases timed across the components. Nested phases are also counted in the ones around them. */
+    public enum Phase {
+        DB_LOCK("db-lock", "Waiting for the database lock"),
+        DB("db", "Database work while holding the lock"),
+        RAPID_API_QUEUE("rapid-api-queue", "Waiting for a Rapid API request slot"),
+        RAPID_API("rapid-api", "Rapid API calls"),
+        GSM_ARENA("gsm-arena", "GSM Arena dataset lookups"),
+        ENRICH("enrich", "Adding the network details to the devices"),
+        PEER("peer", "Calls to the other nodes of the cluster");
+
+        private final String metricName;
+        private final String description;
+
+        Phase(String metricName, String description) {
+            this.metricName = metricName;
+            this.description = description;
+        }
+
+        String metricName() {
+            return metricName;
+        }
+
+        String description() {
+            return description;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import io.undertow.predicate.Predicate;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import io.undertow.util.Headers;
+
+/**
+ * Compresses the responses with gzip, or deflate, when the client accepts it, which the Conjure clients do. Responses
+ * below the threshold are sent as they are, the compression would save less than it costs. A response that does not
+ * fit in one buffer is streamed without a {@code Content-Length}, so its size is not known up front; it is at least a
+ * buffer long and is always compressed.
+ */
+public final class ResponseCompression {
+
+    public static final int DEFAULT_THRESHOLD_BYTES = 1_024;
+
+    private ResponseCompression() {}
+
+    public static HttpHandler handler(HttpHandler next, long thresholdBytes) {
+        Predicate largeEnough = exchange -> {
+            String contentLength = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+            return contentLength == null || Long.parseLong(contentLength) >= thresholdBytes;
+        };
+        return new EncodingHandler(
+                next,
+                new ContentEncodingRepository()
+                        .addEncodingHandler("gzip", new GzipEncodingProvider(), 50, largeEnough)
+                        .addEncodingHandler("deflate", new DeflateEncodingProvider(), 10, largeEnough));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HttpString;
+import java.time.Duration;
+
+/**
+ * Times the phases of every request, see {@link RequestTimings}. The timings are sent back in a {@code Server-Timing}
+ * header, which browsers and curl show next to the response, and requests slower than the threshold are logged with
+ * their phases once complete. The rest of the total beyond the recorded phases is Conjure reading the request and
+ * writing the response.
+ *
+ * <p>The handler must run on the thread that runs the Conjure handler, so it moves requests off the IO thread itself.
+ */
+public final class ServerTimingHandler implements HttpHandler {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(ServerTimingHandler.class);
+
+    public static final Duration DEFAULT_SLOW_REQUEST_THRESHOLD = Duration.ofSeconds(1);
+
+    private static final HttpString SERVER_TIMING = HttpString.tryFromString("Server-Timing");
+    private static final AttachmentKey<RequestTimings> TIMINGS = AttachmentKey.create(RequestTimings.class);
+
+    private final HttpHandler next;
+    private final long slowRequestThresholdNanos;
+
+    public ServerTimingHandler(HttpHandler next, Duration slowRequestThreshold) {
+        this.next = Preconditions.checkNotNull(next, "Next handler must be non-null");
+        this.slowRequestThresholdNanos = slowRequestThreshold.toNanos();
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        RequestTimings timings = exchange.getAttachment(TIMINGS);
+        if (timings == null) {
+            timings = new RequestTimings(System.nanoTime());
+            exchange.putAttachment(TIMINGS, timings);
+            addListeners(exchange, timings);
+        }
+
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this);
+            return;
+        }
+
+        timings.bind();
+        try {
+            next.handleRequest(exchange);
+        } finally {
+            RequestTimings.unbind();
+        }
+    }
+
+    private void addListeners(HttpServerExchange exchange, RequestTimings timings) {
+        exchange.addResponseCommitListener(committed ->
+                committed.getResponseHeaders().put(SERVER_TIMING, timings.serverTiming(System.nanoTime())));
+        exchange.addExchangeCompleteListener((completed, nextListener) -> {
+            try {
+                logIfSlow(completed, timings);
+            } finally {
+                nextListener.proceed();
+            }
+        });
+    }
+
+    private void logIfSlow(HttpServerExchange exchange, RequestTimings timings) {
+        long elapsedNanos = timings.elapsedNanos(System.nanoTime());
+        if (elapsedNanos < slowRequestThresholdNanos) {
+            return;
+        }
+        log.warn(
+                "Slow request",
+                SafeArg.of("method", exchange.getRequestMethod().toString()),
+                UnsafeArg.of("path", exchange.getRequestPath()),
+                SafeArg.of("statusCode", exchange.getStatusCode()),
+                SafeArg.of("durationMillis", Duration.ofNanos(elapsedNanos).toMillis()),
+                SafeArg.of("phaseMillis", timings.phaseMillis()));
+    }
+}
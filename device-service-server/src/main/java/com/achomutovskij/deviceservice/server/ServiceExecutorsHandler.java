@@ -0,0 +1,111 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the requests of every service on a bounded pool of its own instead of the shared Undertow worker pool, so that
+ * a storm of slow listings can only ever occupy the listing threads and the bookings keep threads to run on. The pool
+ * is picked by the path prefixes, requests under none of them are left to the Undertow worker pool. A request that
+ * finds all the threads of its pool busy and the queue full is answered with 503 straight away, which Conjure
+ * clients back off from and retry.
+ */
+public final class ServiceExecutorsHandler implements HttpHandler {
+
+    private final HttpHandler next;
+    private final List<String> pathPrefixes = new ArrayList<>();
+    private final List<ThreadPoolExecutor> executors = new ArrayList<>();
+
+    public ServiceExecutorsHandler(HttpHandler next, List<Pool> pools, MetricsRegistry metricsRegistry) {
+        this.next = Preconditions.checkNotNull(next, "Next handler must be non-null");
+        for (Pool pool : pools) {
+            ThreadPoolExecutor executor = executor(pool, metricsRegistry);
+            for (String pathPrefix : pool.pathPrefixes()) {
+                pathPrefixes.add(pathPrefix);
+                executors.add(executor);
+            }
+        }
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            String path = exchange.getRelativePath();
+            for (int i = 0; i < pathPrefixes.size(); i++) {
+                if (path.startsWith(pathPrefixes.get(i))) {
+                    // Undertow answers a request its dispatch executor rejects with 503
+                    exchange.dispatch(executors.get(i), next);
+                    return;
+                }
+            }
+        }
+        next.handleRequest(exchange);
+    }
+
+    public void stop() {
+        executors.stream().distinct().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+
+    private static ThreadPoolExecutor executor(Pool pool, MetricsRegistry metricsRegistry) {
+        AtomicInteger threadCount = new AtomicInteger();
+        LongAdder rejected = metricsRegistry.counter("executor." + pool.name() + ".rejected");
+        // an empty queue only hands requests to idle threads
+        BlockingQueue<Runnable> queue =
+                pool.queueSize() == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(pool.queueSize());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                pool.threads(),
+                pool.threads(),
+                0,
+                TimeUnit.MILLISECONDS,
+                queue,
+                runnable -> {
+                    Thread thread = new Thread(runnable, pool.name() + "-handler-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (_runnable, _executor) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("The service executor is saturated");
+                });
+        metricsRegistry.gauge("executor." + pool.name() + ".active", executor::getActiveCount);
+        metricsRegistry.gauge("executor." + pool.name() + ".queued", () -> executor.getQueue().size());
+        return executor;
+    }
+
+    /** A pool of threads and a queue of requests waiting for them, serving the requests under the path prefixes. */
+    public record Pool(String name, int threads, int queueSize, List<String> pathPrefixes) {
+        public Pool {
+            Preconditions.checkArgument(threads > 0, "Threads must be positive", SafeArg.of("pool", name));
+            Preconditions.checkArgument(queueSize >= 0, "Queue size must not be negative", SafeArg.of("pool", name));
+            pathPrefixes = List.copyOf(pathPrefixes);
+        }
+    }
+}
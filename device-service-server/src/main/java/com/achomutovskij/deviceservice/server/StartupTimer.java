@@ -0,0 +1,78 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.google.common.base.Throwables;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/** Times the startup phases of the application, which may run concurrently, and logs a report of them. */
+public final class StartupTimer {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(StartupTimer.class);
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+
+    public <T> CompletableFuture<T> timeAsync(String phase, Supplier<T> supplier, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> time(phase, supplier), executor);
+    }
+
+    public <T> T time(String phase, Supplier<T> supplier) {
+        long phaseStartNanos = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            record(phase, Duration.ofNanos(System.nanoTime() - phaseStartNanos));
+        }
+    }
+
+    public synchronized void record(String phase, Duration duration) {
+        phaseMillis.put(phase, duration.toMillis());
+    }
+
+    public Duration elapsed() {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    /** Logs the phases finished so far and the time since the timer was created. */
+    public synchronized void logReport(String milestone) {
+        log.info(
+                "Startup milestone {} reached after {} ms, phase timings in ms: {}",
+                SafeArg.of("milestone", milestone),
+                SafeArg.of("elapsedMillis", elapsed().toMillis()),
+                SafeArg.of("phaseMillis", new LinkedHashMap<>(phaseMillis)));
+    }
+
+    /** Waits for a phase to finish, rethrowing its failure as is rather than wrapped. */
+    public static <T> T await(CompletableFuture<T> phase) {
+        try {
+            return phase.join();
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, implemented as the generic cell rate algorithm: instead of a token count it keeps the
+ * theoretical arrival time of the next request, which a single compare-and-set advances by one emission interval per
+ * admitted request. A request is admitted while that time is no more than the burst allowance ahead of now.
+ */
+final class TokenBucket {
+
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final AtomicLong theoreticalArrivalNanos;
+
+    TokenBucket(int permitsPerSecond, int burst, long nowNanos) {
+        Preconditions.checkArgument(
+                permitsPerSecond > 0,
+                "Permits per second must be positive",
+                SafeArg.of("permitsPerSecond", permitsPerSecond));
+        Preconditions.checkArgument(burst > 0, "Burst must be positive", SafeArg.of("burst", burst));
+        this.emissionIntervalNanos = Duration.ofSeconds(1).toNanos() / permitsPerSecond;
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        this.theoreticalArrivalNanos = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a permit if one is available.
+     *
+     * @return zero if a permit was taken, otherwise how long until one is available, in nanoseconds
+     */
+    long tryAcquire(long nowNanos) {
+        while (true) {
+            long theoreticalArrival = theoreticalArrivalNanos.get();
+            long start = Math.max(theoreticalArrival, nowNanos);
+            long aheadNanos = start - nowNanos;
+            if (aheadNanos > burstToleranceNanos) {
+                return aheadNanos - burstToleranceNanos;
+            }
+            if (theoreticalArrivalNanos.compareAndSet(theoreticalArrival, start + emissionIntervalNanos)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Moves every request off the IO thread onto a fresh virtual thread instead of the fixed Undertow worker pool. The
+ * Conjure handlers block on JDBC and OkHttp, so with platform threads the worker pool size is the concurrency limit;
+ * with virtual threads the limits are the ones placed on the downstream resources themselves.
+ */
+public final class VirtualThreadDispatchHandler implements HttpHandler {
+
+    private final HttpHandler next;
+    private final ExecutorService executor;
+
+    public VirtualThreadDispatchHandler(HttpHandler next) {
+        this.next = Preconditions.checkNotNull(next, "Next handler must be non-null");
+        this.executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("conjure-handler-", 0).factory());
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(executor, next);
+            return;
+        }
+        next.handleRequest(exchange);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.api.BookingErrors;
+import com.achomutovskij.deviceservice.api.BookingRequest;
+import com.achomutovskij.deviceservice.api.DeviceErrors;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.booking.api.DeviceBookingServiceBlocking;
+import com.achomutovskij.deviceservice.cluster.PeerClient;
+import com.achomutovskij.deviceservice.cluster.api.UndertowDeviceClusterService;
+import com.achomutovskij.deviceservice.database.DatabaseBackups;
+import com.achomutovskij.deviceservice.info.api.DeviceInfoServiceBlocking;
+import com.achomutovskij.deviceservice.management.api.DeviceManagementServiceBlocking;
+import com.palantir.conjure.java.api.config.service.UserAgent;
+import com.palantir.conjure.java.api.config.service.UserAgent.Agent;
+import com.palantir.conjure.java.api.testing.Assertions;
+import com.palantir.conjure.java.client.config.ClientConfiguration;
+import com.palantir.conjure.java.client.config.ClientConfigurations;
+import com.palantir.conjure.java.config.ssl.SslSocketFactories;
+import com.palantir.dialogue.clients.DialogueClients;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Runs three nodes on localhost, each with its own database, and calls them like clients would. */
+public class ClusterTest {
+
+    private static final int FIRST_PORT = 8445; // each node also takes the next port for plain HTTP
+    private static final int NODES = 3;
+    private static final String PEER_TOKEN = "cluster-test-peer-token";
+
+    private static final List<Undertow> SERVERS = new ArrayList<>();
+    private static final List<DeviceManagementServiceBlocking> MANAGEMENT_SERVICES = new ArrayList<>();
+    private static final List<DeviceInfoServiceBlocking> INFO_SERVICES = new ArrayList<>();
+    private static final List<DeviceBookingServiceBlocking> BOOKING_SERVICES = new ArrayList<>();
+    private static final List<UndertowDeviceClusterService> CLUSTER_SERVICES = new ArrayList<>();
+
+    @BeforeAll
+    public static void before() throws IOException {
+        OkHttpClient peerHttpClient = new OkHttpClient.Builder()
+                .sslSocketFactory(
+                        SslSocketFactories.createSslSocketFactory(DeviceServiceApplication.SSL_CONFIG),
+                        SslSocketFactories.createX509TrustManager(DeviceServiceApplication.SSL_CONFIG))
+                .build();
+        List<String> nodes = new ArrayList<>();
+        for (int node = 0; node < NODES; node++) {
+            nodes.add("https://localhost:" + (FIRST_PORT + 2 * node) + "/api/");
+        }
+
+        for (int node = 0; node < NODES; node++) {
+            DatabaseBackups.deleteDatabaseFiles(databaseFile(node));
+            SERVERS.add(DeviceServiceApplication.startServer(Configuration.builder()
+                    .port(FIRST_PORT + 2 * node)
+                    .host("0.0.0.0")
+                    .firstStartupRegisterDevices(Collections.emptyList())
+                    .apiKey(Optional.empty()) // don't contact the external API in these tests
+                    .databaseUrl("jdbc:sqlite:" + databaseFile(node))
+                    .cluster(ClusterConfiguration.builder()
+                            .self(nodes.get(node))
+                            .nodes(nodes)
+                            .peerToken(PEER_TOKEN)
+                            .build())
+                    .build()));
+
+            ClientConfiguration clientConfig = ClientConfigurations.of(
+                    List.of(nodes.get(node)),
+                    SslSocketFactories.createSslSocketFactory(DeviceServiceApplication.SSL_CONFIG),
+                    SslSocketFactories.createX509TrustManager(DeviceServiceApplication.SSL_CONFIG),
+                    UserAgent.of(Agent.of("device-service-cluster-test", "0.0.0")));
+            MANAGEMENT_SERVICES.add(DialogueClients.create(DeviceManagementServiceBlocking.class, clientConfig));
+            INFO_SERVICES.add(DialogueClients.create(DeviceInfoServiceBlocking.class, clientConfig));
+            BOOKING_SERVICES.add(DialogueClients.create(DeviceBookingServiceBlocking.class, clientConfig));
+            // as the other nodes call it
+            CLUSTER_SERVICES.add(new PeerClient(peerHttpClient, HttpUrl.get(nodes.get(node)), PEER_TOKEN));
+        }
+    }
+
+    @AfterAll
+    public static void afterAll() throws IOException {
+        SERVERS.forEach(Undertow::stop);
+        for (int node = 0; node < NODES; node++) {
+            DatabaseBackups.deleteDatabaseFiles(databaseFile(node));
+        }
+    }
+
+    @AfterEach
+    void afterEach() {
+        MANAGEMENT_SERVICES.get(0).deleteAllDevices();
+    }
+
+    @Test
+    public void everyNodeListsTheDevicesOfAllTheNodes() {
+        for (int i = 0; i < 12; i++) {
+            MANAGEMENT_SERVICES.get(i % NODES).createDevice("Nokia " + i);
+        }
+
+        Set<Integer> localIds = new HashSet<>();
+        for (UndertowDeviceClusterService clusterService : CLUSTER_SERVICES) {
+            List<DeviceInfo> localDevices = clusterService.getLocalDevices();
+            assertThat(localDevices).hasSize(4); // stored on the node they were created on
+            localDevices.forEach(device -> assertThat(localIds.add(device.getId()))
+                    .as("ids are unique across the nodes")
+                    .isTrue());
+        }
+
+        for (DeviceInfoServiceBlocking infoService : INFO_SERVICES) {
+            List<DeviceInfo> devices = infoService.getAllDevices();
+            assertThat(devices).extracting(DeviceInfo::getId).containsExactlyElementsOf(localIds.stream()
+                    .sorted()
+                    .collect(Collectors.toList()));
+            assertThat(infoService.getAllAvailableDevices()).hasSize(12);
+            assertThat(infoService.getDevicesByName("Nokia 5")).hasSize(1);
+        }
+    }
+
+    @Test
+    public void callsOnADeviceAreForwardedToTheNodeOwningIt() {
+        MANAGEMENT_SERVICES.get(2).createDevice("Samsung Galaxy S9");
+        int deviceId = onlyLocalDevice(2).getId();
+
+        BOOKING_SERVICES.get(0).bookDevice(bookById("Alice", deviceId));
+
+        DeviceInfo booked = INFO_SERVICES.get(1).getDeviceById(deviceId);
+        assertThat(booked.getAvailable()).isFalse();
+        assertThat(booked.getLastBookedPersonName()).contains("Alice");
+        assertThat(onlyLocalDevice(2).getAvailable()).isFalse();
+
+        // the owner's errors reach the caller unchanged
+        Assertions.assertThatRemoteExceptionThrownBy(
+                        () -> BOOKING_SERVICES.get(1).bookDevice(bookById("Bob", deviceId)))
+                .isGeneratedFromErrorType(BookingErrors.DEVICE_NOT_AVAILABLE);
+
+        BOOKING_SERVICES.get(1).returnDevice(bookById("Alice", deviceId));
+        assertThat(INFO_SERVICES.get(0).getDeviceById(deviceId).getAvailable()).isTrue();
+
+        MANAGEMENT_SERVICES.get(0).deleteDevice(deviceId);
+        Assertions.assertThatRemoteExceptionThrownBy(() -> INFO_SERVICES.get(1).getDeviceById(deviceId))
+                .isGeneratedFromErrorType(DeviceErrors.DEVICE_ID_NOT_FOUND);
+    }
+
+    @Test
+    public void bookingByNameTakesAnAvailableDeviceFromAnyNode() {
+        MANAGEMENT_SERVICES.get(1).createDevice("Nokia 3310");
+        MANAGEMENT_SERVICES.get(2).createDevice("Nokia 3310");
+
+        BOOKING_SERVICES.get(0).bookDevice(bookByName("Alice", "Nokia 3310"));
+        BOOKING_SERVICES.get(0).bookDevice(bookByName("Bob", "Nokia 3310"));
+        Assertions.assertThatRemoteExceptionThrownBy(
+                        () -> BOOKING_SERVICES.get(0).bookDevice(bookByName("Carol", "Nokia 3310")))
+                .isGeneratedFromErrorType(BookingErrors.DEVICE_NOT_AVAILABLE);
+
+        BOOKING_SERVICES.get(2).returnDevice(bookByName("Alice", "Nokia 3310"));
+        Assertions.assertThatRemoteExceptionThrownBy(
+                        () -> BOOKING_SERVICES.get(2).returnDevice(bookByName("Alice", "Nokia 3310")))
+                .isGeneratedFromErrorType(BookingErrors.NO_PERSON_WITH_GIVEN_BOOKED_DEVICE);
+        assertThat(INFO_SERVICES.get(1).getAllAvailableDevices()).hasSize(1);
+    }
+
+    @Test
+    public void batchBookingIsRejectedInACluster() {
+        MANAGEMENT_SERVICES.get(1).createDevice("Nokia 3310");
+
+        Assertions.assertThatRemoteExceptionThrownBy(() -> BOOKING_SERVICES
+                        .get(0)
+                        .bookDevices(List.of(bookByName("Alice", "Nokia 3310"))))
+                .isGeneratedFromErrorType(BookingErrors.BATCH_BOOKING_NOT_SUPPORTED_IN_CLUSTER);
+        assertThat(INFO_SERVICES.get(1).getAllAvailableDevices()).hasSize(1);
+    }
+
+    @Test
+    public void devicesByIdsComeBackInTheOrderOfTheIds() {
+        for (int node = 0; node < NODES; node++) {
+            MANAGEMENT_SERVICES.get(node).createDevice("Nokia " + node);
+        }
+        List<Integer> ids = List.of(
+                onlyLocalDevice(2).getId(), onlyLocalDevice(0).getId(), onlyLocalDevice(1).getId(), 999_999);
+
+        assertThat(INFO_SERVICES.get(1).getDevicesByIds(ids))
+                .extracting(DeviceInfo::getName)
+                .containsExactly("Nokia 2", "Nokia 0", "Nokia 1");
+    }
+
+    @Test
+    public void deletingAllDevicesEmptiesEveryNode() {
+        for (int node = 0; node < NODES; node++) {
+            MANAGEMENT_SERVICES.get(node).createDevice("Nokia");
+        }
+
+        MANAGEMENT_SERVICES.get(1).deleteAllDevices();
+
+        CLUSTER_SERVICES.forEach(clusterService -> assertThat(clusterService.getLocalDevices()).isEmpty());
+        Assertions.assertThatRemoteExceptionThrownBy(() -> INFO_SERVICES.get(0).getDevicesByName("Nokia"))
+                .isGeneratedFromErrorType(DeviceErrors.DEVICE_NAME_NOT_FOUND);
+    }
+
+    @Test
+    public void onlyThePeersMayCallThePeerApi() throws Exception {
+        assertThat(peerApiStatus(Optional.empty())).isEqualTo(401);
+        assertThat(peerApiStatus(Optional.of("Bearer guessed-token"))).isEqualTo(401);
+        assertThat(peerApiStatus(Optional.of("Bearer " + PEER_TOKEN))).isEqualTo(200);
+    }
+
+    private static int peerApiStatus(Optional<String> authorization) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + (FIRST_PORT + 1) + "/api/v1/cluster/devices"));
+        authorization.ifPresent(value -> request.header("Authorization", value));
+        return HttpClient.newHttpClient()
+                .send(request.build(), HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+
+    private static DeviceInfo onlyLocalDevice(int node) {
+        List<DeviceInfo> localDevices = CLUSTER_SERVICES.get(node).getLocalDevices();
+        assertThat(localDevices).hasSize(1);
+        return localDevices.get(0);
+    }
+
+    private static BookingRequest bookById(String person, int deviceId) {
+        return BookingRequest.builder().person(person).deviceId(deviceId).build();
+    }
+
+    private static BookingRequest bookByName(String person, String deviceName) {
+        return BookingRequest.builder().person(person).deviceName(deviceName).build();
+    }
+
+    private static Path databaseFile(int node) {
+        return Path.of("var/db/cluster-node-" + node + ".db");
+    }
+}
@@ -17,11 +17,19 @@
 package com.achomutovskij.deviceservice;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 import com.achomutovskij.deviceservice.api.BookingErrors;
 import com.achomutovskij.deviceservice.api.BookingRequest;
 import com.achomutovskij.deviceservice.api.DeviceErrors;
+import com.achomutovskij.deviceservice.api.DeviceHolderStatistics;
 import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.api.GsmArenaDatasetReload;
+import com.achomutovskij.deviceservice.api.InventoryStatistics;
+import com.achomutovskij.deviceservice.api.MemoryReport;
+import com.achomutovskij.deviceservice.api.MemoryUsage;
+import com.achomutovskij.deviceservice.api.ModelStatistics;
+import com.achomutovskij.deviceservice.api.RenewLeaseRequest;
 import com.achomutovskij.deviceservice.booking.api.DeviceBookingServiceBlocking;
 import com.achomutovskij.deviceservice.info.api.DeviceInfoServiceBlocking;
 import com.achomutovskij.deviceservice.management.api.DeviceManagementServiceBlocking;
@@ -32,12 +40,21 @@ import com.palantir.conjure.java.api.testing.Assertions;
 import com.palantir.conjure.java.client.config.ClientConfiguration;
 import com.palantir.conjure.java.client.config.ClientConfigurations;
 import com.palantir.dialogue.clients.DialogueClients;
+import com.palantir.dialogue.serde.Encoding;
+import com.palantir.dialogue.serde.Encodings;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import io.undertow.Undertow;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -48,11 +65,17 @@ import java.security.cert.CertificateFactory;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
@@ -69,6 +92,7 @@ public class DeviceServiceApplicationTest {
     private static DeviceBookingServiceBlocking deviceBookingService;
 
     private static Undertow server;
+    private static SSLContext sslContext;
 
     @BeforeAll
     public static void before()
@@ -94,7 +118,7 @@ public class DeviceServiceApplicationTest {
         trustManagerFactory.init(keyStore);
 
         TrustManager[] trustManager = trustManagerFactory.getTrustManagers();
-        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext = SSLContext.getInstance("TLS");
         sslContext.init(null, trustManager, null);
 
         ClientConfiguration clientConfig = ClientConfigurations.of(
@@ -169,6 +193,56 @@ public class DeviceServiceApplicationTest {
         assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(2);
     }
 
+    @Test
+    public void getDevicesByIds() {
+        deviceManagementService.createDevice("Nokia");
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        int nokiaId = deviceInfoService.getDevicesByName("Nokia").get(0).getId();
+        int galaxyId = deviceInfoService.getDevicesByName("Samsung Galaxy S9").get(0).getId();
+
+        List<DeviceInfo> devices = deviceInfoService.getDevicesByIds(
+                List.of(galaxyId, nokiaId, galaxyId, Math.max(nokiaId, galaxyId) + 1));
+        assertThat(devices).extracting(DeviceInfo::getId).containsExactly(galaxyId, nokiaId);
+        assertThat(devices.get(0).getTechnology()).contains("GSM / CDMA / HSPA / EVDO / LTE");
+    }
+
+    @Test
+    public void getDevicesByIdsRejectsTooManyIds() {
+        deviceManagementService.createDevice("Nokia");
+        int nokiaId = deviceInfoService.getDevicesByName("Nokia").get(0).getId();
+
+        assertThat(deviceInfoService.getDevicesByIds(Collections.nCopies(1_000, nokiaId)))
+                .extracting(DeviceInfo::getId)
+                .containsExactly(nokiaId);
+        Assertions.assertThatRemoteExceptionThrownBy(
+                        () -> deviceInfoService.getDevicesByIds(Collections.nCopies(1_001, nokiaId)))
+                .isGeneratedFromErrorType(DeviceErrors.TOO_MANY_DEVICE_IDS);
+    }
+
+    @Test
+    public void inventoryStatisticsFollowBookings() {
+        deviceManagementService.createDevice("Nokia");
+        deviceManagementService.createDevice("Nokia");
+        deviceManagementService.createDevice("iPhone 14");
+        deviceBookingService.bookDevice(byName("Andrej", "Nokia"));
+        deviceBookingService.bookDevice(byName("Andrej", "iPhone 14"));
+        deviceBookingService.bookDevice(byName("Peter", "Nokia"));
+        deviceBookingService.returnDevice(byName("Andrej", "iPhone 14"));
+
+        InventoryStatistics statistics = deviceInfoService.getInventoryStatistics();
+        assertThat(statistics.getTotalDevices()).isEqualTo(3);
+        assertThat(statistics.getAvailableDevices()).isEqualTo(1);
+        assertThat(statistics.getBookedDevices()).isEqualTo(2);
+        assertThat(statistics.getUtilization()).isCloseTo(2.0 / 3, within(1e-9));
+        assertThat(statistics.getModels())
+                .containsExactly(ModelStatistics.of("Nokia", 2, 0), ModelStatistics.of("iPhone 14", 1, 1));
+        assertThat(statistics.getTopHolders())
+                .containsExactly(DeviceHolderStatistics.of("Andrej", 1), DeviceHolderStatistics.of("Peter", 1));
+
+        deviceManagementService.deleteAllDevices();
+        assertThat(deviceInfoService.getInventoryStatistics().getTotalDevices()).isZero();
+    }
+
     @Test
     public void verifyGsmArenaEnrichment() {
         String deviceName = "Samsung Galaxy S9";
@@ -188,17 +262,51 @@ public class DeviceServiceApplicationTest {
                         + " 39(1900), 40(2300), 41(2500), 66(1700/2100) - Global");
     }
 
+    @Test
+    public void reloadedGsmArenaDatasetIsSwappedIn() {
+        GsmArenaDatasetReload reload = deviceManagementService.reloadGsmArenaDataset();
+        assertThat(reload.getDevices()).isPositive();
+
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        assertThat(deviceInfoService.getDevicesByName("Samsung Galaxy S9").get(0).getTechnology())
+                .contains("GSM / CDMA / HSPA / EVDO / LTE");
+    }
+
+    @Test
+    public void memoryReportCoversTheCachesAndIndexes() {
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        // waits for the dataset to be loaded
+        assertThat(deviceInfoService.getDevicesByName("Samsung Galaxy S9")).hasSize(1);
+
+        MemoryReport report = deviceManagementService.getMemoryReport();
+        // no API key, so no Rapid API cache
+        assertThat(report.getComponents())
+                .extracting(MemoryUsage::getComponent)
+                .containsExactly("capabilityIndex", "gsmArenaDataset");
+        assertThat(report.getComponents().get(0).getEntries().longValue()).isEqualTo(1);
+
+        MemoryUsage dataset = report.getComponents().get(1);
+        assertThat(dataset.getEntries().longValue()).isPositive();
+        assertThat(dataset.getApproximateBytes().longValue())
+                .isPositive()
+                .isLessThan(report.getHeapUsedBytes().longValue());
+        assertThat(dataset.getBudgetBytes()).isEmpty();
+        assertThat(dataset.getOverBudget()).isFalse();
+        assertThat(report.getHeapUsedBytes().longValue())
+                .isLessThanOrEqualTo(report.getHeapCommittedBytes().longValue());
+    }
+
     @Test
     public void bookAndReturnByName() {
-        BookingRequest bookingRequest = BookingRequest.of("Andrej", "iPhone 14", OptionalInt.empty());
+        BookingRequest bookingRequest = byName("Andrej", "iPhone 14");
 
         deviceManagementService.createDevice("iPhone 14");
         deviceBookingService.bookDevice(bookingRequest);
         assertThat(deviceInfoService.getAllAvailableDevices()).isEmpty();
         assertThat(deviceInfoService.getAllDevices()).hasSize(1);
 
-        Assertions.assertThatRemoteExceptionThrownBy(() ->
-                        deviceBookingService.bookDevice(BookingRequest.of("Peter", "iPhone 14", OptionalInt.empty())))
+        Assertions.assertThatRemoteExceptionThrownBy(
+                        () -> deviceBookingService.bookDevice(byName("Peter", "iPhone 14")))
                 .isGeneratedFromErrorType(BookingErrors.DEVICE_NOT_AVAILABLE);
 
         deviceBookingService.returnDevice(bookingRequest);
@@ -206,6 +314,27 @@ public class DeviceServiceApplicationTest {
         assertThat(deviceInfoService.getAllDevices()).hasSize(1);
     }
 
+    @Test
+    public void retriedBookingWithIdempotencyKeyIsNotExecutedAgain() {
+        deviceManagementService.createDevice("iPhone 14");
+        deviceManagementService.createDevice("iPhone 14");
+        BookingRequest bookingRequest = BookingRequest.builder()
+                .person("Andrej")
+                .deviceName("iPhone 14")
+                .idempotencyKey("booking-1")
+                .build();
+
+        deviceBookingService.bookDevice(bookingRequest);
+        deviceBookingService.bookDevice(bookingRequest);
+        assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(1);
+
+        Assertions.assertThatRemoteExceptionThrownBy(() -> deviceBookingService.bookDevice(BookingRequest.builder()
+                        .from(bookingRequest)
+                        .leaseDurationSeconds(60)
+                        .build()))
+                .isGeneratedFromErrorType(BookingErrors.IDEMPOTENCY_KEY_REUSED);
+    }
+
     @Test
     public void bookAndReturnById() {
         deviceManagementService.createDevice("iPhone 14");
@@ -237,8 +366,8 @@ public class DeviceServiceApplicationTest {
         deviceManagementService.createDevice("iPhone 14");
         deviceManagementService.createDevice("iPhone 13");
 
-        deviceBookingService.bookDevice(BookingRequest.of("Andrej", "iPhone 14", OptionalInt.empty()));
-        deviceBookingService.bookDevice(BookingRequest.of("Andrej", "iPhone 13", OptionalInt.empty()));
+        deviceBookingService.bookDevice(byName("Andrej", "iPhone 14"));
+        deviceBookingService.bookDevice(byName("Andrej", "iPhone 13"));
         assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(0);
 
         List<DeviceInfo> iPhone14DeviceList = deviceInfoService.getDevicesByName("iPhone 14");
@@ -252,10 +381,10 @@ public class DeviceServiceApplicationTest {
         assertThat(deviceInfoService.getAllDevices()).hasSize(3);
         assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(1);
 
-        deviceBookingService.bookDevice(BookingRequest.of("Peter", "iPhone 14", OptionalInt.empty()));
+        deviceBookingService.bookDevice(byName("Peter", "iPhone 14"));
         assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(0);
 
-        deviceBookingService.returnDevice(BookingRequest.of("Andrej", "iPhone 14", OptionalInt.empty()));
+        deviceBookingService.returnDevice(byName("Andrej", "iPhone 14"));
         assertThat(deviceInfoService.getAllDevices()).hasSize(3);
         assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(1);
         assertThat(deviceInfoService.getDeviceById(iphone14IdThatAndrejUsed).getAvailable())
@@ -263,8 +392,273 @@ public class DeviceServiceApplicationTest {
 
         deviceManagementService.createDevice("iPhone X");
 
-        deviceBookingService.bookDevice(BookingRequest.of("Peter", "iPhone 14", OptionalInt.empty()));
+        deviceBookingService.bookDevice(byName("Peter", "iPhone 14"));
         assertThat(deviceInfoService.getDeviceById(iphone14IdThatAndrejUsed).getLastBookedTime())
                 .isNotEqualTo(iphone14IdThatAndrejUsedTimestamp);
     }
+
+    @Test
+    public void bookDevicesIsAllOrNothing() {
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        deviceManagementService.createDevice("Motorola Nexus 6");
+
+        Assertions.assertThatRemoteExceptionThrownBy(() -> deviceBookingService.bookDevices(List.of(
+                        byName("Andrej", "Motorola Nexus 6"),
+                        BookingRequest.builder()
+                                .person("Andrej")
+                                .deviceName("Samsung Galaxy S9")
+                                .count(3)
+                                .build())))
+                .isGeneratedFromErrorType(BookingErrors.DEVICE_NOT_AVAILABLE);
+        assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(3);
+
+        List<Integer> bookedIds = deviceBookingService.bookDevices(List.of(
+                byName("Andrej", "Motorola Nexus 6"),
+                BookingRequest.builder()
+                        .person("Peter")
+                        .deviceName("Samsung Galaxy S9")
+                        .count(2)
+                        .build()));
+        assertThat(bookedIds).hasSize(3).doesNotHaveDuplicates();
+        assertThat(deviceInfoService.getDeviceById(bookedIds.get(0)).getName()).isEqualTo("Motorola Nexus 6");
+        assertThat(deviceInfoService.getDeviceById(bookedIds.get(2)).getLastBookedPersonName())
+                .contains("Peter");
+        assertThat(deviceInfoService.getAllAvailableDevices()).isEmpty();
+    }
+
+    @Test
+    public void retriedBatchBookingWithIdempotencyKeyIsNotExecutedAgain() {
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        BookingRequest bookingRequest = BookingRequest.builder()
+                .person("Andrej")
+                .deviceName("Samsung Galaxy S9")
+                .idempotencyKey("batch-1")
+                .build();
+
+        List<Integer> bookedIds = deviceBookingService.bookDevices(List.of(bookingRequest, bookingRequest));
+        assertThat(deviceBookingService.bookDevices(List.of(bookingRequest, bookingRequest)))
+                .isEqualTo(bookedIds);
+        assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(1);
+
+        Assertions.assertThatRemoteExceptionThrownBy(() -> deviceBookingService.bookDevices(List.of(bookingRequest)))
+                .isGeneratedFromErrorType(BookingErrors.IDEMPOTENCY_KEY_REUSED);
+        Assertions.assertThatRemoteExceptionThrownBy(() -> deviceBookingService.bookDevices(List.of(
+                        bookingRequest,
+                        BookingRequest.builder()
+                                .from(bookingRequest)
+                                .idempotencyKey("batch-2")
+                                .build())))
+                .isGeneratedFromErrorType(BookingErrors.INCONSISTENT_IDEMPOTENCY_KEYS);
+        assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(1);
+    }
+
+    @Test
+    public void waitingBookingIsHandedTheReturnedDevice() throws Exception {
+        deviceManagementService.createDevice("Apple iPhone 13");
+        deviceBookingService.bookDevice(byName("Andrej", "Apple iPhone 13"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> waitingBooking = executor.submit(
+                    () -> deviceBookingService.bookDeviceWhenAvailable(byName("Peter", "Apple iPhone 13"), 10_000));
+            awaitWaitingBookings(1);
+
+            deviceBookingService.returnDevice(byName("Andrej", "Apple iPhone 13"));
+
+            DeviceInfo booked = deviceInfoService.getDeviceById(waitingBooking.get(15, TimeUnit.SECONDS));
+            assertThat(booked.getAvailable()).isFalse();
+            assertThat(booked.getLastBookedPersonName()).contains("Peter");
+            assertThat(deviceInfoService.getAllAvailableDevices()).isEmpty();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitingBookingsAreHandedTheDeviceInTheOrderTheyCame() throws Exception {
+        deviceManagementService.createDevice("Apple iPhone 13");
+        deviceBookingService.bookDevice(byName("Andrej", "Apple iPhone 13"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> petersBooking = executor.submit(
+                    () -> deviceBookingService.bookDeviceWhenAvailable(byName("Peter", "Apple iPhone 13"), 10_000));
+            awaitWaitingBookings(1);
+            Future<Integer> mariasBooking = executor.submit(
+                    () -> deviceBookingService.bookDeviceWhenAvailable(byName("Maria", "Apple iPhone 13"), 10_000));
+            awaitWaitingBookings(2);
+
+            deviceBookingService.returnDevice(byName("Andrej", "Apple iPhone 13"));
+            int deviceId = petersBooking.get(15, TimeUnit.SECONDS);
+            assertThat(deviceInfoService.getDeviceById(deviceId).getLastBookedPersonName()).contains("Peter");
+            assertThat(mariasBooking.isDone()).isFalse();
+
+            deviceBookingService.returnDevice(byName("Peter", "Apple iPhone 13"));
+            assertThat(mariasBooking.get(15, TimeUnit.SECONDS)).isEqualTo(deviceId);
+            assertThat(deviceInfoService.getDeviceById(deviceId).getLastBookedPersonName()).contains("Maria");
+            awaitWaitingBookings(0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitingBookingTimesOut() {
+        deviceManagementService.createDevice("Apple iPhone 13");
+        deviceBookingService.bookDevice(byName("Andrej", "Apple iPhone 13"));
+
+        Assertions.assertThatRemoteExceptionThrownBy(
+                        () -> deviceBookingService.bookDeviceWhenAvailable(byName("Peter", "Apple iPhone 13"), 100))
+                .isGeneratedFromErrorType(BookingErrors.DEVICE_NOT_AVAILABLE);
+    }
+
+    @Test
+    public void expiredLeaseIsReclaimed() throws InterruptedException {
+        deviceManagementService.createDevice("Motorola Nexus 6");
+        deviceBookingService.bookDevice(BookingRequest.builder()
+                .person("Andrej")
+                .deviceName("Motorola Nexus 6")
+                .leaseDurationSeconds(1)
+                .build());
+
+        DeviceInfo booked = deviceInfoService.getDevicesByName("Motorola Nexus 6").get(0);
+        assertThat(booked.getAvailable()).isFalse();
+        assertThat(booked.getLeaseExpiresAt()).isPresent();
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (deviceInfoService.getAllAvailableDevices().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(deviceInfoService.getAllAvailableDevices()).hasSize(1);
+        assertThat(deviceInfoService.getDeviceById(booked.getId()).getLeaseExpiresAt())
+                .isEmpty();
+    }
+
+    @Test
+    public void renewedLeaseIsExtended() {
+        deviceManagementService.createDevice("Motorola Nexus 6");
+        deviceBookingService.bookDevice(BookingRequest.builder()
+                .person("Andrej")
+                .deviceName("Motorola Nexus 6")
+                .leaseDurationSeconds(60)
+                .build());
+        int deviceId = deviceInfoService.getDevicesByName("Motorola Nexus 6").get(0).getId();
+
+        OffsetDateTime renewedUntil = deviceBookingService.renewLease(RenewLeaseRequest.of("Andrej", deviceId, 3_600));
+        assertThat(deviceInfoService.getDeviceById(deviceId).getLeaseExpiresAt())
+                .hasValueSatisfying(leaseExpiresAt -> assertThat(leaseExpiresAt).isEqualTo(renewedUntil));
+
+        Assertions.assertThatRemoteExceptionThrownBy(
+                        () -> deviceBookingService.renewLease(RenewLeaseRequest.of("Peter", deviceId, 3_600)))
+                .isGeneratedFromErrorType(BookingErrors.NO_PERSON_WITH_GIVEN_BOOKED_DEVICE);
+    }
+
+    @Test
+    public void responsesCarryTheServerTiming() throws Exception {
+        deviceManagementService.createDevice("Nokia 3310");
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8346/api/v1/info/all"))
+                .build();
+        HttpResponse<Void> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.discarding());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue("Server-Timing"))
+                .hasValueSatisfying(serverTiming -> assertThat(serverTiming)
+                        .contains("db;dur=", "enrich;dur=", "gsm-arena;dur=", "total;dur="));
+    }
+
+    @Test
+    public void largeResponsesAreCompressed() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            deviceManagementService.createDevice("Nokia 3310");
+        }
+        int deviceId = deviceInfoService.getAllDevices().get(0).getId();
+
+        HttpResponse<byte[]> allDevices = getAcceptingGzip("v1/info/all");
+        assertThat(allDevices.headers().firstValue("Content-Encoding")).hasValue("gzip");
+        try (InputStream body = new GZIPInputStream(new ByteArrayInputStream(allDevices.body()))) {
+            assertThat(new String(body.readAllBytes(), StandardCharsets.UTF_8)).contains("\"Nokia 3310\"");
+        }
+
+        // below the threshold
+        HttpResponse<byte[]> oneDevice = getAcceptingGzip("v1/info/byid/" + deviceId);
+        assertThat(oneDevice.statusCode()).isEqualTo(200);
+        assertThat(oneDevice.headers().firstValue("Content-Encoding")).isEmpty();
+    }
+
+    @Test
+    public void httpsListenerNegotiatesHttp2() throws Exception {
+        HttpResponse<Void> response = HttpClient.newBuilder()
+                .sslContext(sslContext)
+                .build()
+                .send(
+                        HttpRequest.newBuilder(URI.create("https://localhost:8345/api/v1/info/all"))
+                                .build(),
+                        HttpResponse.BodyHandlers.discarding());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.version()).isEqualTo(HttpClient.Version.HTTP_2);
+    }
+
+    @Test
+    public void infoServiceNegotiatesBinaryEncodings() throws Exception {
+        deviceManagementService.createDevice("Nokia 3310");
+        deviceManagementService.createDevice("Samsung Galaxy S9");
+        deviceBookingService.bookDevice(byName("Andrej", "Nokia 3310"));
+        List<DeviceInfo> devices = deviceInfoService.getAllDevices();
+
+        for (Encoding encoding : List.of(Encodings.smile(), Encodings.cbor())) {
+            DeviceServiceClients clients = new DeviceServiceClients(
+                    URI.create("https://localhost:8345"), OptionalInt.empty(), Optional.of(encoding));
+            assertThat(clients.infoService().getAllDevices()).isEqualTo(devices);
+        }
+
+        for (String contentType : List.of("application/x-jackson-smile", "application/cbor")) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8346/api/v1/info/all"))
+                    .header("Accept", contentType)
+                    .build();
+            HttpResponse<Void> response = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .build()
+                    .send(request, HttpResponse.BodyHandlers.discarding());
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.headers().firstValue("Content-Type"))
+                    .hasValueSatisfying(value -> assertThat(value).startsWith(contentType));
+        }
+    }
+
+    /** Waits until the given number of callers are queued for a device, so that a return is handed to them. */
+    private static void awaitWaitingBookings(int waiters) throws IOException, InterruptedException {
+        String metric = "booking.waiters " + waiters + "\n";
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!metrics().contains(metric) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(metrics()).contains(metric);
+    }
+
+    private static String metrics() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8346/status/metrics"))
+                .build();
+        return HttpClient.newHttpClient()
+                .send(request, HttpResponse.BodyHandlers.ofString())
+                .body();
+    }
+
+    private static HttpResponse<byte[]> getAcceptingGzip(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8346/api/" + path))
+                .header("Accept-Encoding", "gzip")
+                .build();
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build()
+                .send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static BookingRequest byName(String person, String deviceName) {
+        return BookingRequest.builder().person(person).deviceName(deviceName).build();
+    }
 }
@@ -27,6 +27,8 @@ import com.palantir.conjure.java.api.config.service.UserAgent;
 import com.palantir.conjure.java.api.config.service.UserAgent.Agent;
 import com.palantir.dialogue.clients.DialogueClients;
 import com.palantir.dialogue.clients.DialogueClients.ReloadingFactory;
+import com.palantir.dialogue.serde.DefaultConjureRuntime;
+import com.palantir.dialogue.serde.Encoding;
 import com.palantir.refreshable.Refreshable;
 import java.net.URI;
 import java.util.Optional;
@@ -42,7 +44,7 @@ final class DeviceServiceClients {
     private static final String INFO_SERVICE = "info-service";
     private static final String INFO_SERVICE_PATH = "/api/v1/info";
 
-    private static final String BOOKING_SERVICE = "info-service";
+    private static final String BOOKING_SERVICE = "booking-service";
     private static final String BOOKING_SERVICE_PATH = "/api/v1/booking";
 
     private final Supplier<DeviceManagementServiceBlocking> deviceManagementService;
@@ -50,6 +52,14 @@ final class DeviceServiceClients {
     private final Supplier<DeviceBookingServiceBlocking> deviceBookingService;
 
     DeviceServiceClients(URI baseUrl, OptionalInt maxNumRetries) {
+        this(baseUrl, maxNumRetries, Optional.empty());
+    }
+
+    /**
+     * @param infoEncoding the only encoding the info service client accepts, e.g. {@code Encodings.smile()} for the
+     *     server to answer it in SMILE instead of JSON
+     */
+    DeviceServiceClients(URI baseUrl, OptionalInt maxNumRetries, Optional<Encoding> infoEncoding) {
         ReloadingFactory dialogueClients = DialogueClients.create(Refreshable.only(ServicesConfigBlock.builder()
                         .defaultSecurity(DeviceServiceApplication.SSL_CONFIG)
                         .defaultConnectTimeout(HumanReadableDuration.seconds(30))
@@ -89,6 +99,11 @@ final class DeviceServiceClients {
             if (maxNumRetries.isPresent()) {
                 clientFactory = clientFactory.withMaxNumRetries(maxNumRetries.getAsInt());
             }
+            if (infoEncoding.isPresent()) {
+                clientFactory = clientFactory.withRuntime(DefaultConjureRuntime.builder()
+                        .encodings(infoEncoding.get())
+                        .build());
+            }
             return clientFactory.get(DeviceInfoServiceBlocking.class, INFO_SERVICE);
         });
 
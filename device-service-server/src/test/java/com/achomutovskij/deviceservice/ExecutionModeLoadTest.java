@@ -0,0 +1,185 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.undertow.Undertow;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Drives the same read-heavy load against the server in both execution modes and prints the latency and throughput
+ * of each. Only runs through {@code ./gradlew loadTest}.
+ */
+@EnabledIfSystemProperty(named = "deviceservice.loadtest", matches = "true")
+public class ExecutionModeLoadTest {
+
+    private static final int PORT = 8345;
+    private static final int DEVICES = 50;
+    private static final int CONCURRENT_CLIENTS = 500;
+    private static final int REQUESTS_PER_CLIENT = 20;
+    // Undertow's default of eight workers per IO thread, with room to queue every client instead of turning them away
+    private static final ServiceExecutorsConfiguration SERVICE_EXECUTORS = ServiceExecutorsConfiguration.builder()
+            .info(ServiceExecutorConfiguration.builder()
+                    .threads(64)
+                    .queueSize(CONCURRENT_CLIENTS)
+                    .build())
+            .build();
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void compareExecutionModes() throws Exception {
+        LoadResult platformThreads = runLoad(ExecutionMode.PLATFORM_THREADS);
+        LoadResult virtualThreads = runLoad(ExecutionMode.VIRTUAL_THREADS);
+
+        System.out.println(platformThreads);
+        System.out.println(virtualThreads);
+
+        assertThat(platformThreads.rejected()).isZero();
+        assertThat(platformThreads.failures()).isZero();
+        assertThat(virtualThreads.rejected()).isZero();
+        assertThat(virtualThreads.failures()).isZero();
+    }
+
+    /**
+     * Each run gets a database of its own: only the listeners are stopped after a run, the database manager of the
+     * first run (its pool and its lease reaper) would otherwise keep working on the database of the second.
+     */
+    private LoadResult runLoad(ExecutionMode executionMode) throws Exception {
+        Undertow server = DeviceServiceApplication.startServer(Configuration.builder()
+                .port(PORT)
+                .host("0.0.0.0")
+                .firstStartupRegisterDevices(Collections.emptyList())
+                .apiKey(Optional.empty())
+                .databaseUrl("jdbc:sqlite:" + tempDir.resolve(executionMode + ".db"))
+                .executionMode(executionMode)
+                .serviceExecutors(SERVICE_EXECUTORS)
+                .build());
+
+        try {
+            send("DELETE", "management/delete/all");
+            for (int i = 0; i < DEVICES; i++) {
+                send("POST", "management/create/Samsung%20Galaxy%20S9");
+            }
+
+            List<Long> latenciesNanos = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger rejected = new AtomicInteger();
+            AtomicInteger failures = new AtomicInteger();
+
+            long start = System.nanoTime();
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int client = 0; client < CONCURRENT_CLIENTS; client++) {
+                    futures.add(clients.submit(() -> {
+                        for (int request = 0; request < REQUESTS_PER_CLIENT; request++) {
+                            long requestStart = System.nanoTime();
+                            try {
+                                int status = send("GET", "info/all");
+                                if (status == 503) {
+                                    rejected.incrementAndGet();
+                                } else if (status != 200) {
+                                    failures.incrementAndGet();
+                                }
+                            } catch (Exception e) {
+                                failures.incrementAndGet();
+                            }
+                            latenciesNanos.add(System.nanoTime() - requestStart);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            send("DELETE", "management/delete/all");
+            return LoadResult.of(executionMode, latenciesNanos, rejected.get(), failures.get(), elapsedNanos);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private int send(String method, String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + (PORT + 1) + "/api/v1/" + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(60))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    /** Rejected counts the 503s of full service executors, failures the other errors. */
+    private record LoadResult(
+            ExecutionMode executionMode,
+            int requests,
+            int rejected,
+            int failures,
+            double requestsPerSecond,
+            long p50Ms,
+            long p99Ms) {
+
+        static LoadResult of(
+                ExecutionMode executionMode,
+                List<Long> latenciesNanos,
+                int rejected,
+                int failures,
+                long elapsedNanos) {
+            List<Long> sorted = new ArrayList<>(latenciesNanos);
+            Collections.sort(sorted);
+            return new LoadResult(
+                    executionMode,
+                    sorted.size(),
+                    rejected,
+                    failures,
+                    sorted.size() / (elapsedNanos / 1e9),
+                    percentileMs(sorted, 0.50),
+                    percentileMs(sorted, 0.99));
+        }
+
+        private static long percentileMs(List<Long> sorted, double percentile) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int index = Math.min(sorted.size() - 1, (int) Math.ceil(percentile * sorted.size()) - 1);
+            return Duration.ofNanos(sorted.get(Math.max(0, index))).toMillis();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.api.BookingErrors;
+import com.achomutovskij.deviceservice.api.BookingRequest;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.booking.api.DeviceBookingServiceBlocking;
+import com.achomutovskij.deviceservice.database.DatabaseBackups;
+import com.achomutovskij.deviceservice.info.api.DeviceInfoServiceBlocking;
+import com.achomutovskij.deviceservice.management.api.DeviceManagementServiceBlocking;
+import com.achomutovskij.deviceservice.replication.FollowerHandler;
+import com.palantir.conjure.java.api.config.service.UserAgent;
+import com.palantir.conjure.java.api.config.service.UserAgent.Agent;
+import com.palantir.conjure.java.api.testing.Assertions;
+import com.palantir.conjure.java.client.config.ClientConfiguration;
+import com.palantir.conjure.java.client.config.ClientConfigurations;
+import com.palantir.conjure.java.config.ssl.SslSocketFactories;
+import com.palantir.dialogue.clients.DialogueClients;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Runs a leader and a follower of it on localhost and checks that the follower keeps up with the leader. */
+public class FollowerTest {
+
+    private static final int LEADER_PORT = 8545; // each node also takes the next port for plain HTTP
+    private static final int FOLLOWER_PORT = 8547;
+    private static final String LEADER = "https://localhost:" + LEADER_PORT + "/api/";
+    private static final Path LEADER_DATABASE = Paths.get("var/db/follower-test-leader.db");
+    private static final String REPLICATION_TOKEN = "follower-test-replication-token";
+
+    private static Undertow leader;
+    private static Undertow follower;
+    private static DeviceManagementServiceBlocking leaderManagementService;
+    private static DeviceBookingServiceBlocking leaderBookingService;
+    private static DeviceInfoServiceBlocking leaderInfoService;
+    private static DeviceInfoServiceBlocking followerInfoService;
+
+    @BeforeAll
+    public static void before() throws IOException {
+        DatabaseBackups.deleteDatabaseFiles(LEADER_DATABASE);
+        leader = DeviceServiceApplication.startServer(configuration(LEADER_PORT)
+                .databaseUrl("jdbc:sqlite:" + LEADER_DATABASE)
+                .replicationToken(REPLICATION_TOKEN)
+                .build());
+        follower = DeviceServiceApplication.startServer(configuration(FOLLOWER_PORT)
+                .follower(FollowerConfiguration.builder()
+                        .leader(LEADER)
+                        .leaderToken(REPLICATION_TOKEN)
+                        .pollWaitMillis(200)
+                        .build())
+                .build());
+
+        ClientConfiguration leaderConfig = clientConfiguration(LEADER);
+        leaderManagementService = DialogueClients.create(DeviceManagementServiceBlocking.class, leaderConfig);
+        leaderBookingService = DialogueClients.create(DeviceBookingServiceBlocking.class, leaderConfig);
+        leaderInfoService = DialogueClients.create(DeviceInfoServiceBlocking.class, leaderConfig);
+        followerInfoService = DialogueClients.create(
+                DeviceInfoServiceBlocking.class, clientConfiguration("https://localhost:" + FOLLOWER_PORT + "/api/"));
+    }
+
+    @AfterAll
+    public static void afterAll() throws IOException {
+        follower.stop();
+        leader.stop();
+        DatabaseBackups.deleteDatabaseFiles(LEADER_DATABASE);
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        leaderManagementService.deleteAllDevices();
+        awaitReplicated();
+    }
+
+    @Test
+    public void followerServesTheDevicesOfTheLeader() throws InterruptedException {
+        leaderManagementService.createDevice("Nokia 3310");
+        leaderManagementService.createDevice("Nokia 3310");
+        leaderManagementService.createDevice("Motorola Nexus 6");
+        leaderBookingService.bookDevice(BookingRequest.builder()
+                .person("Andrej")
+                .deviceName("Nokia 3310")
+                .leaseDurationSeconds(60)
+                .build());
+
+        awaitReplicated();
+
+        assertThat(followerInfoService.getAllDevices()).hasSize(3);
+        assertThat(followerInfoService.getAllAvailableDevices()).hasSize(2);
+    }
+
+    @Test
+    public void followerFollowsReturnsAndDeletions() throws InterruptedException {
+        leaderManagementService.createDevice("Nokia 3310");
+        leaderManagementService.createDevice("Motorola Nexus 6");
+        List<DeviceInfo> devices = leaderInfoService.getAllDevices();
+        BookingRequest booking = BookingRequest.builder()
+                .person("Andrej")
+                .deviceName("Nokia 3310")
+                .build();
+        leaderBookingService.bookDevice(booking);
+        awaitReplicated();
+
+        leaderBookingService.returnDevice(booking);
+        leaderManagementService.deleteDevice(devices.get(1).getId());
+        awaitReplicated();
+
+        assertThat(followerInfoService.getAllAvailableDevices())
+                .extracting(DeviceInfo::getId)
+                .containsExactly(devices.get(0).getId());
+    }
+
+    @Test
+    public void bookingsMadeOnTheFollowerAreMadeOnTheLeader() throws InterruptedException {
+        leaderManagementService.createDevice("Nokia 3310");
+        awaitReplicated();
+        DeviceBookingServiceBlocking followerBookingService = new DeviceServiceClients(
+                        URI.create("https://localhost:" + FOLLOWER_PORT), OptionalInt.empty())
+                .bookingService();
+
+        followerBookingService.bookDevice(BookingRequest.builder()
+                .person("Andrej")
+                .deviceName("Nokia 3310")
+                .build());
+        assertThat(leaderInfoService.getAllDevices())
+                .singleElement()
+                .satisfies(device -> {
+                    assertThat(device.getAvailable()).isFalse();
+                    assertThat(device.getLastBookedPersonName()).contains("Andrej");
+                });
+
+        // the leader's errors reach the caller unchanged
+        BookingRequest petersBooking = BookingRequest.builder()
+                .person("Peter")
+                .deviceName("Nokia 3310")
+                .build();
+        Assertions.assertThatRemoteExceptionThrownBy(() -> followerBookingService.bookDevice(petersBooking))
+                .isGeneratedFromErrorType(BookingErrors.DEVICE_NOT_AVAILABLE);
+
+        awaitReplicated();
+        assertThat(followerInfoService.getAllAvailableDevices()).isEmpty();
+    }
+
+    @Test
+    public void onlyTheFollowersMayReadTheChanges() throws IOException, InterruptedException {
+        URI snapshot = URI.create("http://localhost:" + (LEADER_PORT + 1) + "/api/v1/replication/snapshot");
+
+        HttpResponse<Void> withoutToken = HttpClient.newHttpClient()
+                .send(HttpRequest.newBuilder(snapshot).build(), HttpResponse.BodyHandlers.discarding());
+        HttpResponse<Void> withToken = HttpClient.newHttpClient()
+                .send(
+                        HttpRequest.newBuilder(snapshot)
+                                .header("Authorization", "Bearer " + REPLICATION_TOKEN)
+                                .build(),
+                        HttpResponse.BodyHandlers.discarding());
+
+        assertThat(withoutToken.statusCode()).isEqualTo(401);
+        assertThat(withToken.statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    public void followerResponsesSayHowStaleTheyMayBe() throws IOException, InterruptedException {
+        awaitReplicated();
+
+        HttpResponse<String> response = HttpClient.newHttpClient()
+                .send(
+                        HttpRequest.newBuilder(followerHttpUri("v1/info/all")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue(FollowerHandler.STALENESS_HEADER.toString()))
+                .hasValueSatisfying(staleness -> assertThat(Long.parseLong(staleness))
+                        .isBetween(0L, 10_000L));
+    }
+
+    /** Waits for the follower to have the same devices as the leader, in the same state. */
+    private static void awaitReplicated() throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!states(followerInfoService).equals(states(leaderInfoService)) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(states(followerInfoService)).isEqualTo(states(leaderInfoService));
+    }
+
+    private static List<String> states(DeviceInfoServiceBlocking infoService) {
+        return infoService.getAllDevices().stream()
+                .map(device -> device.getId() + " " + device.getName() + " " + device.getAvailable() + " "
+                        + device.getLastBookedPersonName() + " " + device.getLeaseExpiresAt())
+                .collect(Collectors.toList());
+    }
+
+    private static URI followerHttpUri(String path) {
+        return URI.create("http://localhost:" + (FOLLOWER_PORT + 1) + "/api/" + path);
+    }
+
+    private static Configuration.Builder configuration(int port) {
+        return Configuration.builder()
+                .port(port)
+                .host("0.0.0.0")
+                .firstStartupRegisterDevices(Collections.emptyList())
+                .apiKey(Optional.empty()); // don't contact the external API in these tests
+    }
+
+    private static ClientConfiguration clientConfiguration(String uri) {
+        return ClientConfigurations.of(
+                List.of(uri),
+                SslSocketFactories.createSslSocketFactory(DeviceServiceApplication.SSL_CONFIG),
+                SslSocketFactories.createX509TrustManager(DeviceServiceApplication.SSL_CONFIG),
+                UserAgent.of(Agent.of("device-service-follower-test", "0.0.0")));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.undertow.Undertow;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Measures the bytes sent and the time taken for a large device listing with and without compression, to back the
+ * compression threshold and the buffer size. Only runs through {@code ./gradlew loadTest}.
+ */
+@EnabledIfSystemProperty(named = "deviceservice.loadtest", matches = "true")
+public class ResponseCompressionLoadTest {
+
+    private static final int PORT = 8345;
+    private static final int DEVICES = 2_000;
+    private static final int WARMUP_REQUESTS = 50;
+    private static final int MEASURED_REQUESTS = 200;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+
+    @AfterAll
+    public static void afterAll() throws SQLException {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(DeviceServiceApplication.SQLITE_URL);
+
+        try (HikariDataSource dataSource = new HikariDataSource(config);
+                Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE devices;");
+        }
+    }
+
+    @Test
+    public void compareCompressedAndPlainListings() throws Exception {
+        Undertow server = DeviceServiceApplication.startServer(Configuration.builder()
+                .port(PORT)
+                .host("0.0.0.0")
+                .firstStartupRegisterDevices(Collections.nCopies(DEVICES, "Samsung Galaxy S9"))
+                .apiKey(Optional.empty())
+                .build());
+
+        try {
+            Result plain = measure("identity");
+            Result gzip = measure("gzip");
+
+            System.out.println(plain);
+            System.out.println(gzip);
+
+            assertThat(gzip.responseBytes()).isLessThan(plain.responseBytes());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private Result measure(String acceptEncoding) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + (PORT + 1) + "/api/v1/info/all"))
+                .header("Accept-Encoding", acceptEncoding)
+                .timeout(Duration.ofSeconds(60))
+                .build();
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        }
+
+        long responseBytes = 0;
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_REQUESTS; i++) {
+            responseBytes = httpClient
+                    .send(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .body()
+                    .length;
+        }
+        long meanMicros = (System.nanoTime() - startNanos) / MEASURED_REQUESTS / 1_000;
+        return new Result(acceptEncoding, DEVICES, responseBytes, meanMicros);
+    }
+
+    private record Result(String encoding, int devices, long responseBytes, long meanMicros) {}
+}
@@ -0,0 +1,115 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.api.BookingRequest;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.database.DatabaseBackups;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Runs the server with every request on a virtual thread of its own and makes blocking calls to it concurrently. */
+public class VirtualThreadsTest {
+
+    private static final int PORT = 8645; // also takes the next port for plain HTTP
+    private static final Path DATABASE = Paths.get("var/db/virtual-threads-test.db");
+    private static final String DEVICE_NAME = "Nokia 3310";
+    private static final int CALLERS = 50;
+
+    private static Undertow server;
+    private static DeviceServiceClients clients;
+
+    @BeforeAll
+    public static void before() throws IOException {
+        DatabaseBackups.deleteDatabaseFiles(DATABASE);
+        server = DeviceServiceApplication.startServer(Configuration.builder()
+                .port(PORT)
+                .host("0.0.0.0")
+                .firstStartupRegisterDevices(List.of())
+                .apiKey(Optional.empty())
+                .databaseUrl("jdbc:sqlite:" + DATABASE)
+                .executionMode(ExecutionMode.VIRTUAL_THREADS)
+                .build());
+        clients = new DeviceServiceClients(URI.create("https://localhost:" + PORT), OptionalInt.empty());
+    }
+
+    @AfterAll
+    public static void afterAll() throws IOException {
+        server.stop();
+        DatabaseBackups.deleteDatabaseFiles(DATABASE);
+    }
+
+    @Test
+    public void servesConcurrentBlockingCalls() throws Exception {
+        for (int i = 0; i < CALLERS; i++) {
+            clients.managementService().createDevice(DEVICE_NAME);
+        }
+
+        // every caller books a device, reads the inventory and returns the device, all blocking on the database
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Integer>> held = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                BookingRequest booking = BookingRequest.builder()
+                        .person("person-" + i)
+                        .deviceName(DEVICE_NAME)
+                        .build();
+                held.add(callers.submit(() -> {
+                    clients.bookingService().bookDevice(booking);
+                    int devices = clients.infoService().getAllDevices().size();
+                    clients.bookingService().returnDevice(booking);
+                    return devices;
+                }));
+            }
+            for (Future<Integer> devices : held) {
+                assertThat(devices.get()).isEqualTo(CALLERS);
+            }
+        }
+
+        List<DeviceInfo> devices = clients.infoService().getAllAvailableDevices();
+        assertThat(devices).hasSize(CALLERS);
+        assertThat(devices).allSatisfy(device -> assertThat(device.getLastBookedPersonName()).isPresent());
+    }
+
+    @Test
+    public void requestsBypassTheServiceExecutors() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + (PORT + 1) + "/status/metrics"))
+                .GET()
+                .build();
+        HttpResponse<String> metrics = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+
+        assertThat(metrics.statusCode()).isEqualTo(200);
+        assertThat(metrics.body()).doesNotContain("executor.");
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Compares the payload size and the serialization and deserialization time of a full inventory in JSON, SMILE and
+ * CBOR, with the object mappers the Conjure runtimes use. Only runs through {@code ./gradlew loadTest}.
+ */
+@EnabledIfSystemProperty(named = "deviceservice.loadtest", matches = "true")
+public class WireFormatLoadTest {
+
+    private static final int DEVICES = 5_000;
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 500;
+    private static final TypeReference<List<DeviceInfo>> DEVICE_LIST = new TypeReference<>() {};
+
+    @Test
+    public void compareWireFormats() throws IOException {
+        List<DeviceInfo> devices = devices();
+
+        Result json = measure("json", ObjectMappers.newServerJsonMapper(), devices);
+        Result smile = measure("smile", ObjectMappers.newServerSmileMapper(), devices);
+        Result cbor = measure("cbor", ObjectMappers.newServerCborMapper(), devices);
+
+        System.out.println(json);
+        System.out.println(smile);
+        System.out.println(cbor);
+
+        assertThat(smile.payloadBytes()).isLessThan(json.payloadBytes());
+        assertThat(cbor.payloadBytes()).isLessThan(json.payloadBytes());
+    }
+
+    private static Result measure(String format, ObjectMapper mapper, List<DeviceInfo> devices) throws IOException {
+        byte[] payload = mapper.writeValueAsBytes(devices);
+        assertThat(mapper.readValue(payload, DEVICE_LIST)).isEqualTo(devices);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(devices), DEVICE_LIST);
+        }
+
+        long serializeNanos = 0;
+        long deserializeNanos = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long startNanos = System.nanoTime();
+            byte[] written = mapper.writeValueAsBytes(devices);
+            long writtenNanos = System.nanoTime();
+            mapper.readValue(written, DEVICE_LIST);
+            serializeNanos += writtenNanos - startNanos;
+            deserializeNanos += System.nanoTime() - writtenNanos;
+        }
+        return new Result(
+                format,
+                payload.length,
+                serializeNanos / MEASURED_ITERATIONS / 1_000,
+                deserializeNanos / MEASURED_ITERATIONS / 1_000);
+    }
+
+    /** Half of the devices booked and all of them enriched, like a busy lab. */
+    private static List<DeviceInfo> devices() {
+        OffsetDateTime bookedAt = OffsetDateTime.of(2024, 5, 1, 10, 15, 30, 0, ZoneOffset.UTC);
+        List<DeviceInfo> devices = new ArrayList<>(DEVICES);
+        for (int id = 1; id <= DEVICES; id++) {
+            boolean booked = id % 2 == 0;
+            devices.add(DeviceInfo.builder()
+                    .id(id)
+                    .name(id % 3 == 0 ? "Samsung Galaxy S9" : "Apple iPhone 13")
+                    .available(!booked)
+                    .lastBookedPersonName(booked ? Optional.of("Person " + (id % 50)) : Optional.empty())
+                    .lastBookedTime(booked ? Optional.of(bookedAt.plusMinutes(id)) : Optional.empty())
+                    .technology("GSM / HSPA / LTE / 5G")
+                    .twoGBands("GSM 850 / 900 / 1800 / 1900")
+                    .threeGBands("HSDPA 850 / 900 / 1700(AWS) / 1900 / 2100")
+                    .fourGBands("1, 2, 3, 4, 5, 7, 8, 12, 13, 17, 18, 19, 20, 25, 26, 28, 30, 38, 39, 40, 41, 66")
+                    .build());
+        }
+        return devices;
+    }
+
+    private record Result(String format, int payloadBytes, long serializeMicros, long deserializeMicros) {}
+}
@@ -0,0 +1,132 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.capability;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.gsm.GsmNetworkDetails;
+import com.achomutovskij.deviceservice.memory.MemoryFootprint;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class DeviceCapabilityIndexTest {
+
+    private static final GsmNetworkDetails PIXEL = new GsmNetworkDetails(
+            "GSM / HSPA / LTE",
+            "GSM 850 / 900 / 1800 / 1900 - SIM 1 & SIM 2 (dual-SIM model only)",
+            "HSDPA 800 / 850 / 900 / 1700(AWS) / 1900 / 2100 - Global",
+            "LTE band 1(2100), 3(1800), 7(2600), 20(800), 66(1700/2100) - LTE-A Cat16");
+    private static final GsmNetworkDetails NOKIA = new GsmNetworkDetails(
+            "GSM / CDMA / HSPA",
+            "GSM 900 / 1800\nCDMA 800",
+            "HSDPA 2100 - CDMA2000 1xEV-DO",
+            "INFO UNAVAILABLE");
+
+    @Test
+    public void parsesBandStrings() {
+        assertThat(NetworkBands.parse(PIXEL))
+                .contains(NetworkBand.twoG(850), NetworkBand.threeG(1700), NetworkBand.lte(20), NetworkBand.lte(66))
+                .doesNotContain(NetworkBand.lte(16), NetworkBand.lte(2100))
+                .hasSize(15);
+        assertThat(NetworkBands.parse(NOKIA))
+                .containsExactlyInAnyOrder(
+                        NetworkBand.twoG(900), NetworkBand.twoG(1800), NetworkBand.twoG(800), NetworkBand.threeG(2100));
+    }
+
+    @Test
+    public void sharesBandInstancesAcrossModels() {
+        NetworkBand pixelBand = NetworkBands.parse(PIXEL).stream()
+                .filter(NetworkBand.twoG(900)::equals)
+                .findFirst()
+                .orElseThrow();
+        NetworkBand nokiaBand = NetworkBands.parse(NOKIA).stream()
+                .filter(NetworkBand.twoG(900)::equals)
+                .findFirst()
+                .orElseThrow();
+
+        assertThat(nokiaBand).isSameAs(pixelBand);
+    }
+
+    @Test
+    public void findsAvailableDevicesSupportingAllBands() {
+        DeviceCapabilityIndex index = newIndex();
+        index.initialize(List.of(device(1, "Pixel", true), device(2, "Nokia", true), device(3, "Pixel", false)));
+
+        assertThat(index.findAvailableDevices(Set.of(NetworkBand.lte(20), NetworkBand.threeG(2100))))
+                .containsExactly(1);
+        assertThat(index.findAvailableDevices(Set.of(NetworkBand.threeG(2100)))).containsExactly(1, 2);
+        assertThat(index.findAvailableDevices(Set.of(NetworkBand.lte(71)))).isEmpty();
+        assertThat(index.findAvailableDevices(Set.of())).containsExactly(1, 2);
+    }
+
+    @Test
+    public void followsBookingsRegistrationsAndDeletions() {
+        DeviceCapabilityIndex index = newIndex();
+        index.initialize(List.of(device(1, "Pixel", true)));
+        Set<NetworkBand> lte20 = Set.of(NetworkBand.lte(20));
+
+        index.deviceBooked(1, "tester");
+        assertThat(index.findAvailableDevices(lte20)).isEmpty();
+
+        index.deviceRegistered(4, "Pixel");
+        assertThat(index.findAvailableDevices(lte20)).containsExactly(4);
+
+        index.deviceReleased(1);
+        index.deviceDeleted(4);
+        assertThat(index.findAvailableDevices(lte20)).containsExactly(1);
+
+        index.allDevicesDeleted();
+        assertThat(index.findAvailableDevices(lte20)).isEmpty();
+    }
+
+    @Test
+    public void reportsTheFootprintOfTheIndexedDevices() {
+        DeviceCapabilityIndex index = newIndex();
+        index.initialize(List.of(device(1, "Pixel", true), device(2, "Nokia", true), device(3, "Pixel", false)));
+        MemoryFootprint footprint = index.footprint();
+        assertThat(footprint.entries()).isEqualTo(3);
+        assertThat(footprint.approximateBytes()).isPositive();
+
+        // a high id grows the array of names rather than shifting the others
+        index.deviceRegistered(1_000, "Nokia");
+        assertThat(index.footprint().entries()).isEqualTo(4);
+        assertThat(index.findAvailableDevices(Set.of(NetworkBand.twoG(900)))).containsExactly(1, 2, 1_000);
+
+        index.deviceDeleted(1_000);
+        index.deviceDeleted(2);
+        assertThat(index.footprint().entries()).isEqualTo(2);
+        assertThat(index.findAvailableDevices(Set.of(NetworkBand.twoG(900)))).containsExactly(1);
+
+        index.allDevicesDeleted();
+        assertThat(index.footprint().entries()).isZero();
+    }
+
+    private static DeviceCapabilityIndex newIndex() {
+        Map<String, GsmNetworkDetails> specs = Map.of("Pixel", PIXEL, "Nokia", NOKIA);
+        return new DeviceCapabilityIndex(
+                name -> Optional.ofNullable(specs.get(name)), MoreExecutors.newDirectExecutorService());
+    }
+
+    private static DeviceInfo device(int id, String name, boolean available) {
+        return DeviceInfo.builder().id(id).name(name).available(available).build();
+    }
+}
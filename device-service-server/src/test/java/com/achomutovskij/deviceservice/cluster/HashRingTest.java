@@ -0,0 +1,68 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class HashRingTest {
+
+    private static final List<String> NODES =
+            List.of("https://node-a:8345/api/", "https://node-b:8345/api/", "https://node-c:8345/api/");
+    private static final int DEVICES = 30_000;
+
+    @Test
+    public void ownershipDoesNotDependOnTheOrderOfTheNodes() {
+        HashRing ring = new HashRing(NODES, Cluster.DEFAULT_VIRTUAL_NODES);
+        HashRing reversed = new HashRing(NODES.reversed(), Cluster.DEFAULT_VIRTUAL_NODES);
+
+        for (int id = 1; id <= DEVICES; id++) {
+            assertThat(reversed.owner(id)).isEqualTo(ring.owner(id));
+        }
+    }
+
+    @Test
+    public void devicesAreSpreadOverAllTheNodes() {
+        HashRing ring = new HashRing(NODES, Cluster.DEFAULT_VIRTUAL_NODES);
+
+        Map<String, Integer> devicesPerNode = new HashMap<>();
+        for (int id = 1; id <= DEVICES; id++) {
+            devicesPerNode.merge(ring.owner(id), 1, Integer::sum);
+        }
+
+        assertThat(devicesPerNode).containsOnlyKeys(NODES);
+        // within half of the even share, 64 points per node are not enough for a closer bound
+        assertThat(devicesPerNode.values()).allSatisfy(devices -> assertThat(devices)
+                .isBetween(DEVICES / NODES.size() / 2, DEVICES / NODES.size() * 3 / 2));
+    }
+
+    @Test
+    public void removingANodeOnlyMovesItsOwnDevices() {
+        HashRing ring = new HashRing(NODES, Cluster.DEFAULT_VIRTUAL_NODES);
+        HashRing withoutC = new HashRing(NODES.subList(0, 2), Cluster.DEFAULT_VIRTUAL_NODES);
+
+        for (int id = 1; id <= DEVICES; id++) {
+            if (!ring.owner(id).equals(NODES.get(2))) {
+                assertThat(withoutC.owner(id)).isEqualTo(ring.owner(id));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import com.achomutovskij.deviceservice.server.MetricsRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DatabaseBackupsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void restoresTheBookingsOfABackup() throws Exception {
+        DatabaseManager databaseManager =
+                new DatabaseManager(jdbcUrl("devices.db"), List.of("Samsung Galaxy S9", "Nokia 3310"));
+        databaseManager.bookDevice("Alice", 1, Optional.empty());
+        DatabaseBackups backups = backups(databaseManager, 24);
+
+        DatabaseBackups.Backup backup = backups.backUp();
+        // changes after the snapshot are not part of it
+        databaseManager.returnDevice("Alice", 1);
+        databaseManager.stop();
+
+        assertThat(backup.sizeBytes()).isEqualTo(Files.size(backup.file()));
+        assertThat(DatabaseBackups.restoreIfMissing(backup.file(), jdbcUrl("restored.db")))
+                .hasValueSatisfying(restore -> assertThat(restore.sizeBytes()).isEqualTo(backup.sizeBytes()));
+        DatabaseManager restored = new DatabaseManager(jdbcUrl("restored.db"), List.of());
+        try {
+            assertThat(restored.getAllDevices())
+                    .extracting(DeviceInfo::getName)
+                    .containsExactly("Samsung Galaxy S9", "Nokia 3310");
+            assertThat(restored.queryDeviceById(1).getAvailable()).isFalse();
+        } finally {
+            restored.stop();
+        }
+    }
+
+    @Test
+    public void doesNotRestoreOverAnExistingDatabase() throws Exception {
+        DatabaseManager databaseManager = new DatabaseManager(jdbcUrl("devices.db"), List.of("Nokia 3310"));
+        DatabaseBackups.Backup backup = backups(databaseManager, 24).backUp();
+        databaseManager.registerDevice("Nokia 3310");
+        databaseManager.stop();
+
+        assertThat(DatabaseBackups.restoreIfMissing(backup.file(), jdbcUrl("devices.db"))).isEmpty();
+        DatabaseManager reopened = new DatabaseManager(jdbcUrl("devices.db"), List.of());
+        try {
+            assertThat(reopened.getAllDevices()).hasSize(2);
+        } finally {
+            reopened.stop();
+        }
+    }
+
+    @Test
+    public void keepsOnlyTheLatestBackups() throws Exception {
+        DatabaseManager databaseManager = new DatabaseManager(jdbcUrl("devices.db"), List.of("Nokia 3310"));
+        DatabaseBackups backups = backups(databaseManager, 2);
+        List<Path> taken = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                taken.add(backups.backUp().file());
+                // snapshots are named after the millisecond they were taken in
+                Thread.sleep(5);
+            }
+        } finally {
+            databaseManager.stop();
+        }
+
+        try (Stream<Path> files = Files.list(tempDir.resolve("backups"))) {
+            assertThat(files.collect(Collectors.toList())).containsExactlyInAnyOrderElementsOf(taken.subList(2, 4));
+        }
+    }
+
+    private DatabaseBackups backups(DatabaseManager databaseManager, int retained) {
+        return new DatabaseBackups(databaseManager, tempDir.resolve("backups"), retained, new MetricsRegistry());
+    }
+
+    private String jdbcUrl(String file) {
+        return "jdbc:sqlite:" + tempDir.resolve(file);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.DeviceAllocationPolicy;
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class DeviceFreeListsTest {
+
+    private static final String NOKIA = "Nokia 3310";
+    private static final OffsetDateTime BOOKED_AT = OffsetDateTime.parse("2024-05-01T10:15:30Z");
+
+    @Test
+    public void leastRecentlyUsedBooksTheDeviceAvailableTheLongest() {
+        DeviceFreeLists freeLists = new DeviceFreeLists(DeviceAllocationPolicy.LEAST_RECENTLY_USED);
+        freeLists.initialize(List.of(
+                device(1, Optional.of(BOOKED_AT.plusHours(1))), device(2, Optional.of(BOOKED_AT)), device(3)));
+
+        assertThat(allocate(freeLists, 1)).containsExactly(3);
+        freeLists.deviceReleased(3);
+        assertThat(allocate(freeLists, 2)).containsExactly(2, 1);
+        assertThat(allocate(freeLists, 1)).containsExactly(3);
+        assertThat(allocate(freeLists, 1)).isEmpty();
+    }
+
+    @Test
+    public void roundRobinBooksTheDevicesInTurn() {
+        DeviceFreeLists freeLists = new DeviceFreeLists(DeviceAllocationPolicy.ROUND_ROBIN);
+        freeLists.initialize(List.of(device(1), device(2), device(3)));
+
+        assertThat(allocate(freeLists, 1)).containsExactly(1);
+        freeLists.deviceReleased(1);
+        assertThat(allocate(freeLists, 1)).containsExactly(2);
+        freeLists.deviceReleased(2);
+        assertThat(allocate(freeLists, 2)).containsExactly(3, 1);
+    }
+
+    @Test
+    public void randomBooksEveryDeviceEventually() {
+        DeviceFreeLists freeLists = new DeviceFreeLists(DeviceAllocationPolicy.RANDOM);
+        freeLists.initialize(List.of(device(1), device(2), device(3)));
+
+        Set<Integer> booked = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            int deviceId = allocate(freeLists, 1).get(0);
+            booked.add(deviceId);
+            freeLists.deviceReleased(deviceId);
+        }
+        assertThat(booked).containsExactlyInAnyOrder(1, 2, 3);
+        assertThat(allocate(freeLists, 3)).containsExactlyInAnyOrder(1, 2, 3);
+    }
+
+    @Test
+    public void rolledBackAllocationsArePutBack() {
+        for (DeviceAllocationPolicy policy : List.of(
+                DeviceAllocationPolicy.LEAST_RECENTLY_USED,
+                DeviceAllocationPolicy.ROUND_ROBIN,
+                DeviceAllocationPolicy.RANDOM)) {
+            DeviceFreeLists freeLists = new DeviceFreeLists(policy);
+            freeLists.initialize(List.of(device(1), device(2), device(3)));
+
+            List<Integer> rolledBack = freeLists.allocate(NOKIA, 2);
+            freeLists.finishAllocations(false);
+
+            if (policy.equals(DeviceAllocationPolicy.RANDOM)) {
+                assertThat(allocate(freeLists, 3)).containsExactlyInAnyOrder(1, 2, 3);
+            } else {
+                // the same devices are next in line again
+                assertThat(allocate(freeLists, 2)).isEqualTo(rolledBack);
+            }
+        }
+    }
+
+    @Test
+    public void followsTheChangesOfTheTable() {
+        DeviceFreeLists freeLists = new DeviceFreeLists(DeviceAllocationPolicy.LEAST_RECENTLY_USED);
+        freeLists.initialize(List.of(device(1), device(2)));
+
+        freeLists.deviceBooked(1, "Alice");
+        freeLists.deviceDeleted(2);
+        assertThat(allocate(freeLists, 1)).isEmpty();
+
+        freeLists.deviceRegistered(3, NOKIA);
+        freeLists.deviceRegistered(4, "Samsung Galaxy S9");
+        assertThat(allocate(freeLists, 1)).containsExactly(3);
+
+        freeLists.allDevicesDeleted();
+        freeLists.deviceReleased(3);
+        assertThat(freeLists.allocate("Samsung Galaxy S9", 1)).isEmpty();
+        assertThat(allocate(freeLists, 1)).isEmpty();
+    }
+
+    private static List<Integer> allocate(DeviceFreeLists freeLists, int count) {
+        List<Integer> deviceIds = freeLists.allocate(NOKIA, count);
+        freeLists.finishAllocations(true);
+        return deviceIds;
+    }
+
+    private static DeviceInfo device(int id) {
+        return device(id, Optional.empty());
+    }
+
+    private static DeviceInfo device(int id, Optional<OffsetDateTime> lastBookedTime) {
+        return DeviceInfo.builder()
+                .id(id)
+                .name(NOKIA)
+                .available(true)
+                .lastBookedTime(lastBookedTime)
+                .build();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.api.DeviceInfo;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compares the time and the heap allocated per call of the device read path against the way it used to read rows:
+ * preparing the statement per call, {@code SELECT *}, columns looked up by name and timestamps decoded through the
+ * zone rules. Only runs through {@code ./gradlew loadTest}.
+ */
+@EnabledIfSystemProperty(named = "deviceservice.loadtest", matches = "true")
+public class DeviceReadLoadTest {
+
+    private static final int DEVICES = 1_000;
+    private static final int WARMUP_ITERATIONS = 2_000;
+    private static final int MEASURED_ITERATIONS = 5_000;
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Dubai");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void compareReadPaths() throws Exception {
+        String jdbcUrl = "jdbc:sqlite:" + tempDir.resolve("devices.db");
+        DatabaseManager databaseManager =
+                new DatabaseManager(jdbcUrl, Collections.nCopies(DEVICES, "Samsung Galaxy S9"), 1);
+        try (Connection connection = DriverManager.getConnection(jdbcUrl)) {
+            for (int id = 1; id <= DEVICES; id += 2) {
+                databaseManager.bookDevice("Alice", id, Optional.empty());
+            }
+            List<Integer> someIds = new ArrayList<>();
+            for (int id = 1; id <= DEVICES; id += 7) {
+                someIds.add(id);
+            }
+
+            Result baselineAll = measure("all devices, per-call statements", () -> readAll(connection));
+            Result cachedAll = measure("all devices, cached statements", databaseManager::getAllDevices);
+            Result baselineIds =
+                    measure("devices by ids, per-call statements", () -> readByIds(connection, someIds));
+            Result cachedIds =
+                    measure("devices by ids, cached statements", () -> databaseManager.getDevicesByIds(someIds));
+
+            System.out.println(baselineAll);
+            System.out.println(cachedAll);
+            System.out.println(baselineIds);
+            System.out.println(cachedIds);
+
+            assertThat(cachedAll.rows()).isEqualTo(baselineAll.rows()).isEqualTo(DEVICES);
+            assertThat(cachedIds.rows()).isEqualTo(baselineIds.rows()).isEqualTo(someIds.size());
+        } finally {
+            databaseManager.stop();
+        }
+    }
+
+    private static Result measure(String name, Read read) throws SQLException {
+        int rows = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            rows = read.get().size();
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long startBytes = threads.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            rows = read.get().size();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocatedBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+
+        return new Result(name, rows, elapsedNanos / MEASURED_ITERATIONS / 1_000, allocatedBytes / MEASURED_ITERATIONS);
+    }
+
+    private static List<DeviceInfo> readAll(Connection connection) throws SQLException {
+        return read(connection, "SELECT * FROM devices;", List.of());
+    }
+
+    private static List<DeviceInfo> readByIds(Connection connection, List<Integer> ids) throws SQLException {
+        return read(
+                connection,
+                "SELECT * FROM devices WHERE id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ");",
+                ids);
+    }
+
+    private static List<DeviceInfo> read(Connection connection, String sql, List<Integer> parameters)
+            throws SQLException {
+        List<DeviceInfo> devices = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setInt(i + 1, parameters.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    long lastBookedAt = resultSet.getLong("lastBookedAt");
+                    Optional<OffsetDateTime> lastBookedTime = resultSet.wasNull()
+                            ? Optional.empty()
+                            : Optional.of(OffsetDateTime.ofInstant(Instant.ofEpochMilli(lastBookedAt), ZONE_ID));
+                    long leaseExpiresAt = resultSet.getLong("leaseExpiresAt");
+                    Optional<OffsetDateTime> leaseExpiry = resultSet.wasNull()
+                            ? Optional.empty()
+                            : Optional.of(OffsetDateTime.ofInstant(Instant.ofEpochMilli(leaseExpiresAt), ZONE_ID));
+                    devices.add(DeviceInfo.builder()
+                            .id(resultSet.getInt("id"))
+                            .name(resultSet.getString("name"))
+                            .available(resultSet.getBoolean("available"))
+                            .lastBookedPersonName(Optional.ofNullable(resultSet.getString("lastBookedPersonName")))
+                            .lastBookedTime(lastBookedTime)
+                            .leaseExpiresAt(leaseExpiry)
+                            .build());
+                }
+            }
+        }
+        return devices;
+    }
+
+    @FunctionalInterface
+    private interface Read {
+        List<DeviceInfo> get() throws SQLException;
+    }
+
+    private record Result(String name, int rows, long microsPerCall, long bytesPerCall) {}
+}
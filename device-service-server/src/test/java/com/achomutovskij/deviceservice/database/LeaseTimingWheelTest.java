@@ -0,0 +1,66 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class LeaseTimingWheelTest {
+
+    @Test
+    public void expiresLeasesOnceTheirTickHasPassed() {
+        LeaseTimingWheel wheel = new LeaseTimingWheel(1_000, 8, 0);
+        wheel.schedule(1, 1_500);
+        wheel.schedule(2, 3_000);
+
+        assertThat(wheel.advance(1_000)).isEmpty();
+        assertThat(wheel.advance(2_000)).containsExactly(new LeaseTimingWheel.ExpiredLease(1, 1_500));
+        assertThat(wheel.advance(3_000)).containsExactly(new LeaseTimingWheel.ExpiredLease(2, 3_000));
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    public void keepsLeasesLongerThanOneRevolution() {
+        LeaseTimingWheel wheel = new LeaseTimingWheel(1_000, 8, 0);
+        wheel.schedule(1, 10_000); // same bucket as tick 2
+
+        assertThat(wheel.advance(2_000)).isEmpty();
+        assertThat(wheel.advance(9_000)).isEmpty();
+        assertThat(wheel.advance(10_000)).containsExactly(new LeaseTimingWheel.ExpiredLease(1, 10_000));
+    }
+
+    @Test
+    public void renewingAndCancellingReplaceTheScheduledExpiry() {
+        LeaseTimingWheel wheel = new LeaseTimingWheel(1_000, 8, 0);
+        wheel.schedule(1, 2_000);
+        wheel.schedule(1, 5_000);
+        wheel.schedule(2, 2_000);
+        wheel.cancel(2);
+
+        assertThat(wheel.advance(4_000)).isEmpty();
+        assertThat(wheel.advance(5_000)).containsExactly(new LeaseTimingWheel.ExpiredLease(1, 5_000));
+    }
+
+    @Test
+    public void leasesAlreadyDueExpireOnTheNextAdvance() {
+        LeaseTimingWheel wheel = new LeaseTimingWheel(1_000, 8, 60_000);
+        wheel.schedule(1, 1_000);
+
+        assertThat(wheel.advance(61_000)).containsExactly(new LeaseTimingWheel.ExpiredLease(1, 1_000));
+    }
+}
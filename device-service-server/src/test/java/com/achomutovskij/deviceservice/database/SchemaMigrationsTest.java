@@ -0,0 +1,112 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class SchemaMigrationsTest {
+
+    @Test
+    public void createsTheLatestSchemaForAnEmptyDatabase() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            SchemaMigrations.migrate(connection);
+
+            assertThat(userVersion(connection)).isEqualTo(SchemaMigrations.LATEST_VERSION);
+            assertThat(columns(connection))
+                    .containsExactly(
+                            "id", "name", "available", "lastBookedPersonName", "leaseExpiresAt", "lastBookedAt");
+            assertThat(indexes(connection))
+                    .contains(
+                            "devices_name_available", "devices_available", "devices_person_available", "devices_lease");
+        }
+    }
+
+    @Test
+    public void upgradesAnUnversionedDatabaseAndConvertsBookingTimes() throws SQLException {
+        OffsetDateTime bookedAt = OffsetDateTime.parse("2024-05-01T10:15:30.123+04:00");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+                Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE devices (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                    + "available INTEGER NOT NULL, lastBookedPersonName TEXT, lastBookedTime TEXT);");
+            statement.execute("INSERT INTO devices (name, available, lastBookedPersonName, lastBookedTime) "
+                    + "VALUES ('Nokia 3310', 0, 'Alice', '" + bookedAt + "'), ('Nokia 3310', 1, NULL, NULL);");
+
+            SchemaMigrations.migrate(connection);
+            SchemaMigrations.migrate(connection);
+
+            assertThat(userVersion(connection)).isEqualTo(SchemaMigrations.LATEST_VERSION);
+            assertThat(columns(connection)).doesNotContain("lastBookedTime").contains("lastBookedAt");
+            try (ResultSet resultSet = statement.executeQuery("SELECT lastBookedAt FROM devices ORDER BY id;")) {
+                assertThat(resultSet.next()).isTrue();
+                assertThat(resultSet.getLong(1)).isEqualTo(bookedAt.toInstant().toEpochMilli());
+                assertThat(resultSet.next()).isTrue();
+                resultSet.getLong(1);
+                assertThat(resultSet.wasNull()).isTrue();
+            }
+        }
+    }
+
+    @Test
+    public void refusesADatabaseFromANewerVersion() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+                Statement statement = connection.createStatement()) {
+            SchemaMigrations.migrate(connection);
+            statement.execute("PRAGMA user_version = " + (SchemaMigrations.LATEST_VERSION + 1) + ";");
+
+            assertThatThrownBy(() -> SchemaMigrations.migrate(connection))
+                    .hasMessageContaining("newer than this version of the service supports");
+        }
+    }
+
+    private static int userVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("PRAGMA user_version;")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static List<String> columns(Connection connection) throws SQLException {
+        return names(connection, "PRAGMA table_info(devices);");
+    }
+
+    private static List<String> indexes(Connection connection) throws SQLException {
+        return names(connection, "PRAGMA index_list(devices);");
+    }
+
+    private static List<String> names(Connection connection, String pragma) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(pragma)) {
+            while (resultSet.next()) {
+                names.add(resultSet.getString("name"));
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StatementCacheTest {
+
+    private static final String SELECT_ONE = "SELECT 1;";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void reusesStatementsOfAConnection() throws SQLException {
+        StatementCache statementCache = new StatementCache();
+        try (HikariDataSource dataSource = dataSource()) {
+            PreparedStatement first;
+            try (Connection connection = dataSource.getConnection()) {
+                first = statementCache.prepare(connection, SELECT_ONE);
+            }
+            try (Connection connection = dataSource.getConnection()) {
+                assertThat(statementCache.prepare(connection, SELECT_ONE)).isSameAs(first);
+            }
+            assertThat(statementCache.connections()).isOne();
+        }
+    }
+
+    @Test
+    public void dropsTheStatementsOfEvictedConnections() throws SQLException, InterruptedException {
+        StatementCache statementCache = new StatementCache();
+        try (HikariDataSource dataSource = dataSource()) {
+            PreparedStatement evicted = null;
+            for (int i = 0; i < 3; i++) {
+                Connection physicalConnection;
+                try (Connection connection = dataSource.getConnection()) {
+                    physicalConnection = connection.unwrap(Connection.class);
+                    PreparedStatement statement = statementCache.prepare(connection, SELECT_ONE);
+                    assertThat(statement).isNotSameAs(evicted);
+                    evicted = statement;
+                }
+                assertThat(statementCache.connections()).isOne();
+
+                // closes the idle connection, the pool opens a new one in its place
+                dataSource.getHikariPoolMXBean().softEvictConnections();
+                awaitClosed(physicalConnection);
+            }
+        }
+    }
+
+    private static void awaitClosed(Connection connection) throws SQLException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!connection.isClosed() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(connection.isClosed()).isTrue();
+    }
+
+    private HikariDataSource dataSource() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:sqlite:" + tempDir.resolve("statements.db"));
+        config.setMaximumPoolSize(1);
+        return new HikariDataSource(config);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.Configuration;
+import com.achomutovskij.deviceservice.DeviceServiceApplication;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.undertow.Undertow;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Measures the enrichment of the device listing with Rapid API specs, against the local stand-in answering with
+ * recorded responses, a log-normal latency, some failures and a request rate limit. Prints the latency of the first
+ * listing, which goes to the stand-in for every device name, and the throughput once the specs are cached. Only runs
+ * through {@code ./gradlew loadTest}.
+ */
+@EnabledIfSystemProperty(named = "deviceservice.loadtest", matches = "true")
+public class EnrichmentLoadTest {
+
+    private static final int PORT = 8345;
+    private static final List<String> DEVICES = List.of(
+            "Samsung Galaxy S9", "Apple iPhone 13", "Nokia 3310", "Motorola Nexus 6", "OnePlus 9", "Apple iPhone X");
+    private static final int CONCURRENT_CLIENTS = 100;
+    private static final int REQUESTS_PER_CLIENT = 20;
+    private static final RapidApiStandIn.Behaviour BEHAVIOUR = new RapidApiStandIn.Behaviour(
+            RapidApiStandIn.Latency.logNormal(Duration.ofMillis(80), Duration.ofMillis(400)), 0.02, 20, 42);
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    @AfterAll
+    public static void afterAll() throws SQLException {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(DeviceServiceApplication.SQLITE_URL);
+
+        try (HikariDataSource dataSource = new HikariDataSource(config);
+                Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE devices;");
+        }
+    }
+
+    @Test
+    public void enrichAgainstTheStandIn() throws Exception {
+        try (RapidApiStandIn standIn = RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, BEHAVIOUR)) {
+            Undertow server = DeviceServiceApplication.startServer(Configuration.builder()
+                    .port(PORT)
+                    .host("0.0.0.0")
+                    .firstStartupRegisterDevices(Collections.emptyList())
+                    .apiKey("stand-in")
+                    .rapidApiBaseUrl(standIn.baseUrl().toString())
+                    .build());
+            try {
+                send("DELETE", "management/delete/all");
+                for (String device : DEVICES) {
+                    send("POST", "management/create/" + device.replace(" ", "%20"));
+                }
+
+                long coldStart = System.nanoTime();
+                assertThat(send("GET", "info/all")).isEqualTo(200);
+                long coldMillis = Duration.ofNanos(System.nanoTime() - coldStart).toMillis();
+
+                AtomicInteger failures = new AtomicInteger();
+                long start = System.nanoTime();
+                try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (int client = 0; client < CONCURRENT_CLIENTS; client++) {
+                        futures.add(clients.submit(() -> {
+                            for (int request = 0; request < REQUESTS_PER_CLIENT; request++) {
+                                try {
+                                    if (send("GET", "info/all") != 200) {
+                                        failures.incrementAndGet();
+                                    }
+                                } catch (Exception e) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                }
+                double requestsPerSecond =
+                        CONCURRENT_CLIENTS * REQUESTS_PER_CLIENT / ((System.nanoTime() - start) / 1e9);
+
+                send("DELETE", "management/delete/all");
+                System.out.println("First listing took " + coldMillis + " ms, then " + Math.round(requestsPerSecond)
+                        + " listings per second, stand-in " + standIn.stats());
+                assertThat(failures.get()).isZero();
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    private int send(String method, String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + (PORT + 1) + "/api/v1/" + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(60))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.achomutovskij.deviceservice.server.MetricsRegistry;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GsmArenaDataProviderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void missingDatasetLeavesTheNodeNotReady() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        GsmArenaDataProvider provider = new GsmArenaDataProvider(
+                tempDir.resolve("missing.csv").toString(), MoreExecutors.directExecutor(), metricsRegistry);
+        try {
+            assertThatThrownBy(() -> provider.loaded().join()).isInstanceOf(CompletionException.class);
+            assertThat(provider.isReady()).isFalse();
+            assertThat(provider.lookupDevice("Samsung Galaxy S9")).isEmpty();
+            assertThat(metricsRegistry.snapshot()).containsEntry("gsmArena.loadFailures", 1L);
+        } finally {
+            provider.stop();
+        }
+    }
+
+    @Test
+    public void reloadSwapsInTheChangedDataset() throws IOException {
+        Path csv = writeDataset("Nokia 3310,GSM,GSM 900 / 1800,,,,");
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        GsmArenaDataProvider provider =
+                new GsmArenaDataProvider(csv.toString(), MoreExecutors.directExecutor(), metricsRegistry);
+        try {
+            assertThat(provider.lookupDevice("Samsung Galaxy S9")).isEmpty();
+
+            writeDataset(
+                    "Nokia 3310,GSM,GSM 900 / 1800,,,,",
+                    "Samsung Galaxy S9,GSM / HSPA / LTE,GSM 850 / 900,,HSDPA 850 / 900,,LTE band 1 / 3");
+            assertThat(provider.reload().join().devices()).isEqualTo(2);
+
+            assertThat(provider.lookupDevice("Samsung Galaxy S9"))
+                    .hasValue(new GsmNetworkDetails(
+                            "GSM / HSPA / LTE", "GSM 850 / 900", "HSDPA 850 / 900", "LTE band 1 / 3"));
+            assertThat(metricsRegistry.snapshot())
+                    .containsEntry("gsmArena.reloads", 1L)
+                    .containsEntry("gsmArena.devices", 2);
+        } finally {
+            provider.stop();
+        }
+    }
+
+    @Test
+    public void failedReloadKeepsTheCurrentDataset() throws IOException {
+        Path csv = writeDataset("Nokia 3310,GSM,GSM 900 / 1800,,,,");
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        GsmArenaDataProvider provider =
+                new GsmArenaDataProvider(csv.toString(), MoreExecutors.directExecutor(), metricsRegistry);
+        try {
+            // a row missing the band columns
+            writeDataset("Nokia 3310,GSM");
+            assertThatThrownBy(() -> provider.reload().join()).isInstanceOf(CompletionException.class);
+
+            assertThat(provider.isReady()).isTrue();
+            assertThat(provider.lookupDevice("Nokia 3310"))
+                    .hasValue(new GsmNetworkDetails("GSM", "GSM 900 / 1800", "", ""));
+            assertThat(metricsRegistry.snapshot())
+                    .containsEntry("gsmArena.reloads", 0L)
+                    .containsEntry("gsmArena.reloadFailures", 1L);
+        } finally {
+            provider.stop();
+        }
+    }
+
+    private Path writeDataset(String... rows) throws IOException {
+        return Files.write(tempDir.resolve("gsm-arena.csv"), List.of(rows), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.jupiter.api.Test;
+
+public class GsmNetworkDetailsParserTest {
+
+    private final GsmNetworkDetailsParser parser = new GsmNetworkDetailsParser();
+
+    @Test
+    public void extractsTheNetworkDetailsAndSkipsEverythingElse() throws IOException {
+        String body = "{\"brand\": \"Nokia\", \"gsmLaunchDetails\": {\"launchAnnounced\": \"2000\", \"years\": [2000]},"
+                + "\"gsmNetworkDetails\": {\"networkTechnology\": \"GSM\", \"network2GBands\": \"GSM 900 / 1800\","
+                + "\"network3GBands\": null, \"networkSpeed\": {\"value\": 1}},"
+                + "\"gsmBodyDetails\": {\"weight\": 133}}";
+
+        assertThat(parser.parse(new StringReader(body)))
+                .contains(new GsmNetworkDetails("GSM", "GSM 900 / 1800", "", ""));
+    }
+
+    @Test
+    public void isEmptyWithoutNetworkDetails() throws IOException {
+        assertThat(parser.parse(new StringReader("{\"message\": \"Not found\"}"))).isEmpty();
+        assertThat(parser.parse(new StringReader("{\"gsmNetworkDetails\": null}"))).isEmpty();
+        assertThat(parser.parse(new StringReader("[]"))).isEmpty();
+    }
+
+    @Test
+    public void rejectsMalformedBodies() {
+        assertThatThrownBy(() -> parser.parse(new StringReader("{\"gsmNetworkDetails\": {\"networkTechnology\""))))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> parser.parse(
+                        new StringReader("{\"gsmNetworkDetails\": {\"networkTechnology\": [\"GSM\"]}}")))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Compares the streaming extraction of the network details with building the whole JSON tree of a full specification
+ * response, and the tuned shared transport with a default OkHttp client against the local {@link RapidApiStandIn}.
+ * Only runs through {@code ./gradlew loadTest}.
+ */
+@EnabledIfSystemProperty(named = "deviceservice.loadtest", matches = "true")
+public class RapidApiClientLoadTest {
+
+    private static final int PARSE_WARMUP_ITERATIONS = 20_000;
+    private static final int PARSE_MEASURED_ITERATIONS = 50_000;
+    private static final int CONCURRENT_CLIENTS = 64;
+    private static final int LOOKUPS_PER_CLIENT = 50;
+    private static final String BODY = specificationResponse();
+
+    @Test
+    public void compareParsers() throws IOException {
+        GsmNetworkDetailsParser parser = new GsmNetworkDetailsParser();
+        GsmNetworkDetails expected = parser.parse(new StringReader(BODY)).orElseThrow();
+        assertThat(parseTree(BODY)).isEqualTo(expected);
+
+        System.out.println(measure("json tree", () -> parseTree(BODY)));
+        System.out.println(measure("streaming", () -> parser.parse(new StringReader(BODY)).orElseThrow()));
+    }
+
+    @Test
+    public void compareTransports() throws Exception {
+        RapidApiStandIn.Behaviour behaviour = new RapidApiStandIn.Behaviour(
+                RapidApiStandIn.Latency.uniform(Duration.ofMillis(5), Duration.ofMillis(15)), 0, 0, 42);
+        try (RapidApiStandIn standIn = RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, behaviour)) {
+            RapidApiTransport transport = new RapidApiTransport(
+                    RapidApiTransport.DEFAULT_CONNECT_TIMEOUT,
+                    RapidApiTransport.DEFAULT_READ_TIMEOUT,
+                    RapidApiTransport.DEFAULT_CALL_TIMEOUT,
+                    CONCURRENT_CLIENTS,
+                    RapidApiTransport.DEFAULT_KEEP_ALIVE,
+                    CONCURRENT_CLIENTS,
+                    true);
+            System.out.println(runLookups("default OkHttpClient", new OkHttpClient(), standIn.baseUrl()));
+            System.out.println(runLookups("tuned transport", transport.newHttpClient(), standIn.baseUrl()));
+
+            assertThat(standIn.stats().notFound()).isEqualTo(2 * CONCURRENT_CLIENTS * LOOKUPS_PER_CLIENT);
+        }
+    }
+
+    private static LookupResult runLookups(String name, OkHttpClient okHttpClient, HttpUrl baseUrl) throws Exception {
+        RapidApiClient client = new RapidApiClient(okHttpClient, "key", CONCURRENT_CLIENTS, baseUrl);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < CONCURRENT_CLIENTS; c++) {
+                int clientId = c;
+                futures.add(clients.submit(() -> {
+                    // every name is distinct, so that each lookup is a call to the stand-in
+                    for (int lookup = 0; lookup < LOOKUPS_PER_CLIENT; lookup++) {
+                        client.lookup("Samsung Galaxy " + clientId + "-" + lookup);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        int lookups = CONCURRENT_CLIENTS * LOOKUPS_PER_CLIENT;
+        return new LookupResult(name, lookups, lookups / (elapsedNanos / 1e9));
+    }
+
+    private static ParseResult measure(String name, Parse parse) throws IOException {
+        for (int i = 0; i < PARSE_WARMUP_ITERATIONS; i++) {
+            parse.get();
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long startBytes = threads.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < PARSE_MEASURED_ITERATIONS; i++) {
+            parse.get();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocatedBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+
+        return new ParseResult(
+                name, elapsedNanos / PARSE_MEASURED_ITERATIONS, allocatedBytes / PARSE_MEASURED_ITERATIONS);
+    }
+
+    /** What the client used to do with every response. */
+    private static GsmNetworkDetails parseTree(String body) {
+        JsonObject details = new Gson().fromJson(body, JsonObject.class).getAsJsonObject("gsmNetworkDetails");
+        return new GsmNetworkDetails(
+                details.get("networkTechnology").getAsString(),
+                details.get("network2GBands").getAsString(),
+                details.get("network3GBands").getAsString(),
+                details.get("network4GBands").getAsString());
+    }
+
+    /** A response shaped like the ones of Rapid API, with the network details between the other spec groups. */
+    private static String specificationResponse() {
+        JsonObject response = new JsonObject();
+        response.addProperty("brand", "Samsung");
+        response.addProperty("modelName", "Galaxy S9");
+        for (String group : List.of("gsmLaunchDetails", "gsmBodyDetails", "gsmDisplayDetails", "gsmPlatformDetails")) {
+            response.add(group, specGroup(group, 12));
+        }
+
+        JsonObject networkDetails = specGroup("network", 4);
+        networkDetails.addProperty("networkTechnology", "GSM / CDMA / HSPA / EVDO / LTE");
+        networkDetails.addProperty("network2GBands", "GSM 850 / 900 / 1800 / 1900 - SIM 1 & SIM 2 (dual-SIM only)");
+        networkDetails.addProperty("network3GBands", "HSDPA 850 / 900 / 1700(AWS) / 1900 / 2100");
+        networkDetails.addProperty(
+                "network4GBands", "1, 2, 3, 4, 5, 7, 8, 12, 13, 17, 18, 19, 20, 25, 26, 28, 32, 38, 39, 40, 41, 66");
+        response.add("gsmNetworkDetails", networkDetails);
+
+        for (String group : List.of("gsmMemoryDetails", "gsmCameraDetails", "gsmSoundDetails", "gsmCommsDetails",
+                "gsmFeaturesDetails", "gsmBatteryDetails", "gsmMiscDetails", "gsmTestsDetails")) {
+            response.add(group, specGroup(group, 12));
+        }
+        return response.toString();
+    }
+
+    private static JsonObject specGroup(String prefix, int fields) {
+        JsonObject group = new JsonObject();
+        for (int i = 0; i < fields; i++) {
+            group.addProperty(prefix + "Field" + i, "Some specification value number " + i + " of " + prefix);
+        }
+        return group;
+    }
+
+    @FunctionalInterface
+    private interface Parse {
+        GsmNetworkDetails get() throws IOException;
+    }
+
+    private record ParseResult(String parser, long nanosPerParse, long bytesPerParse) {}
+
+    private record LookupResult(String transport, int lookups, double lookupsPerSecond) {}
+}
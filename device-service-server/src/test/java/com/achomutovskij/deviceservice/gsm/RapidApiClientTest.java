@@ -0,0 +1,104 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.memory.MemoryFootprint;
+import java.io.IOException;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.Test;
+
+public class RapidApiClientTest {
+
+    @Test
+    public void readsRecordedResponsesAndCachesThem() throws IOException {
+        try (RapidApiStandIn standIn =
+                RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, RapidApiStandIn.Behaviour.IMMEDIATE)) {
+            RapidApiClient client = client(standIn);
+
+            assertThat(client.lookup("Nokia 3310"))
+                    .contains(new GsmNetworkDetails("GSM", "GSM 900 / 1800", "", ""));
+            assertThat(client.lookup("Samsung Galaxy S9").map(GsmNetworkDetails::technology))
+                    .contains("GSM / CDMA / HSPA / EVDO / LTE");
+            assertThat(client.lookup("Nokia 3310")).isPresent();
+
+            assertThat(standIn.stats().requests()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void cachesDevicesThatAreNotFound() throws IOException {
+        try (RapidApiStandIn standIn =
+                RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, RapidApiStandIn.Behaviour.IMMEDIATE)) {
+            RapidApiClient client = client(standIn);
+
+            assertThat(client.lookup("Motorola Nexus 6")).isEmpty();
+            assertThat(client.lookup("Motorola Nexus 6")).isEmpty();
+
+            assertThat(standIn.stats().notFound()).isEqualTo(1);
+            assertThat(client.isCached("Motorola Nexus 6")).isTrue();
+        }
+    }
+
+    @Test
+    public void retriesThrottledAndFailedLookups() throws IOException {
+        RapidApiStandIn.Behaviour alwaysFailing =
+                new RapidApiStandIn.Behaviour(RapidApiStandIn.Latency.NONE, 1.0, 0, 0);
+        try (RapidApiStandIn standIn = RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, alwaysFailing)) {
+            RapidApiClient client = client(standIn);
+
+            assertThat(client.lookup("Nokia 3310")).isEmpty();
+            assertThat(client.isCached("Nokia 3310")).isFalse();
+            assertThat(client.lookup("Nokia 3310")).isEmpty();
+
+            assertThat(standIn.stats().failed()).isEqualTo(2);
+        }
+
+        RapidApiStandIn.Behaviour onePerSecond = new RapidApiStandIn.Behaviour(RapidApiStandIn.Latency.NONE, 0, 1, 0);
+        try (RapidApiStandIn standIn = RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, onePerSecond)) {
+            RapidApiClient client = client(standIn);
+
+            assertThat(client.lookup("Samsung Galaxy S9")).isPresent();
+            assertThat(client.lookup("Nokia 3310")).isEmpty();
+            assertThat(client.isCached("Nokia 3310")).isFalse();
+
+            assertThat(standIn.stats().throttled()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void sharesSpecStringsAndReportsTheCachedNames() throws IOException {
+        try (RapidApiStandIn standIn =
+                RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, RapidApiStandIn.Behaviour.IMMEDIATE)) {
+            RapidApiClient client = client(standIn);
+
+            GsmNetworkDetails nokia = client.lookup("Nokia 3310").orElseThrow();
+            assertThat(nokia).isSameAs(GsmNetworkDetails.interned("GSM", "GSM 900 / 1800", "", ""));
+            assertThat(client.lookup("Motorola Nexus 6")).isEmpty();
+
+            MemoryFootprint footprint = client.footprint();
+            assertThat(footprint.entries()).isEqualTo(2);
+            assertThat(footprint.approximateBytes()).isPositive();
+        }
+    }
+
+    private static RapidApiClient client(RapidApiStandIn standIn) {
+        return new RapidApiClient(
+                new OkHttpClient(), "key", RapidApiClient.DEFAULT_MAX_CONCURRENT_REQUESTS, standIn.baseUrl());
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A local stand-in for Rapid API's specification endpoint, so that enrichment and caching can be measured offline and
+ * reproducibly. It replays the responses recorded under a directory, one file per device, and can be told to answer
+ * slowly, to fail a share of the requests and to throttle callers above a request rate with {@code 429} like the real
+ * API does. A recording stand-in forwards the devices it has no recording of to the real API and saves the answers.
+ */
+final class RapidApiStandIn implements AutoCloseable {
+
+    static final Path RECORDINGS = Path.of("src/test/resources/rapid-api-recordings");
+
+    private static final String SPECIFICATIONS_PATH = "/gsm/get-specifications-by-brandname-modelname/";
+
+    private final Path recordings;
+    private final Behaviour behaviour;
+    private final Optional<Upstream> upstream;
+    private final Random random;
+    private final Map<Path, Optional<byte[]>> responses = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer server;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger notFound = new AtomicInteger();
+
+    // requests in the current one second window, guarded by this
+    private long windowStartNanos = System.nanoTime();
+    private int windowRequests;
+
+    private RapidApiStandIn(Path recordings, Behaviour behaviour, Optional<Upstream> upstream) throws IOException {
+        this.recordings = recordings;
+        this.behaviour = behaviour;
+        this.upstream = upstream;
+        this.random = new Random(behaviour.seed());
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** Serves the recorded responses, and {@code 404} for the devices without one. */
+    static RapidApiStandIn replaying(Path recordings, Behaviour behaviour) throws IOException {
+        return new RapidApiStandIn(recordings, behaviour, Optional.empty());
+    }
+
+    /** Serves the recorded responses and records the missing ones from the real API. */
+    static RapidApiStandIn recording(Path recordings, HttpUrl upstreamBaseUrl, String apiKey) throws IOException {
+        Upstream upstream = new Upstream(new OkHttpClient(), upstreamBaseUrl, apiKey);
+        return new RapidApiStandIn(recordings, Behaviour.IMMEDIATE, Optional.of(upstream));
+    }
+
+    HttpUrl baseUrl() {
+        return HttpUrl.get("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    Stats stats() {
+        return new Stats(requests.get(), throttled.get(), failed.get(), notFound.get());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            String[] brandAndModel = path.startsWith(SPECIFICATIONS_PATH)
+                    ? path.substring(SPECIFICATIONS_PATH.length()).split("/", 2)
+                    : new String[0];
+            if (brandAndModel.length < 2) {
+                respond(exchange, 404, message("Endpoint '" + path + "' does not exist"));
+                return;
+            }
+
+            if (!admit()) {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 429, message("You have exceeded the rate limit per second for your plan"));
+                return;
+            }
+
+            sleep(behaviour.latency().next(random));
+            if (random.nextDouble() < behaviour.errorRate()) {
+                failed.incrementAndGet();
+                respond(exchange, 500, message("Internal server error"));
+                return;
+            }
+
+            Optional<byte[]> response = response(brandAndModel[0], brandAndModel[1]);
+            if (response.isEmpty()) {
+                notFound.incrementAndGet();
+                respond(exchange, 404, message("No specifications found"));
+                return;
+            }
+            respond(exchange, 200, response.get());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized boolean admit() {
+        if (behaviour.requestsPerSecond() <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (now - windowStartNanos >= TimeUnit.SECONDS.toNanos(1)) {
+            windowStartNanos = now;
+            windowRequests = 0;
+        }
+        return ++windowRequests <= behaviour.requestsPerSecond();
+    }
+
+    private Optional<byte[]> response(String brand, String model) throws IOException {
+        Path file = recordings.resolve(fileName(brand)).resolve(fileName(model) + ".json");
+        Optional<byte[]> response = responses.get(file);
+        if (response != null) {
+            return response;
+        }
+
+        if (Files.exists(file)) {
+            response = Optional.of(Files.readAllBytes(file));
+        } else if (upstream.isPresent()) {
+            response = upstream.get().fetch(brand, model);
+            if (response.isPresent()) {
+                Files.createDirectories(file.getParent());
+                Files.write(file, response.get());
+            }
+        } else {
+            response = Optional.empty();
+        }
+        responses.put(file, response);
+        return response;
+    }
+
+    private static String fileName(String name) {
+        return name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-");
+    }
+
+    private static byte[] message(String message) {
+        return ("{\"message\": \"" + message + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * How the stand-in answers.
+     *
+     * @param errorRate share of the admitted requests failed with {@code 500}
+     * @param requestsPerSecond requests admitted per one second window before answering {@code 429}, unlimited if not
+     *     positive
+     * @param seed of the latencies and the failures, so that runs can be repeated
+     */
+    record Behaviour(Latency latency, double errorRate, int requestsPerSecond, long seed) {
+        static final Behaviour IMMEDIATE = new Behaviour(Latency.NONE, 0, 0, 0);
+    }
+
+    /** A distribution of response latencies. */
+    @FunctionalInterface
+    interface Latency {
+        Latency NONE = _random -> Duration.ZERO;
+
+        Duration next(Random random);
+
+        static Latency fixed(Duration latency) {
+            return _random -> latency;
+        }
+
+        static Latency uniform(Duration min, Duration max) {
+            return random -> Duration.ofNanos(
+                    min.toNanos() + (long) (random.nextDouble() * (max.toNanos() - min.toNanos())));
+        }
+
+        /** Log-normal latencies, the usual shape of a remote API's, given by their median and 99th percentile. */
+        static Latency logNormal(Duration median, Duration p99) {
+            // the 99th percentile of the standard normal distribution
+            double sigma = Math.log((double) p99.toNanos() / median.toNanos()) / 2.326;
+            return random -> Duration.ofNanos((long) (median.toNanos() * Math.exp(sigma * random.nextGaussian())));
+        }
+    }
+
+    record Stats(int requests, int throttled, int failed, int notFound) {}
+
+    private record Upstream(OkHttpClient okHttpClient, HttpUrl baseUrl, String apiKey) {
+        Optional<byte[]> fetch(String brand, String model) throws IOException {
+            Request request = new Request.Builder()
+                    .url(baseUrl.newBuilder()
+                            .addPathSegments("gsm/get-specifications-by-brandname-modelname")
+                            .addPathSegment(brand)
+                            .addPathSegment(model)
+                            .build())
+                    .addHeader("X-RapidAPI-Key", apiKey)
+                    .addHeader("X-RapidAPI-Host", baseUrl.host())
+                    .build();
+            try (Response response = okHttpClient.newCall(request).execute()) {
+                ResponseBody body = response.body();
+                return response.isSuccessful() && body != null ? Optional.of(body.bytes()) : Optional.empty();
+            }
+        }
+    }
+}
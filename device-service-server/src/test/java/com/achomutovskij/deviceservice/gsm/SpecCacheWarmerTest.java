@@ -0,0 +1,101 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.gsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.deviceservice.api.SpecCacheWarmUpProgress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.Test;
+
+public class SpecCacheWarmerTest {
+
+    private static final Duration REFRESH_INTERVAL = Duration.ofHours(1);
+
+    @Test
+    public void warmsTheUncachedNamesAndReportsTheProgress() throws Exception {
+        List<String> names = List.of("Nokia 3310", "Samsung Galaxy S9", "Apple iPhone 13", "Motorola Nexus 6");
+        try (RapidApiStandIn standIn =
+                RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, RapidApiStandIn.Behaviour.IMMEDIATE)) {
+            RapidApiClient client = client(standIn);
+            client.lookup("Nokia 3310");
+
+            SpecCacheWarmer warmer = new SpecCacheWarmer(client, () -> names, 1200, REFRESH_INTERVAL);
+            warmer.start();
+            try {
+                SpecCacheWarmUpProgress progress = awaitWarmed(warmer, names.size());
+                assertThat(progress.getRegisteredDeviceNames()).isEqualTo(names.size());
+                assertThat(progress.getPending()).isZero();
+                assertThat(progress.getLastRefreshTime()).isPresent();
+            } finally {
+                warmer.stop();
+            }
+
+            // the cached name is not looked up again, the one not found is cached too
+            assertThat(standIn.stats().requests()).isEqualTo(names.size());
+            assertThat(standIn.stats().notFound()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void prefetchesWithinTheQuota() throws Exception {
+        int requestsPerMinute = 1200;
+        long intervalMillis = TimeUnit.MINUTES.toMillis(1) / requestsPerMinute;
+        List<String> names = IntStream.range(0, 20)
+                .mapToObj(model -> "Unknown " + model)
+                .collect(Collectors.toList());
+        try (RapidApiStandIn standIn =
+                RapidApiStandIn.replaying(RapidApiStandIn.RECORDINGS, RapidApiStandIn.Behaviour.IMMEDIATE)) {
+            SpecCacheWarmer warmer =
+                    new SpecCacheWarmer(client(standIn), () -> names, requestsPerMinute, REFRESH_INTERVAL);
+
+            long startNanos = System.nanoTime();
+            warmer.start();
+            Thread.sleep(300);
+            SpecCacheWarmUpProgress progress = warmer.progress();
+            warmer.stop();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            // the first prefetch waits one interval, and each next one the interval after the last one finished
+            assertThat(standIn.stats().requests())
+                    .isPositive()
+                    .isLessThanOrEqualTo((int) (elapsedMillis / intervalMillis));
+            assertThat(progress.getRegisteredDeviceNames()).isEqualTo(names.size());
+            assertThat(progress.getPending()).isPositive();
+        }
+    }
+
+    private static SpecCacheWarmUpProgress awaitWarmed(SpecCacheWarmer warmer, int names) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (warmer.progress().getWarmed() < names && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        SpecCacheWarmUpProgress progress = warmer.progress();
+        assertThat(progress.getWarmed()).isEqualTo(names);
+        return progress;
+    }
+
+    private static RapidApiClient client(RapidApiStandIn standIn) {
+        return new RapidApiClient(
+                new OkHttpClient(), "key", RapidApiClient.DEFAULT_MAX_CONCURRENT_REQUESTS, standIn.baseUrl());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.achomutovskij.deviceservice.api.MemoryReport;
+import com.achomutovskij.deviceservice.api.MemoryUsage;
+import com.palantir.conjure.java.lib.SafeLong;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.OptionalLong;
+import org.junit.jupiter.api.Test;
+
+public class MemoryAccountingTest {
+
+    @Test
+    public void reportsComponentsByNameAgainstTheirBudgets() {
+        MemoryAccounting accounting = new MemoryAccounting();
+        accounting.register("rapidApiCache", () -> new MemoryFootprint(10, 4_096), OptionalLong.of(2_048));
+        accounting.register("capabilityIndex", () -> new MemoryFootprint(3, 512), OptionalLong.empty());
+        accounting.register("gsmArenaDataset", () -> new MemoryFootprint(5, 1_024), OptionalLong.of(1_024));
+
+        MemoryReport report = accounting.report();
+
+        assertThat(report.getComponents())
+                .containsExactly(
+                        usage("capabilityIndex", 3, 512, Optional.empty(), false),
+                        usage("gsmArenaDataset", 5, 1_024, Optional.of(SafeLong.of(1_024)), false),
+                        usage("rapidApiCache", 10, 4_096, Optional.of(SafeLong.of(2_048)), true));
+        assertThat(report.getHeapUsedBytes().longValue()).isPositive();
+        assertThat(report.getHeapMaxBytes().longValue())
+                .isGreaterThanOrEqualTo(report.getHeapCommittedBytes().longValue());
+    }
+
+    @Test
+    public void rejectsRegisteringAComponentTwice() {
+        MemoryAccounting accounting = new MemoryAccounting();
+        accounting.register("capabilityIndex", () -> new MemoryFootprint(0, 0), OptionalLong.empty());
+
+        assertThatThrownBy(() -> accounting.register(
+                        "capabilityIndex", () -> new MemoryFootprint(0, 0), OptionalLong.empty()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void estimatesCompressedReferenceLayouts() {
+        assertThat(MemorySizes.string("Nokia 3310")).isEqualTo(24 + 32);
+        assertThat(MemorySizes.string("Nokia 3310 \u2013 2017")).isEqualTo(24 + 56);
+        assertThat(MemorySizes.hashMap(0)).isEqualTo(48);
+        // 12 entries fit a table of 16
+        assertThat(MemorySizes.hashMap(12)).isEqualTo(48 + 80 + 12 * 32);
+        assertThat(MemorySizes.hashMap(13)).isEqualTo(48 + 144 + 13 * 32);
+        assertThat(MemorySizes.immutableMap(12)).isEqualTo(MemorySizes.object(1, 1) + 16 + 12 * 16);
+        assertThat(MemorySizes.bitSet(new BitSet(128))).isEqualTo(24 + 32);
+    }
+
+    private static MemoryUsage usage(
+            String component, long entries, long bytes, Optional<SafeLong> budgetBytes, boolean overBudget) {
+        return MemoryUsage.builder()
+                .component(component)
+                .entries(SafeLong.of(entries))
+                .approximateBytes(SafeLong.of(bytes))
+                .budgetBytes(budgetBytes)
+                .overBudget(overBudget)
+                .build();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class ChangeLogTest {
+
+    private final ChangeLog changeLog = new ChangeLog(4);
+
+    @AfterEach
+    void afterEach() {
+        changeLog.stop();
+    }
+
+    @Test
+    public void changesAreReadInOrder() {
+        changeLog.deviceRegistered(1, "Nokia 3310");
+        changeLog.deviceBooked(1, "Andrej");
+        changeLog.allDevicesDeleted();
+
+        assertThat(changeLog.since(0, 10)).hasValueSatisfying(changes -> {
+            assertThat(changes.entries())
+                    .containsExactly(
+                            new ChangeLog.Entry(1, 1),
+                            new ChangeLog.Entry(2, 1),
+                            new ChangeLog.Entry(3, ChangeLog.ALL_DEVICES));
+            assertThat(changes.lastSequence()).isEqualTo(3);
+        });
+        assertThat(changeLog.since(3, 10)).hasValueSatisfying(changes -> assertThat(changes.entries())
+                .isEmpty());
+    }
+
+    @Test
+    public void readsAreLimitedToTheGivenNumberOfChanges() {
+        changeLog.deviceRegistered(1, "Nokia 3310");
+        changeLog.deviceRegistered(2, "Nokia 3310");
+        changeLog.deviceRegistered(3, "Nokia 3310");
+
+        assertThat(changeLog.since(0, 2)).hasValueSatisfying(changes -> {
+            assertThat(changes.entries()).extracting(ChangeLog.Entry::sequence).containsExactly(1L, 2L);
+            assertThat(changes.lastSequence()).isEqualTo(3);
+        });
+    }
+
+    @Test
+    public void changesThatAreNoLongerKeptRequireASnapshot() {
+        for (int deviceId = 1; deviceId <= 6; deviceId++) {
+            changeLog.deviceDeleted(deviceId);
+        }
+
+        assertThat(changeLog.since(1, 10)).isEmpty();
+        assertThat(changeLog.since(2, 10)).hasValueSatisfying(changes -> assertThat(changes.entries())
+                .extracting(ChangeLog.Entry::deviceId)
+                .containsExactly(3, 4, 5, 6));
+        // a sequence the log has not reached, e.g. of a log from before a restart
+        assertThat(changeLog.since(7, 10)).isEmpty();
+    }
+
+    @Test
+    public void waitingEndsWithTheNextChange() throws ExecutionException, InterruptedException {
+        ListenableFuture<Boolean> change = changeLog.awaitChangeAfter(0, Duration.ofSeconds(10));
+        assertThat(change).isNotDone();
+
+        changeLog.leaseRenewed(1);
+
+        assertThat(change.get()).isTrue();
+        assertThat(changeLog.awaitChangeAfter(0, Duration.ofSeconds(10)).get()).isTrue();
+    }
+
+    @Test
+    public void waitingEndsWithoutAChangeAfterTheTimeout() throws ExecutionException, InterruptedException {
+        assertThat(changeLog.awaitChangeAfter(0, Duration.ofMillis(50)).get()).isFalse();
+        assertThat(changeLog.awaitChangeAfter(0, Duration.ZERO).get()).isFalse();
+    }
+}
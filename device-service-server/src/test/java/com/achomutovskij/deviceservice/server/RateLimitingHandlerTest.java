@@ -0,0 +1,148 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.undertow.Undertow;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class RateLimitingHandlerTest {
+
+    // a permit a second, so that none comes back while a test runs
+    private static final RateLimitingHandler.Budget READ_BUDGET = new RateLimitingHandler.Budget(1, 2);
+    private static final RateLimitingHandler.Budget WRITE_BUDGET = new RateLimitingHandler.Budget(1, 1);
+
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+    private Undertow server;
+
+    @AfterEach
+    public void after() {
+        server.stop();
+    }
+
+    @Test
+    public void callersOverTheBudgetAreToldWhenToRetry() throws Exception {
+        start(Set.of());
+
+        assertThat(send("/v1/info/all").statusCode()).isEqualTo(200);
+        assertThat(send("/v1/info/all").statusCode()).isEqualTo(200);
+        HttpResponse<String> rejected = send("/v1/info/all");
+        assertThat(rejected.statusCode()).isEqualTo(429);
+        assertThat(rejected.headers().firstValue("Retry-After")).hasValue("1");
+
+        assertThat(metricsRegistry.snapshot())
+                .containsEntry("rateLimit.read.allowed", 2L)
+                .containsEntry("rateLimit.read.rejected", 1L)
+                .containsEntry("rateLimit.read.callers", 1L)
+                .containsEntry("rateLimit.write.allowed", 0L)
+                .containsEntry("rateLimit.write.rejected", 0L)
+                .containsEntry("rateLimit.write.callers", 0L);
+    }
+
+    @Test
+    public void readsDoNotUseUpTheWriteBudget() throws Exception {
+        start(Set.of());
+
+        assertThat(send("/v1/info/all").statusCode()).isEqualTo(200);
+        assertThat(send("/v1/info/all").statusCode()).isEqualTo(200);
+        assertThat(send("/v1/info/all").statusCode()).isEqualTo(429);
+
+        assertThat(send("/v1/booking/device/1").statusCode()).isEqualTo(200);
+        assertThat(send("/v1/booking/device/1").statusCode()).isEqualTo(429);
+        assertThat(metricsRegistry.snapshot())
+                .containsEntry("rateLimit.write.allowed", 1L)
+                .containsEntry("rateLimit.write.rejected", 1L);
+    }
+
+    @Test
+    public void excludedPrefixesAreNotLimited() throws Exception {
+        start(Set.of());
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(send("/v1/cluster/book").statusCode()).isEqualTo(200);
+        }
+        assertThat(metricsRegistry.snapshot())
+                .containsEntry("rateLimit.write.allowed", 0L)
+                .containsEntry("rateLimit.write.rejected", 0L);
+    }
+
+    @Test
+    public void callerHeaderOfAnUntrustedAddressIsIgnored() throws Exception {
+        start(Set.of());
+
+        assertThat(send("/v1/booking/device/1", "alice").statusCode()).isEqualTo(200);
+        // a new name does not give the same address a new budget
+        assertThat(send("/v1/booking/device/1", "bob").statusCode()).isEqualTo(429);
+    }
+
+    @Test
+    public void trustedProxiesNameTheCaller() throws Exception {
+        start(Set.of("127.0.0.1"));
+
+        assertThat(send("/v1/booking/device/1", "alice").statusCode()).isEqualTo(200);
+        assertThat(send("/v1/booking/device/1", "bob").statusCode()).isEqualTo(200);
+        assertThat(send("/v1/booking/device/1", "alice").statusCode()).isEqualTo(429);
+        assertThat(metricsRegistry.snapshot()).containsEntry("rateLimit.write.callers", 2L);
+    }
+
+    private void start(Set<String> trustedProxies) {
+        server = Undertow.builder()
+                .addHttpListener(0, "127.0.0.1")
+                .setHandler(new RateLimitingHandler(
+                        exchange -> exchange.getResponseSender().send("ok"),
+                        "/v1/info/",
+                        List.of("/v1/cluster"),
+                        RateLimitingHandler.DEFAULT_CALLER_HEADER,
+                        trustedProxies,
+                        READ_BUDGET,
+                        WRITE_BUDGET,
+                        metricsRegistry))
+                .build();
+        server.start();
+    }
+
+    private HttpResponse<String> send(String path) throws Exception {
+        return httpClient.send(request(path).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> send(String path, String caller) throws Exception {
+        HttpRequest request = request(path)
+                .header(RateLimitingHandler.DEFAULT_CALLER_HEADER, caller)
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        int port = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:" + port + path))
+                .timeout(Duration.ofSeconds(30));
+    }
+}
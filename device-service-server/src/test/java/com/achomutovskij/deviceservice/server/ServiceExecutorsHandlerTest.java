@@ -0,0 +1,120 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.deviceservice.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ServiceExecutorsHandlerTest {
+
+    private static final int INFO_THREADS = 2;
+    private static final int INFO_QUEUE_SIZE = 2;
+
+    private final CountDownLatch listingsReleased = new CountDownLatch(1);
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+    private ServiceExecutorsHandler handler;
+    private Undertow server;
+
+    @BeforeEach
+    public void before() {
+        handler = new ServiceExecutorsHandler(
+                Handlers.path()
+                        .addPrefixPath("/v1/info", exchange -> {
+                            // a listing stuck on a slow enrichment
+                            listingsReleased.await();
+                            exchange.getResponseSender().send("devices");
+                        })
+                        .addPrefixPath("/v1/booking", exchange -> exchange.getResponseSender().send("booked")),
+                List.of(
+                        new ServiceExecutorsHandler.Pool("booking", 2, 2, List.of("/v1/booking/")),
+                        new ServiceExecutorsHandler.Pool(
+                                "info", INFO_THREADS, INFO_QUEUE_SIZE, List.of("/v1/info/"))),
+                metricsRegistry);
+        server = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    @AfterEach
+    public void after() {
+        listingsReleased.countDown();
+        server.stop();
+        handler.stop();
+    }
+
+    @Test
+    public void readStormDoesNotStarveBookings() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> listings = new ArrayList<>();
+        for (int i = 0; i < INFO_THREADS + INFO_QUEUE_SIZE; i++) {
+            listings.add(sendAsync("/v1/info/all"));
+        }
+        awaitMetric("executor.info.queued", INFO_QUEUE_SIZE);
+        assertThat(metricsRegistry.snapshot()).containsEntry("executor.info.active", INFO_THREADS);
+
+        // the listings beyond the pool are turned away, the bookings still go through
+        assertThat(sendAsync("/v1/info/all").get(10, TimeUnit.SECONDS).statusCode()).isEqualTo(503);
+        HttpResponse<String> booking = sendAsync("/v1/booking/device/1").get(10, TimeUnit.SECONDS);
+        assertThat(booking.statusCode()).isEqualTo(200);
+        assertThat(booking.body()).isEqualTo("booked");
+        assertThat(metricsRegistry.snapshot())
+                .containsEntry("executor.info.rejected", 1L)
+                .containsEntry("executor.booking.rejected", 0L);
+
+        listingsReleased.countDown();
+        for (CompletableFuture<HttpResponse<String>> listing : listings) {
+            assertThat(listing.get(10, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+        }
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendAsync(String path) {
+        int port = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + port + path))
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void awaitMetric(String name, int value) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!metricsRegistry.snapshot().getOrDefault(name, 0).equals(value) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(metricsRegistry.snapshot()).containsEntry(name, value);
+    }
+}